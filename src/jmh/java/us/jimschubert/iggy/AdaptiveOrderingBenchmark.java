@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates a skewed corpus in which 90% of paths are below {@code node_modules}, excluded by the last of many rules
+ * matching below it, with and without adaptive ordering.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdaptiveOrderingBenchmark {
+    static final String IGNORE = "# build output\n" +
+            "build/\n" +
+            "dist/\n" +
+            "coverage/\n" +
+            "**/*.log\n" +
+            "# trimmed from packages\n" +
+            "**/node_modules/**/test/\n" +
+            "**/node_modules/**/tests/**\n" +
+            "**/node_modules/**/*.md\n" +
+            "**/node_modules/**/*.ts\n" +
+            "**/node_modules/**/example*/**\n" +
+            "**/node_modules/**/docs/**\n" +
+            "**/node_modules/**/.bin/\n" +
+            "**/node_modules/**/*.map\n" +
+            "**/node_modules/**/CHANGELOG*\n" +
+            "**/node_modules/**/LICENSE*\n" +
+            "**/node_modules/**/*.flow\n" +
+            "**/node_modules/**/.github/**\n" +
+            "# dependencies\n" +
+            "**/node_modules/\n";
+
+    private static final int PATHS = 10000;
+
+    @Param({"false", "true"})
+    public boolean adaptive;
+
+    private Path directory;
+    private IgnoreProcessor processor;
+    private String[] corpus;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory(getClass().getSimpleName());
+        Files.write(directory.resolve(".gitignore"), IGNORE.getBytes(StandardCharsets.UTF_8));
+        processor = new IgnoreProcessor.Builder(directory.toFile().getAbsolutePath())
+                .addFile(".gitignore")
+                .setAdaptiveOrderingEnabled(adaptive)
+                .build();
+        corpus = mostlyDependencies(PATHS);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(directory.resolve(".gitignore"));
+        Files.delete(directory);
+    }
+
+    static String[] mostlyDependencies(int size) {
+        String[] paths = new String[size];
+        for (int i = 0; i < size; i++) {
+            if (i % 10 == 0) {
+                paths[i] = String.format("src/app/components/component%d/index.js", i);
+            } else if (i % 3 == 0) {
+                paths[i] = String.format("web/node_modules/package%d/lib/module%d.js", i % 97, i);
+            } else {
+                paths[i] = String.format("web/node_modules/@scope/package%d/dist/index%d.js", i % 89, i);
+            }
+        }
+        return paths;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATHS)
+    public int allowsPath() {
+        int allowed = 0;
+        for (String path : corpus) {
+            if (processor.allowsPath(path, false)) allowed++;
+        }
+        return allowed;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.openjdk.jmh.annotations.*;
+import us.jimschubert.iggy.rules.Rule;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates patterns which make a backtracking matcher retry wildcards in combination against paths which almost match
+ * (a long run of {@code a}). The time for {@link PathMatcher} grows with a power of the length; the time for a
+ * {@link Rule} grows linearly, which {@link LongPaths} shows for lengths the former can't reach (at 64 characters, the
+ * second pattern already takes seconds per path).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdversarialPatternBenchmark {
+
+    static String run(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append('a');
+        return sb.toString();
+    }
+
+    @State(Scope.Benchmark)
+    public static class ShortPaths {
+        @Param({"*a*a*a*a*b", "*a*a*a*a*a*a*b", "{*a,a*}{*a,a*}{*a,a*}b"})
+        public String pattern;
+
+        @Param({"8", "16", "24", "32"})
+        public int length;
+
+        Rule rule;
+        PathMatcher glob;
+        String path;
+
+        @Setup
+        public void setup() {
+            rule = Rule.create(pattern);
+            glob = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            path = run(length);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LongPaths {
+        @Param({"*a*a*a*a*a*a*b", "{*a,a*}{*a,a*}{*a,a*}b"})
+        public String pattern;
+
+        @Param({"1024", "4096", "16384"})
+        public int length;
+
+        Rule rule;
+        String path;
+
+        @Setup
+        public void setup() {
+            rule = Rule.create(pattern);
+            path = run(length);
+        }
+    }
+
+    @Benchmark
+    public boolean pathMatcher(ShortPaths state) {
+        Path path = FileSystems.getDefault().getPath(state.path);
+        return state.glob.matches(path);
+    }
+
+    @Benchmark
+    public Boolean rule(ShortPaths state) {
+        return state.rule.matches(state.path);
+    }
+
+    @Benchmark
+    public Boolean ruleLong(LongPaths state) {
+        return state.rule.matches(state.path);
+    }
+}
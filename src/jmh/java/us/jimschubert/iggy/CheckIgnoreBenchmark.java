@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the check-ignore command line, in paths per second, over a million-line input.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CheckIgnoreBenchmark {
+    private static final int PATHS = 1000000;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"false", "true"})
+    public boolean verbose;
+
+    private Path directory;
+    private CheckIgnore command;
+    private byte[] input;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory(getClass().getSimpleName());
+        Files.write(directory.resolve(".ignore"), NegativeCacheBenchmark.IGNORE.getBytes(StandardCharsets.UTF_8));
+        IgnoreProcessor processor = new IgnoreProcessor.Builder(directory.toFile()).addFile(".ignore").build();
+        command = new CheckIgnore(processor, false, verbose, threads, 4096);
+
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        for (String path : NegativeCacheBenchmark.mostlyAllowed(PATHS)) {
+            lines.write(path.getBytes(StandardCharsets.UTF_8));
+            lines.write('\n');
+        }
+        input = lines.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(directory.resolve(".ignore"));
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATHS)
+    public void filter() throws IOException {
+        command.filter(new ByteArrayInputStream(input), new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to the first decision for a generated 20,000 line ignore file, with and without lazy compilation.
+ * Each invocation is a single shot, so the result includes the cost of loading in a cold JVM.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 10)
+@Fork(5)
+@State(Scope.Benchmark)
+public class LazyCompilationBenchmark {
+    private static final int RULES = 20000;
+
+    @Param({"false", "true"})
+    public boolean lazy;
+
+    private String base;
+    private List<String> lines;
+
+    @Setup
+    public void setup() {
+        base = System.getProperty("java.io.tmpdir");
+        lines = generated(RULES);
+    }
+
+    static List<String> generated(int size) {
+        List<String> lines = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            switch (i % 8) {
+                case 0:
+                    lines.add("generated/module" + i + "/**");
+                    break;
+                case 1:
+                    lines.add("**/*.gen" + i);
+                    break;
+                case 2:
+                    lines.add("src/pkg" + i + "/*_gen.{java,kt}");
+                    break;
+                case 3:
+                    lines.add("out" + i + "/");
+                    break;
+                case 4:
+                    lines.add("**/cache" + i + "/*.tmp");
+                    break;
+                case 5:
+                    lines.add("docs/v" + i + "/[a-c]*.html");
+                    break;
+                case 6:
+                    lines.add("!**/keep" + i + ".txt");
+                    break;
+                default:
+                    lines.add("build/tmp" + i + "/**/*.o");
+                    break;
+            }
+        }
+        return lines;
+    }
+
+    @Benchmark
+    public boolean firstDecision() {
+        IgnoreProcessor processor = new IgnoreProcessor.Builder(base)
+                .addLines(".ignore", lines)
+                .setLazyCompilationEnabled(lazy)
+                .build();
+        return processor.allowsPath("src/pkg2/Main_gen.java", false);
+    }
+}
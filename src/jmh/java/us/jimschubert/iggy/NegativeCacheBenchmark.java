@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates a corpus in which 97% of paths are allowed, with and without the negative cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NegativeCacheBenchmark {
+    static final String IGNORE = "# dependencies\n" +
+            "node_modules/\n" +
+            "bower_components/\n" +
+            "vendor/\n" +
+            "# build output\n" +
+            "build/\n" +
+            "dist/\n" +
+            "out/\n" +
+            "target/\n" +
+            "coverage/\n" +
+            "**/*.class\n" +
+            "**/*.o\n" +
+            "**/*.pyc\n" +
+            "**/*.min.js\n" +
+            "**/*.map\n" +
+            "# editors and logs\n" +
+            ".idea/\n" +
+            "**/*.iml\n" +
+            "**/*.swp\n" +
+            "**/.DS_Store\n" +
+            "*.log\n" +
+            "**/*.log\n" +
+            "**/*.tmp\n" +
+            "docs/**\n" +
+            "!docs/README.md\n";
+
+    private static final int PATHS = 10000;
+
+    @Param({"false", "true"})
+    public boolean negativeCache;
+
+    private Path directory;
+    private IgnoreProcessor processor;
+    private String[] corpus;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory(getClass().getSimpleName());
+        Files.write(directory.resolve(".ignore"), IGNORE.getBytes(StandardCharsets.UTF_8));
+        processor = new IgnoreProcessor.Builder(directory.toFile()).addFile(".ignore").setNegativeCacheEnabled(negativeCache).build();
+        corpus = mostlyAllowed(PATHS);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(directory.resolve(".ignore"));
+        Files.delete(directory);
+    }
+
+    static String[] mostlyAllowed(int size) {
+        String[] paths = new String[size];
+        for (int i = 0; i < size; i++) {
+            switch (i % 100) {
+                case 0:
+                    paths[i] = String.format("web/node_modules/package%d/index.js", i);
+                    break;
+                case 1:
+                    paths[i] = String.format("logs/run%d.log", i);
+                    break;
+                case 2:
+                    paths[i] = String.format("web/dist/bundle%d.min.js", i);
+                    break;
+                default:
+                    if (i % 3 == 0) {
+                        paths[i] = String.format("src/main/java/com/example/module%d/Service%d.java", i % 17, i);
+                    } else if (i % 3 == 1) {
+                        paths[i] = String.format("web/app/components/component%d/index.ts", i);
+                    } else {
+                        paths[i] = String.format("src/test/resources/fixtures/fixture%d.json", i);
+                    }
+                    break;
+            }
+        }
+        return paths;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATHS)
+    public int allowsPath() {
+        int allowed = 0;
+        for (String path : corpus) {
+            if (processor.allowsPath(path, false)) allowed++;
+        }
+        return allowed;
+    }
+}
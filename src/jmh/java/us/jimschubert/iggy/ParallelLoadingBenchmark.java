@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to load a generated 200,000 line ignore file against the number of threads loading it. A
+ * parallelism of {@code 0} loads sequentially, without a pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelLoadingBenchmark {
+    private static final int RULES = 200000;
+
+    @Param({"0", "1", "2", "4", "8", "16"})
+    public int parallelism;
+
+    private String base;
+    private List<String> lines;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        base = System.getProperty("java.io.tmpdir");
+        lines = LazyCompilationBenchmark.generated(RULES);
+        pool = parallelism > 0 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    @Benchmark
+    public IgnoreProcessor load() {
+        return new IgnoreProcessor.Builder(base)
+                .addLines(".ignore", lines)
+                .setLoadingPool(pool)
+                .build();
+    }
+}
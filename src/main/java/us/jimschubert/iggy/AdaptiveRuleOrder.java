@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import java.util.BitSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Tracks how often each exclusion rule matches, and publishes the rules most likely to match as a plan of the order in
+ * which to try them.
+ * <p>
+ * One evaluation in {@value #SAMPLE_RATE} is sampled: all of its candidates are evaluated in their usual order, and
+ * every matching rule is counted. Only samples are counted, as other evaluations stop once their outcome is settled, which
+ * would favour the rules already in the plan. Every {@value #INTERVAL} samples, the {@value #PLAN_SIZE} most frequent rules
+ * are published as a new plan, and the counts are halved so the plan follows changes in the workload.
+ * <p>
+ * Counts are updated without synchronization, so concurrent samples may be lost; the plan is only a hint, and any plan
+ * gives the same outcome for every path.
+ */
+final class AdaptiveRuleOrder {
+    /**
+     * One evaluation in this many is sampled.
+     */
+    static final int SAMPLE_RATE = 64;
+    /**
+     * The number of samples between plans.
+     */
+    static final int INTERVAL = 256;
+    /**
+     * The greatest number of rules in a plan.
+     */
+    static final int PLAN_SIZE = 8;
+
+    private final int[] hits;
+    private int samples = 0;
+    private volatile int[] plan = new int[0];
+
+    /**
+     * Constructs an order for a list of exclusion rules.
+     *
+     * @param size The number of exclusion rules.
+     */
+    AdaptiveRuleOrder(int size) {
+        this.hits = new int[size];
+    }
+
+    /**
+     * Determines whether the current evaluation is sampled.
+     *
+     * @return {@code true} if all candidates should be evaluated, and the matches passed to {@link AdaptiveRuleOrder#record(BitSet)}.
+     */
+    boolean sample() {
+        return ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0;
+    }
+
+    /**
+     * Counts the exclusion rules matched by a sampled evaluation, publishing a new plan every {@value #INTERVAL} samples.
+     *
+     * @param matched The indexes of the matching exclusion rules.
+     */
+    void record(BitSet matched) {
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) hits[i]++;
+        if (++samples >= INTERVAL) {
+            samples = 0;
+            plan = plan();
+        }
+    }
+
+    /**
+     * Gets the current plan.
+     *
+     * @return The indexes of the exclusion rules to try first, most frequent first.
+     */
+    int[] getPlan() {
+        return plan;
+    }
+
+    private int[] plan() {
+        int[] best = new int[PLAN_SIZE];
+        int[] counts = new int[PLAN_SIZE];
+        int size = 0;
+        for (int i = 0; i < hits.length; i++) {
+            int count = hits[i];
+            hits[i] = count >>> 1;
+            if (count == 0 || (size == PLAN_SIZE && count <= counts[size - 1])) continue;
+
+            // Insertion into the few most frequent so far, keeping rules of equal count in their usual order.
+            int at = size == PLAN_SIZE ? size - 1 : size++;
+            while (at > 0 && counts[at - 1] < count) {
+                best[at] = best[at - 1];
+                counts[at] = counts[at - 1];
+                at--;
+            }
+            best[at] = i;
+            counts[at] = count;
+        }
+        int[] result = new int[size];
+        System.arraycopy(best, 0, result, 0, size);
+        return result;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Applies the rules of an {@link IgnoreProcessor} to the entries of a zip or jar archive, by entry name, without extracting the archive.
+ * <p>
+ * Entry names are evaluated as paths relative to the directory containing the ignore file. As with a tree walker which skips
+ * excluded directories, an entry within an excluded directory is excluded even if it has no directory entry of its own.
+ * <p>
+ * Instances cache the outcome for each directory, and are not thread-safe.
+ */
+public class ArchiveFilter {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final TreeCursor root;
+    private final Map<String, TreeCursor> directories = new HashMap<>();
+
+    /**
+     * Constructs a filter for archive entries.
+     *
+     * @param processor The processor defining which entries are allowed.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public ArchiveFilter(final IgnoreProcessor processor) {
+        this.root = processor.cursor();
+    }
+
+    /**
+     * Determines whether or not an archive entry is allowed.
+     *
+     * @param entry The entry, from a {@link ZipFile}, {@link ZipInputStream} or {@link java.util.jar.JarFile}.
+     * @return {@code false} if the entry matches any pattern in the ignore file (disallowed), otherwise {@code true} (allowed).
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean allows(final ZipEntry entry) {
+        return allows(entry.getName());
+    }
+
+    /**
+     * Determines whether or not a path within a zip file system (see {@link java.nio.file.FileSystems#newFileSystem(Path, ClassLoader)})
+     * is allowed. This is intended for use within a {@link java.nio.file.FileVisitor} walking the archive.
+     *
+     * @param path       The path within the archive.
+     * @param attributes The attributes of {@code path}, as provided by {@link java.nio.file.Files#walkFileTree(Path, java.nio.file.FileVisitor)}.
+     * @return {@code false} if the path matches any pattern in the ignore file (disallowed), otherwise {@code true} (allowed).
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean allows(final Path path, final BasicFileAttributes attributes) {
+        Path relative = path.isAbsolute() ? path.getRoot().relativize(path) : path;
+        String name = relative.toString().replace(path.getFileSystem().getSeparator(), "/");
+        return allows(attributes.isDirectory() ? name + "/" : name);
+    }
+
+    /**
+     * Determines whether or not an archive entry is allowed, by name.
+     *
+     * @param entryName The name of the entry. Directory entries end with {@code /}.
+     * @return {@code false} if the entry matches any pattern in the ignore file (disallowed), otherwise {@code true} (allowed).
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean allows(final String entryName) {
+        int start = 0;
+        int end = entryName.length();
+        while (start < end && entryName.charAt(start) == '/') start++;
+        boolean isDirectory = end > start && entryName.charAt(end - 1) == '/';
+        while (end > start && entryName.charAt(end - 1) == '/') end--;
+        if (start == end) return true;
+
+        String name = entryName.substring(start, end);
+        int slash = name.lastIndexOf('/');
+        TreeCursor parent = slash < 0 ? root : directory(name.substring(0, slash));
+        return parent != null && parent.resolve(name.substring(slash + 1)).allows(isDirectory);
+    }
+
+    /**
+     * Gets the cursor for an allowed directory, or {@code null} if the directory or one of its parents is excluded.
+     */
+    private TreeCursor directory(final String path) {
+        if (directories.containsKey(path)) return directories.get(path);
+
+        int slash = path.lastIndexOf('/');
+        TreeCursor parent = slash < 0 ? root : directory(path.substring(0, slash));
+        TreeCursor cursor = parent == null ? null : parent.resolve(path.substring(slash + 1));
+        if (cursor != null && !cursor.allows(true)) cursor = null;
+        directories.put(path, cursor);
+        return cursor;
+    }
+
+    /**
+     * Lists the allowed entries of an archive, in the order they appear in the archive.
+     *
+     * @param archive The archive.
+     * @return The allowed entries.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public List<ZipEntry> entries(final ZipFile archive) {
+        List<ZipEntry> allowed = new ArrayList<>();
+        Enumeration<? extends ZipEntry> entries = archive.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (allows(entry)) allowed.add(entry);
+        }
+        return allowed;
+    }
+
+    /**
+     * Writes the allowed entries of an archive to {@code target}. The caller is responsible for closing {@code target}.
+     *
+     * @param archive The archive to read.
+     * @param target  The stream receiving the allowed entries.
+     * @return The number of entries written.
+     * @throws IOException if the archive can't be read, or the target can't be written.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public int filter(final ZipFile archive, final ZipOutputStream target) throws IOException {
+        int written = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (ZipEntry entry : entries(archive)) {
+            try (InputStream in = archive.getInputStream(entry)) {
+                write(entry, in, target, buffer);
+            }
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Writes the allowed entries of an archive to {@code target}, in a single pass over {@code source}.
+     * The caller is responsible for closing both streams.
+     * <p>
+     * To filter a jar, read it with a {@link ZipInputStream} rather than a {@link java.util.jar.JarInputStream}, which
+     * doesn't return the manifest as an entry.
+     *
+     * @param source The stream to read.
+     * @param target The stream receiving the allowed entries.
+     * @return The number of entries written.
+     * @throws IOException if the source can't be read, or the target can't be written.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public int filter(final ZipInputStream source, final ZipOutputStream target) throws IOException {
+        int written = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ZipEntry entry;
+        while ((entry = source.getNextEntry()) != null) {
+            if (allows(entry)) {
+                write(entry, source, target, buffer);
+                written++;
+            }
+        }
+        return written;
+    }
+
+    private static void write(ZipEntry entry, InputStream in, ZipOutputStream target, byte[] buffer) throws IOException {
+        // NOTE: The compressed size of the source entry won't match once recompressed, so only metadata is copied.
+        ZipEntry copy = new ZipEntry(entry.getName());
+        copy.setTime(entry.getTime());
+        if (entry.getComment() != null) copy.setComment(entry.getComment());
+        if (entry.getExtra() != null) copy.setExtra(entry.getExtra());
+        if (entry.getMethod() == ZipEntry.STORED && entry.getSize() >= 0 && entry.getCrc() >= 0) {
+            copy.setMethod(ZipEntry.STORED);
+            copy.setSize(entry.getSize());
+            copy.setCompressedSize(entry.getSize());
+            copy.setCrc(entry.getCrc());
+        }
+
+        target.putNextEntry(copy);
+        copy(in, target, buffer);
+        target.closeEntry();
+    }
+
+    private static void copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+}
@@ -0,0 +1,508 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the allowed files of a directory tree to a zip or gzip compressed tar archive, such as a generated SDK.
+ * <p>
+ * The tree is walked directly into the archive: the children of each directory are listed, sorted by name, and
+ * evaluated with the directory's {@link TreeCursor}, and excluded directories are never walked. Entries are written in
+ * that order, so the same tree gives the same archive. File content is compressed in blocks on an optional pool (see
+ * {@link Builder#setPool(ForkJoinPool)}), and the output is the same with or without one.
+ * <p>
+ * Memory is bounded by the number of blocks being compressed and the names in the directories being walked, not by
+ * the number of files in the tree. A zip's central directory is spooled to a temporary file until the end of the
+ * archive.
+ * <p>
+ * Only directories and regular files are archived; symbolic links and other special files are skipped. Times are
+ * written in UTC. A zip holds at most 65535 entries and 4 GiB; larger trees should use {@link Format#TAR_GZ}.
+ */
+public final class ArchiveWriter {
+    private static final long ZIP_LIMIT = 0xFFFFFFFFL;
+    private static final int ZIP_ENTRY_LIMIT = 0xFFFF;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The archive formats which can be written.
+     */
+    public enum Format {
+        /**
+         * A zip archive, with deflated files.
+         */
+        ZIP,
+        /**
+         * A POSIX (pax) tar archive, compressed with gzip.
+         */
+        TAR_GZ
+    }
+
+    private final IgnoreProcessor rules;
+    private final Format format;
+    private final ForkJoinPool pool;
+    private final int level;
+
+    private ArchiveWriter(IgnoreProcessor rules, Format format, ForkJoinPool pool, int level) {
+        this.rules = rules;
+        this.format = format;
+        this.pool = pool;
+        this.level = level;
+    }
+
+    /**
+     * Writes the allowed files and directories below {@code root} to {@code out}. Paths are evaluated relative to
+     * {@code root}, and entries are named by that relative path. The caller is responsible for closing {@code out}.
+     *
+     * @param root The directory to archive.
+     * @param out  The stream receiving the archive.
+     * @return The number of entries written.
+     * @throws IOException if a directory or file can't be read, the stream can't be written, or the tree exceeds the limits of the format.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public int write(final Path root, final OutputStream out) throws IOException {
+        DeflatePipeline pipeline = new DeflatePipeline(out, pool, level);
+        Archive archive = format == Format.ZIP ? new ZipArchive(pipeline) : new TarArchive(pipeline);
+        try {
+            walk(root, rules.cursor(), archive);
+            archive.finish();
+            pipeline.finish();
+        } finally {
+            archive.close();
+        }
+        return archive.entries;
+    }
+
+    private static void walk(Path directory, TreeCursor cursor, Archive archive) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            for (Path child : children) names.add(child.getFileName().toString());
+        }
+        Collections.sort(names);
+
+        for (String name : names) {
+            Path child = directory.resolve(name);
+            BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            TreeCursor resolved = cursor.resolve(name);
+            if (attrs.isDirectory()) {
+                if (!resolved.allows(true)) continue;
+                archive.directory(resolved.getRelativePath(), attrs);
+                walk(child, resolved, archive);
+            } else if (attrs.isRegularFile() && resolved.allows(false)) {
+                archive.file(resolved.getRelativePath(), child, attrs);
+            }
+        }
+    }
+
+    private abstract static class Archive {
+        final DeflatePipeline pipeline;
+        int entries = 0;
+
+        Archive(DeflatePipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        abstract void directory(String name, BasicFileAttributes attrs) throws IOException;
+
+        abstract void file(String name, Path file, BasicFileAttributes attrs) throws IOException;
+
+        abstract void finish() throws IOException;
+
+        void close() throws IOException {
+        }
+    }
+
+    private static final class ZipArchive extends Archive {
+        private final Path spool;
+        private final OutputStream central;
+        private long centralSize = 0;
+
+        ZipArchive(DeflatePipeline pipeline) throws IOException {
+            super(pipeline);
+            this.spool = Files.createTempFile("iggy", ".zipcd");
+            this.central = new BufferedOutputStream(Files.newOutputStream(spool), BUFFER_SIZE);
+        }
+
+        private void count() throws IOException {
+            if (++entries > ZIP_ENTRY_LIMIT) throw new IOException("Too many entries for a zip archive; use TAR_GZ.");
+        }
+
+        @Override
+        void directory(String name, BasicFileAttributes attrs) throws IOException {
+            count();
+            final Entry entry = new Entry(name + "/", attrs, false);
+            pipeline.later(new DeflatePipeline.Chunk() {
+                @Override
+                public void writeTo(DeflatePipeline.Counting out) throws IOException {
+                    entry.offset = out.position();
+                    out.write(entry.local());
+                    record(entry);
+                }
+            });
+        }
+
+        @Override
+        void file(String name, Path file, BasicFileAttributes attrs) throws IOException {
+            count();
+            if (attrs.size() >= ZIP_LIMIT) throw new IOException(String.format("%s is too large for a zip archive; use TAR_GZ.", name));
+
+            final Entry entry = new Entry(name, attrs, true);
+            pipeline.later(new DeflatePipeline.Chunk() {
+                @Override
+                public void writeTo(DeflatePipeline.Counting out) throws IOException {
+                    entry.offset = out.position();
+                    out.write(entry.local());
+                }
+            });
+            final DeflatePipeline.Stream stream = pipeline.begin();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                pipeline.transferFrom(channel, attrs.size());
+            }
+            pipeline.end();
+            pipeline.later(new DeflatePipeline.Chunk() {
+                @Override
+                public void writeTo(DeflatePipeline.Counting out) throws IOException {
+                    if (stream.compressed >= ZIP_LIMIT) throw new IOException(String.format("%s is too large for a zip archive; use TAR_GZ.", entry.name));
+                    entry.crc = stream.crc.getValue();
+                    entry.size = stream.size;
+                    entry.compressed = stream.compressed;
+                    out.write(entry.descriptor());
+                    record(entry);
+                }
+            });
+        }
+
+        private void record(Entry entry) throws IOException {
+            if (entry.offset >= ZIP_LIMIT) throw new IOException("Archive is too large for a zip archive; use TAR_GZ.");
+            byte[] record = entry.central();
+            central.write(record);
+            centralSize += record.length;
+        }
+
+        @Override
+        void finish() throws IOException {
+            pipeline.later(new DeflatePipeline.Chunk() {
+                @Override
+                public void writeTo(DeflatePipeline.Counting out) throws IOException {
+                    central.close();
+                    long offset = out.position();
+                    if (offset >= ZIP_LIMIT) throw new IOException("Archive is too large for a zip archive; use TAR_GZ.");
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    try (InputStream in = Files.newInputStream(spool)) {
+                        int read;
+                        while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+                    }
+
+                    ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+                    end.putInt(0x06054b50);
+                    end.putShort((short) 0);
+                    end.putShort((short) 0);
+                    end.putShort((short) entries);
+                    end.putShort((short) entries);
+                    end.putInt((int) centralSize);
+                    end.putInt((int) offset);
+                    end.putShort((short) 0);
+                    out.write(end.array());
+                }
+            });
+        }
+
+        @Override
+        void close() throws IOException {
+            try {
+                central.close();
+            } finally {
+                Files.deleteIfExists(spool);
+            }
+        }
+    }
+
+    private static final class Entry {
+        final String name;
+        final byte[] encoded;
+        final boolean file;
+        final int time;
+        final int date;
+        long offset;
+        long crc = 0;
+        long size = 0;
+        long compressed = 0;
+
+        Entry(String name, BasicFileAttributes attrs, boolean file) {
+            this.name = name;
+            this.encoded = name.getBytes(StandardCharsets.UTF_8);
+            this.file = file;
+
+            LocalDateTime modified = LocalDateTime.ofEpochSecond(attrs.lastModifiedTime().toMillis() / 1000, 0, ZoneOffset.UTC);
+            if (modified.getYear() < 1980) modified = LocalDateTime.of(1980, 1, 1, 0, 0);
+            this.time = (modified.getHour() << 11) | (modified.getMinute() << 5) | (modified.getSecond() >> 1);
+            this.date = ((modified.getYear() - 1980) << 9) | (modified.getMonthValue() << 5) | modified.getDayOfMonth();
+        }
+
+        // Names are UTF-8 (bit 11), and the sizes of deflated files follow their data (bit 3).
+        private int flags() {
+            return 0x0800 | (file ? 0x0008 : 0);
+        }
+
+        byte[] local() {
+            ByteBuffer header = ByteBuffer.allocate(30 + encoded.length).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0x04034b50);
+            header.putShort((short) 20);
+            header.putShort((short) flags());
+            header.putShort((short) (file ? 8 : 0));
+            header.putShort((short) time);
+            header.putShort((short) date);
+            header.putInt(0);
+            header.putInt(0);
+            header.putInt(0);
+            header.putShort((short) encoded.length);
+            header.putShort((short) 0);
+            header.put(encoded);
+            return header.array();
+        }
+
+        byte[] descriptor() {
+            ByteBuffer descriptor = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            descriptor.putInt(0x08074b50);
+            descriptor.putInt((int) crc);
+            descriptor.putInt((int) compressed);
+            descriptor.putInt((int) size);
+            return descriptor.array();
+        }
+
+        byte[] central() {
+            ByteBuffer header = ByteBuffer.allocate(46 + encoded.length).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0x02014b50);
+            header.putShort((short) 0x0314); // made by: unix, 2.0
+            header.putShort((short) 20);
+            header.putShort((short) flags());
+            header.putShort((short) (file ? 8 : 0));
+            header.putShort((short) time);
+            header.putShort((short) date);
+            header.putInt((int) crc);
+            header.putInt((int) compressed);
+            header.putInt((int) size);
+            header.putShort((short) encoded.length);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            // Unix mode in the high bits; the low byte holds the MS-DOS directory attribute.
+            header.putInt(file ? 0100644 << 16 : (040755 << 16) | 0x10);
+            header.putInt((int) offset);
+            header.put(encoded);
+            return header.array();
+        }
+    }
+
+    private static final class TarArchive extends Archive {
+        private static final int RECORD = 512;
+        private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+        TarArchive(DeflatePipeline pipeline) throws IOException {
+            super(pipeline);
+            // gzip header: deflate, no flags, no modification time, unknown OS, so the same tree gives the same bytes.
+            pipeline.raw(new byte[]{0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+            pipeline.begin();
+        }
+
+        @Override
+        void directory(String name, BasicFileAttributes attrs) throws IOException {
+            entries++;
+            header(name + "/", '5', 0755, 0, attrs);
+        }
+
+        @Override
+        void file(String name, Path file, BasicFileAttributes attrs) throws IOException {
+            entries++;
+            long size = attrs.size();
+            header(name, '0', 0644, size, attrs);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                pipeline.transferFrom(channel, size);
+            }
+            pad(size);
+        }
+
+        private void header(String name, char type, int mode, long size, BasicFileAttributes attrs) throws IOException {
+            byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+            long mtime = Math.max(0, attrs.lastModifiedTime().toMillis() / 1000);
+
+            // Names longer than the ustar field, and sizes of 8 GiB or more, are given by a pax extended header.
+            StringBuilder pax = new StringBuilder();
+            if (encoded.length > 100) pax.append(record("path", name));
+            if (size > MAX_OCTAL_SIZE) pax.append(record("size", Long.toString(size)));
+            if (pax.length() > 0) {
+                byte[] records = pax.toString().getBytes(StandardCharsets.UTF_8);
+                write(ustar("PaxHeader".getBytes(StandardCharsets.US_ASCII), 'x', 0644, records.length, mtime));
+                write(records);
+                pad(records.length);
+            }
+
+            byte[] truncated = encoded.length > 100 ? truncate(encoded) : encoded;
+            write(ustar(truncated, type, mode, Math.min(size, MAX_OCTAL_SIZE), mtime));
+        }
+
+        /**
+         * Formats a pax record, {@code "<length> <key>=<value>\n"}, where the length includes itself.
+         */
+        private static String record(String key, String value) {
+            int length = key.length() + value.getBytes(StandardCharsets.UTF_8).length + 3;
+            int digits = Integer.toString(length).length();
+            if (Integer.toString(length + digits).length() > digits) digits++;
+            return (length + digits) + " " + key + "=" + value + "\n";
+        }
+
+        private static byte[] truncate(byte[] encoded) {
+            byte[] result = new byte[100];
+            System.arraycopy(encoded, encoded.length - 100, result, 0, 100);
+            return result;
+        }
+
+        private static byte[] ustar(byte[] name, char type, int mode, long size, long mtime) {
+            byte[] header = new byte[RECORD];
+            System.arraycopy(name, 0, header, 0, name.length);
+            octal(header, 100, 8, mode);
+            octal(header, 108, 8, 0);
+            octal(header, 116, 8, 0);
+            octal(header, 124, 12, size);
+            octal(header, 136, 12, mtime);
+            header[156] = (byte) type;
+            System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+            // The checksum is computed with its own field filled with spaces.
+            for (int i = 148; i < 156; i++) header[i] = ' ';
+            long sum = 0;
+            for (byte b : header) sum += b & 0xff;
+            octal(header, 148, 7, sum);
+            return header;
+        }
+
+        /**
+         * Writes {@code value} as zero-padded octal digits, followed by a NUL, in a field of {@code width} bytes.
+         */
+        private static void octal(byte[] header, int offset, int width, long value) {
+            String digits = Long.toOctalString(value);
+            int count = width - 1;
+            for (int i = 0; i < count; i++) {
+                int from = digits.length() - count + i;
+                header[offset + i] = (byte) (from < 0 ? '0' : digits.charAt(from));
+            }
+            header[offset + count] = 0;
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            pipeline.write(bytes, 0, bytes.length);
+        }
+
+        private void pad(long size) throws IOException {
+            int remainder = (int) (size % RECORD);
+            if (remainder > 0) write(new byte[RECORD - remainder]);
+        }
+
+        @Override
+        void finish() throws IOException {
+            write(new byte[2 * RECORD]);
+            final DeflatePipeline.Stream stream = pipeline.end();
+            pipeline.later(new DeflatePipeline.Chunk() {
+                @Override
+                public void writeTo(DeflatePipeline.Counting out) throws IOException {
+                    ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                    trailer.putInt((int) stream.crc.getValue());
+                    trailer.putInt((int) stream.size);
+                    out.write(trailer.array());
+                }
+            });
+        }
+    }
+
+    /**
+     * Builds an {@link ArchiveWriter}.
+     */
+    public static class Builder {
+        private final IgnoreProcessor rules;
+        private final Format format;
+        private ForkJoinPool pool = null;
+        private int level = Deflater.DEFAULT_COMPRESSION;
+
+        /**
+         * Creates a builder for archiving the paths allowed by {@code rules}.
+         *
+         * @param rules  The rules of the tree.
+         * @param format The format of the archive.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder(final IgnoreProcessor rules, final Format format) {
+            this.rules = rules;
+            this.format = format;
+        }
+
+        /**
+         * Sets the pool on which file content is compressed (none by default). The tree is always walked, and the
+         * archive written, on the calling thread.
+         *
+         * @param pool The pool to compress on (e.g. {@link ForkJoinPool#commonPool()}), or {@code null} to compress sequentially.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder setPool(final ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Sets the compression level (see {@link Deflater}; {@link Deflater#DEFAULT_COMPRESSION} by default).
+         *
+         * @param level The compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder setLevel(final int level) {
+            this.level = level;
+            return this;
+        }
+
+        /**
+         * Creates the {@link ArchiveWriter}.
+         *
+         * @return The archive writer.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public ArchiveWriter build() {
+            return new ArchiveWriter(rules, format, pool, level);
+        }
+    }
+}
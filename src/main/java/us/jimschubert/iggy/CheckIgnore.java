@@ -0,0 +1,454 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import us.jimschubert.iggy.rules.Rule;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A command line filter in the style of {@code git check-ignore}, evaluating many paths in a single process.
+ * <p>
+ * Paths are read from stdin, one per line (or NUL-delimited with {@code -z}), relative to the base directory.
+ * A path ending in {@code /} is evaluated as a directory. Paths are evaluated in batches on a pool of workers,
+ * and results are written in input order: by default the allowed paths, or with {@code -v} a
+ * {@code source:line:pattern<TAB>path} record for every path. As with {@code git check-ignore -z -v}, NUL-delimited
+ * records are instead written as {@code source NUL line NUL pattern NUL path NUL}.
+ * <p>
+ * With {@code --serve}, the command instead runs an {@link IgnoreDaemon}. Later runs with {@code --daemon} send their
+ * paths to it, skipping JVM warm-up and ignore file compilation for repeated invocations.
+ */
+public final class CheckIgnore {
+    static final String USAGE = "usage: iggy [-z] [-v] [-C <directory>] [-f <ignore file>]... [--threads <n>] [--batch <n>] [--cache <file>] [--daemon <socket>]\n" +
+            "       iggy --serve <socket>\n" +
+            "\n" +
+            "Reads paths from stdin and writes those allowed by the ignore files to stdout.\n" +
+            "\n" +
+            "    -z                 paths are NUL-delimited on input and output\n" +
+            "    -v, --verbose      write source:line:pattern<TAB>path for every path (with -z, NUL after each field)\n" +
+            "    -C <directory>     the directory paths are relative to (default: current directory)\n" +
+            "    -f <ignore file>   an ignore file, relative to the directory; later files take precedence (default: .ignore)\n" +
+            "    --threads <n>      the number of worker threads (default: available processors)\n" +
+            "    --batch <n>        the number of paths per batch (default: 4096)\n" +
+            "    --cache <file>     keep decisions in a file between runs; emptied when the rules change\n" +
+            "    --daemon <socket>  evaluate paths on a daemon, which keeps compiled ignore files between runs\n" +
+            "    --serve <socket>   run a daemon listening on the socket until stopped\n";
+
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final IgnoreProcessor processor;
+    private final DecisionCache cache;
+    private final IgnoreDaemonClient client;
+    private final String directory;
+    private final List<String> ignoreFiles;
+    private final byte delimiter;
+    private final boolean verbose;
+    private final int threads;
+    private final int batchSize;
+
+    CheckIgnore(IgnoreProcessor processor, boolean nulDelimited, boolean verbose, int threads, int batchSize) {
+        this(processor, null, null, null, null, nulDelimited, verbose, threads, batchSize);
+    }
+
+    /**
+     * Evaluates paths through a {@link DecisionCache}. Verbose records need the deciding rule, so they bypass the cache.
+     */
+    CheckIgnore(DecisionCache cache, IgnoreProcessor processor, boolean nulDelimited, boolean verbose, int threads, int batchSize) {
+        this(processor, cache, null, null, null, nulDelimited, verbose, threads, batchSize);
+    }
+
+    /**
+     * Evaluates paths on a daemon. Batches are sent one at a time, as a connection answers requests in order.
+     */
+    CheckIgnore(IgnoreDaemonClient client, String directory, List<String> ignoreFiles, boolean nulDelimited, boolean verbose, int batchSize) {
+        this(null, null, client, directory, ignoreFiles, nulDelimited, verbose, 1, batchSize);
+    }
+
+    private CheckIgnore(IgnoreProcessor processor, DecisionCache cache, IgnoreDaemonClient client, String directory,
+                        List<String> ignoreFiles, boolean nulDelimited, boolean verbose, int threads, int batchSize) {
+        this.processor = processor;
+        this.cache = cache;
+        this.client = client;
+        this.directory = directory;
+        this.ignoreFiles = ignoreFiles;
+        this.delimiter = nulDelimited ? (byte) 0 : (byte) '\n';
+        this.verbose = verbose;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    public static void main(String[] args) {
+        // Keep stdout for results; the library logs through logback, which writes to stdout by default.
+        if (System.getProperty("logback.configurationFile") == null) {
+            System.setProperty("logback.configurationFile", "us/jimschubert/iggy/check-ignore-logback.xml");
+        }
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+
+    /**
+     * Runs the command.
+     *
+     * @return The exit status: {@code 0} on success, {@code 1} if paths couldn't be read or written, {@code 2} for invalid arguments.
+     */
+    static int run(String[] args, InputStream in, OutputStream out, PrintStream err) {
+        boolean nulDelimited = false;
+        boolean verbose = false;
+        String directory = System.getProperty("user.dir");
+        List<String> ignoreFiles = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int batchSize = 4096;
+        String daemon = null;
+        String serve = null;
+        String cache = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-z":
+                        nulDelimited = true;
+                        break;
+                    case "-v":
+                    case "--verbose":
+                        verbose = true;
+                        break;
+                    case "-C":
+                        directory = value(args, ++i);
+                        break;
+                    case "-f":
+                        ignoreFiles.add(value(args, ++i));
+                        break;
+                    case "--threads":
+                        threads = positive(value(args, ++i));
+                        break;
+                    case "--batch":
+                        batchSize = positive(value(args, ++i));
+                        break;
+                    case "--cache":
+                        cache = value(args, ++i);
+                        break;
+                    case "--daemon":
+                        daemon = value(args, ++i);
+                        break;
+                    case "--serve":
+                        serve = value(args, ++i);
+                        break;
+                    case "-h":
+                    case "--help":
+                        err.print(USAGE);
+                        return 0;
+                    default:
+                        throw new IllegalArgumentException("unknown option: " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            err.println("iggy: " + e.getMessage());
+            err.print(USAGE);
+            return 2;
+        }
+        if (cache != null && daemon != null) {
+            err.println("iggy: --cache can't be used with --daemon");
+            err.print(USAGE);
+            return 2;
+        }
+
+        if (serve != null) return serve(Paths.get(serve), err);
+        if (!new File(directory).isDirectory()) {
+            err.println("iggy: not a directory: " + directory);
+            return 2;
+        }
+        if (ignoreFiles.isEmpty()) ignoreFiles.add(".ignore");
+
+        if (daemon != null) {
+            try (IgnoreDaemonClient client = IgnoreDaemonClient.connect(Paths.get(daemon))) {
+                // The daemon resolves paths from its own working directory.
+                String absolute = new File(directory).getAbsolutePath();
+                new CheckIgnore(client, absolute, ignoreFiles, nulDelimited, verbose, batchSize).filter(in, out);
+                return 0;
+            } catch (IOException e) {
+                err.println("iggy: " + e.getMessage());
+                return 1;
+            }
+        }
+
+        // A single run rarely evaluates every rule, so only build the matchers it needs.
+        IgnoreProcessor.Builder builder = new IgnoreProcessor.Builder(directory).setLazyCompilationEnabled(true);
+        for (String ignoreFile : ignoreFiles) builder.addFile(ignoreFile);
+
+        try {
+            IgnoreProcessor processor = builder.build();
+            if (cache == null) {
+                new CheckIgnore(processor, nulDelimited, verbose, threads, batchSize).filter(in, out);
+                return 0;
+            }
+            try (DecisionCache decisions = DecisionCache.open(Paths.get(cache), processor)) {
+                new CheckIgnore(decisions, processor, nulDelimited, verbose, threads, batchSize).filter(in, out);
+            }
+            return 0;
+        } catch (IOException e) {
+            err.println("iggy: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static int serve(Path socket, PrintStream err) {
+        final IgnoreDaemon daemon;
+        try {
+            daemon = IgnoreDaemon.start(socket);
+        } catch (IOException e) {
+            err.println("iggy: " + e.getMessage());
+            return 1;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    daemon.close();
+                } catch (IOException ignored) {
+                    // exiting anyway
+                }
+            }
+        });
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) throw new IllegalArgumentException(args[index - 1] + " requires a value");
+        return args[index];
+    }
+
+    private static int positive(String value) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result > 0) return result;
+        } catch (NumberFormatException ignored) {
+            // reported below
+        }
+        throw new IllegalArgumentException("expected a positive number: " + value);
+    }
+
+    /**
+     * Evaluates every path read from {@code in}, writing results to {@code out} in input order.
+     */
+    void filter(InputStream in, OutputStream out) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            OutputStream target = new BufferedOutputStream(out, WRITE_BUFFER_SIZE);
+            // Bound the batches in flight, so memory doesn't grow with the input when the writer falls behind.
+            int maxPending = threads * 4;
+            ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+            RecordReader reader = new RecordReader(Channels.newChannel(in), delimiter);
+
+            String[] batch = new String[batchSize];
+            int size = 0;
+            String path;
+            while ((path = reader.next()) != null) {
+                batch[size++] = path;
+                if (size == batchSize) {
+                    if (pending.size() == maxPending) target.write(await(pending.poll()));
+                    pending.add(workers.submit(new Batch(Arrays.copyOf(batch, size))));
+                    size = 0;
+                }
+            }
+            if (size > 0) pending.add(workers.submit(new Batch(Arrays.copyOf(batch, size))));
+            while (!pending.isEmpty()) target.write(await(pending.poll()));
+            target.flush();
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static byte[] await(Future<byte[]> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while evaluating paths.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to evaluate paths.", e.getCause());
+        }
+    }
+
+    /**
+     * Evaluates a path as read from input: a leading {@code ./} is ignored, and a trailing {@code /} marks a directory.
+     */
+    static boolean allows(IgnoreProcessor processor, String path) {
+        String relativePath = path.startsWith("./") ? path.substring(2) : path;
+        if (relativePath.endsWith("/")) return processor.allowsPath(relativePath.substring(0, relativePath.length() - 1), true);
+        return processor.allowsPath(relativePath, false);
+    }
+
+    /**
+     * Evaluates a path as read from input through a cache, as {@link CheckIgnore#allows(IgnoreProcessor, String)} does.
+     */
+    static boolean allows(DecisionCache cache, String path) {
+        String relativePath = path.startsWith("./") ? path.substring(2) : path;
+        if (relativePath.endsWith("/")) return cache.allowsPath(relativePath.substring(0, relativePath.length() - 1), true);
+        return cache.allowsPath(relativePath, false);
+    }
+
+    /**
+     * Explains a path as read from input, producing a {@code source:line:pattern<TAB>path} record without its delimiter.
+     */
+    static String explain(IgnoreProcessor processor, String path) {
+        return explain(processor, path, false);
+    }
+
+    /**
+     * Explains a path as read from input, producing a record without its delimiter: {@code source:line:pattern<TAB>path},
+     * or with {@code nulDelimited}, {@code source NUL line NUL pattern NUL path} as {@code git check-ignore -z -v} writes.
+     */
+    static String explain(IgnoreProcessor processor, String path, boolean nulDelimited) {
+        String relativePath = path.startsWith("./") ? path.substring(2) : path;
+        Explanation explanation = relativePath.endsWith("/")
+                ? processor.explain(relativePath.substring(0, relativePath.length() - 1), true)
+                : processor.explain(relativePath, false);
+        // Report the path as it was read, rather than the normalized relative path.
+        if (nulDelimited) {
+            // Fields may hold ':' or a tab, but never NUL. Fields are empty if no rule matched the path.
+            Rule rule = explanation.getRule();
+            if (rule == null) return "\0\0\0" + path;
+            String source = rule.getSource() == null ? "" : rule.getSource();
+            return source + '\0' + rule.getLineNumber() + '\0' + rule.getDefinition() + '\0' + path;
+        }
+        String record = explanation.toString();
+        return record.substring(0, record.lastIndexOf('\t') + 1) + path;
+    }
+
+    /**
+     * Evaluates a batch of paths, producing the encoded output for the batch.
+     */
+    private final class Batch implements Callable<byte[]> {
+        private final String[] paths;
+
+        Batch(String[] paths) {
+            this.paths = paths;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            StringBuilder output = new StringBuilder(paths.length * 32);
+            if (client != null) {
+                if (verbose) {
+                    for (String record : client.explain(directory, ignoreFiles, Arrays.asList(paths), delimiter == 0)) {
+                        output.append(record).append((char) delimiter);
+                    }
+                } else {
+                    boolean[] allowed = client.allows(directory, ignoreFiles, Arrays.asList(paths));
+                    for (int i = 0; i < paths.length; i++) {
+                        if (allowed[i]) output.append(paths[i]).append((char) delimiter);
+                    }
+                }
+            } else {
+                for (String path : paths) {
+                    if (verbose) {
+                        output.append(explain(processor, path, delimiter == 0)).append((char) delimiter);
+                    } else if (cache != null ? allows(cache, path) : allows(processor, path)) {
+                        output.append(path).append((char) delimiter);
+                    }
+                }
+            }
+            return output.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Splits a channel into delimited UTF-8 records, reading through a large buffer.
+     */
+    static final class RecordReader {
+        private final ReadableByteChannel channel;
+        private final byte delimiter;
+        private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private boolean eof = false;
+
+        RecordReader(ReadableByteChannel channel, byte delimiter) {
+            this.channel = channel;
+            this.delimiter = delimiter;
+            buffer.flip();
+        }
+
+        /**
+         * Reads the next non-empty record, or returns {@code null} at the end of the input.
+         */
+        String next() throws IOException {
+            while (true) {
+                byte[] array = buffer.array();
+                int start = buffer.position();
+                int limit = buffer.limit();
+                for (int i = start; i < limit; i++) {
+                    if (array[i] == delimiter) {
+                        buffer.position(i + 1);
+                        String record = decode(array, start, i);
+                        if (record != null) return record;
+                        start = i + 1;
+                    }
+                }
+
+                if (eof) {
+                    buffer.position(limit);
+                    return start < limit ? decode(array, start, limit) : null;
+                }
+                fill();
+            }
+        }
+
+        private String decode(byte[] array, int start, int end) {
+            // Tolerate CRLF line endings.
+            if (delimiter == '\n' && end > start && array[end - 1] == '\r') end--;
+            return end > start ? new String(array, start, end - start, StandardCharsets.UTF_8) : null;
+        }
+
+        private void fill() throws IOException {
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                // A single record larger than the buffer.
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            if (channel.read(buffer) == -1) eof = true;
+            buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The wire format and transport shared by {@link IgnoreDaemon} and {@link IgnoreDaemonClient}.
+ * <p>
+ * A connection carries any number of requests, each answered before the next is read. All integers are big-endian,
+ * and strings are an {@code int} byte length followed by UTF-8.
+ * <pre>
+ * connection := MAGIC VERSION token:string request*
+ * request    := flags:byte directory:string files:int string* paths:int string*
+ * response   := OK (allowed:bitset | records:string*) | ERROR message:string
+ * </pre>
+ * Paths ending in {@code /} are evaluated as directories. The bitset holds one bit per path, least significant bit first.
+ * Records are sent for {@link #FLAG_VERBOSE} requests, with NUL-separated fields if {@link #FLAG_NUL_DELIMITED} is also set.
+ * <p>
+ * The daemon listens on a Unix domain socket when the runtime supports them (JDK 16+). Otherwise, it listens on a
+ * loopback TCP port, and the socket path instead holds an endpoint file naming the port and a token clients must present.
+ */
+final class DaemonProtocol {
+    static final int MAGIC = 0x49474759; // IGGY
+    static final byte VERSION = 2;
+    static final byte FLAG_VERBOSE = 1;
+    static final byte FLAG_NUL_DELIMITED = 2;
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_STRING_LENGTH = 1 << 24;
+
+    private static final String ENDPOINT_PREFIX = "iggy-tcp ";
+    private static final Method UNIX_ADDRESS;
+    private static final ProtocolFamily UNIX;
+
+    static {
+        Method address;
+        ProtocolFamily family;
+        try {
+            // NOTE: Unix domain sockets are available to channels from JDK 16. This code targets Java 8, so they're found reflectively.
+            address = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+            family = StandardProtocolFamily.valueOf("UNIX");
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalArgumentException e) {
+            address = null;
+            family = null;
+        }
+        UNIX_ADDRESS = address;
+        UNIX = family;
+    }
+
+    private DaemonProtocol() {
+    }
+
+    /**
+     * Determines whether the runtime supports Unix domain socket channels.
+     */
+    static boolean isUnixDomainSupported() {
+        return UNIX != null;
+    }
+
+    /**
+     * Listens on {@code socket}: a Unix domain socket where supported, otherwise a loopback port described by an endpoint file.
+     * A socket or endpoint file left behind by a daemon which is no longer running is replaced.
+     *
+     * @return The listening channel, and the token clients must present ({@code ""} for Unix domain sockets).
+     * @throws FileAlreadyExistsException if {@code socket} is in use, or isn't a daemon's socket or endpoint file.
+     */
+    static Listener listen(Path socket) throws IOException {
+        removeStale(socket);
+        if (isUnixDomainSupported()) {
+            ServerSocketChannel server = open(ServerSocketChannel.class);
+            server.bind(unixAddress(socket));
+            return new Listener(server, "");
+        }
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        StringBuilder token = new StringBuilder();
+        for (byte b : random) token.append(String.format("%02x", b));
+
+        int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        try {
+            // The token is only as private as this file.
+            Files.createFile(socket, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // e.g. Windows, where the file inherits the ACL of its directory
+            Files.createFile(socket);
+        }
+        Files.write(socket, (ENDPOINT_PREFIX + port + " " + token + "\n").getBytes(StandardCharsets.UTF_8));
+        return new Listener(server, token.toString());
+    }
+
+    /**
+     * Removes a socket or endpoint file which no daemon accepts connections on. Any other file is left in place.
+     */
+    private static void removeStale(Path socket) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(socket, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+
+        if (attributes.isRegularFile()) {
+            String endpoint = new String(Files.readAllBytes(socket), StandardCharsets.UTF_8).trim();
+            List<String> parts = Arrays.asList(endpoint.split(" "));
+            if (!endpoint.startsWith(ENDPOINT_PREFIX) || parts.size() != 3 || !parts.get(1).matches("[0-9]{1,5}")) {
+                throw new FileAlreadyExistsException(socket.toString(), null, "not an iggy daemon endpoint");
+            }
+            if (accepts(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(parts.get(1))), false)) {
+                throw new FileAlreadyExistsException(socket.toString(), null, "already in use by a running daemon");
+            }
+        } else if (attributes.isOther()) {
+            // NOTE: Without Unix domain sockets there's no way to tell whether a daemon still listens, so the socket is kept.
+            if (!isUnixDomainSupported() || !isSocket(socket)) {
+                throw new FileAlreadyExistsException(socket.toString(), null, "not an iggy daemon endpoint");
+            }
+            if (accepts(unixAddress(socket), true)) {
+                throw new FileAlreadyExistsException(socket.toString(), null, "already in use by a running daemon");
+            }
+        } else {
+            throw new FileAlreadyExistsException(socket.toString(), null, "not an iggy daemon endpoint");
+        }
+        Files.delete(socket);
+    }
+
+    private static boolean isSocket(Path path) throws IOException {
+        try {
+            int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+            return (mode & 0170000) == 0140000;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // The file system has no unix view, so any special file is taken for a socket.
+            return true;
+        }
+    }
+
+    private static boolean accepts(SocketAddress address, boolean unix) throws IOException {
+        try (SocketChannel channel = unix ? open(SocketChannel.class) : SocketChannel.open()) {
+            channel.connect(address);
+            return true;
+        } catch (ConnectException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Connects to a daemon listening on {@code socket}, and writes the connection header.
+     */
+    static Connection connect(Path socket) throws IOException {
+        SocketChannel channel;
+        String token = "";
+        if (Files.isRegularFile(socket)) {
+            String endpoint = new String(Files.readAllBytes(socket), StandardCharsets.UTF_8).trim();
+            List<String> parts = Arrays.asList(endpoint.split(" "));
+            if (!endpoint.startsWith(ENDPOINT_PREFIX) || parts.size() != 3) {
+                throw new IOException(String.format("%s is not an iggy daemon endpoint.", socket));
+            }
+            channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(parts.get(1))));
+            token = parts.get(2);
+        } else if (isUnixDomainSupported()) {
+            channel = open(SocketChannel.class);
+            channel.connect(unixAddress(socket));
+        } else {
+            throw new IOException(String.format("%s is a Unix domain socket, which requires JDK 16 or later.", socket));
+        }
+
+        Connection connection = new Connection(channel);
+        connection.out.writeInt(MAGIC);
+        connection.out.writeByte(VERSION);
+        writeString(connection.out, token);
+        connection.out.flush();
+        return connection;
+    }
+
+    private static <T> T open(Class<T> type) throws IOException {
+        try {
+            Method open = type.getMethod("open", ProtocolFamily.class);
+            return type.cast(open.invoke(null, UNIX));
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Unable to open a Unix domain socket.", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Unable to open a Unix domain socket.", e);
+        }
+    }
+
+    private static SocketAddress unixAddress(Path socket) throws IOException {
+        try {
+            return (SocketAddress) UNIX_ADDRESS.invoke(null, socket);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Unable to address a Unix domain socket.", e);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_LENGTH) throw new IOException("Invalid string length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buffered streams over a connected channel.
+     */
+    static final class Connection implements Closeable {
+        final SocketChannel channel;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    static final class Listener {
+        final ServerSocketChannel channel;
+        final String token;
+
+        Listener(ServerSocketChannel channel, String token) {
+            this.channel = channel;
+            this.token = token;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A persistent cache of the decisions of an {@link IgnoreProcessor}, in a memory-mapped file.
+ * <p>
+ * Between runs of a build, the rules rarely change and most paths are the same. The cache is a hash table from a 64-bit
+ * hash of each path to its decision, so a warm run answers most paths from the mapped file without matching them.
+ * The file is stamped with a digest of the normalized rules: when an ignore file changes in a way which could change a
+ * decision, the cache is emptied on open. Comments, blank lines and names of sources don't count.
+ * <pre>{@code
+ * try (DecisionCache cache = DecisionCache.open(Paths.get("build/iggy.cache"), processor)) {
+ *     cache.allowsPath("src/main/App.java", false);
+ * }
+ * }</pre>
+ * Entries keep 62 bits of the hash of a path. Two paths with the same bits share a decision, which among a million paths
+ * happens with a probability of about one in ten million.
+ * <p>
+ * While open, the file is locked against other processes, and marked as in use. A file left marked by a crash is
+ * emptied on the next open, rather than trusted. Instances are thread-safe.
+ */
+public final class DecisionCache implements Closeable {
+    private static final int MAGIC = 0x49474443;
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 12;
+    private static final int STATE_OFFSET = 16;
+    private static final int FINGERPRINT_OFFSET = 20;
+    private static final int FINGERPRINT_LENGTH = 32;
+    private static final int CLEAN = 0;
+    private static final int IN_USE = 1;
+    private static final int INITIAL_CAPACITY = 1 << 14;
+    // A mapping is limited to 2 GiB.
+    private static final int MAX_CAPACITY = 1 << 27;
+
+    private final IgnoreProcessor processor;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private MappedByteBuffer table;
+    private int capacity;
+    private int size;
+    private long hits = 0;
+    private long misses = 0;
+
+    private DecisionCache(IgnoreProcessor processor, FileChannel channel, FileLock lock) {
+        this.processor = processor;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Opens a cache file for a processor, creating it if it doesn't exist. A file written for different rules, by a
+     * different version, or left in use by a crash, is emptied.
+     *
+     * @param file      The cache file.
+     * @param processor The processor making the decisions.
+     * @return The cache.
+     * @throws IOException if the file can't be opened or mapped, or is in use by another process.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static DecisionCache open(final Path file, final IgnoreProcessor processor) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock == null) throw new IOException("Decision cache is in use by another process: " + file);
+            DecisionCache cache = new DecisionCache(processor, channel, lock);
+            cache.load(processor.fingerprint());
+            return cache;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void load(byte[] fingerprint) throws IOException {
+        long length = channel.size();
+        if (length >= HEADER) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            int capacity = header.getInt(CAPACITY_OFFSET);
+            int size = header.getInt(SIZE_OFFSET);
+            byte[] stamp = new byte[FINGERPRINT_LENGTH];
+            header.position(FINGERPRINT_OFFSET);
+            header.get(stamp);
+            boolean valid = header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                    && header.getInt(STATE_OFFSET) == CLEAN && Arrays.equals(stamp, fingerprint)
+                    && capacity >= INITIAL_CAPACITY && capacity <= MAX_CAPACITY && Integer.bitCount(capacity) == 1
+                    && length == HEADER + 8L * capacity && size >= 0 && size < capacity;
+            if (valid) {
+                map(capacity);
+                this.size = size;
+                markInUse(fingerprint);
+                return;
+            }
+        }
+
+        // Anything else is emptied, rather than partly trusted.
+        channel.truncate(0);
+        map(INITIAL_CAPACITY);
+        this.size = 0;
+        markInUse(fingerprint);
+    }
+
+    private void map(int capacity) throws IOException {
+        this.table = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + 8L * capacity);
+        this.capacity = capacity;
+    }
+
+    private void markInUse(byte[] fingerprint) {
+        table.putInt(0, MAGIC);
+        table.putInt(4, VERSION);
+        table.putInt(CAPACITY_OFFSET, capacity);
+        table.putInt(SIZE_OFFSET, size);
+        table.putInt(STATE_OFFSET, IN_USE);
+        for (int i = 0; i < FINGERPRINT_LENGTH; i++) table.put(FINGERPRINT_OFFSET + i, fingerprint[i]);
+        // Entries written from here on are only trusted after a clean close.
+        table.force();
+    }
+
+    /**
+     * Determines whether or not a path is allowed, as {@link IgnoreProcessor#allowsPath(String, boolean)} does, answering
+     * from the cache when the path was evaluated before.
+     *
+     * @param relativePath The {@code /} delimited path, relative to the directory containing the ignore file.
+     * @param isDirectory  {@code true} if {@code relativePath} is a directory, otherwise {@code false}.
+     * @return {@code false} if the path is excluded, otherwise {@code true}.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean allowsPath(final String relativePath, boolean isDirectory) {
+        long key = hash(relativePath, isDirectory) | 1L;
+        synchronized (this) {
+            if (table == null) throw new IllegalStateException("Decision cache is closed.");
+            long entry = find(key);
+            if (entry != 0) {
+                hits++;
+                return (entry & 2L) != 0;
+            }
+            misses++;
+        }
+
+        // Evaluate outside the lock, so other threads aren't held up by matching.
+        boolean allowed = processor.allowsPath(relativePath, isDirectory);
+        synchronized (this) {
+            if (table != null && find(key) == 0) insert(allowed ? key | 2L : key);
+        }
+        return allowed;
+    }
+
+    /**
+     * Finds the entry for a key, or returns {@code 0}.
+     */
+    private long find(long key) {
+        int mask = capacity - 1;
+        for (int slot = index(key, mask); ; slot = (slot + 1) & mask) {
+            long entry = table.getLong(HEADER + 8 * slot);
+            if (entry == 0) return 0;
+            if ((entry & ~2L) == key) return entry;
+        }
+    }
+
+    private void insert(long entry) {
+        if (size + 1 > capacity / 4 * 3) {
+            // Stop caching at the limit, rather than degrading every lookup.
+            if (capacity == MAX_CAPACITY) return;
+            try {
+                grow();
+            } catch (IOException e) {
+                return;
+            }
+        }
+        put(entry);
+        size++;
+        table.putInt(SIZE_OFFSET, size);
+    }
+
+    private void put(long entry) {
+        int mask = capacity - 1;
+        int slot = index(entry, mask);
+        while (table.getLong(HEADER + 8 * slot) != 0) slot = (slot + 1) & mask;
+        table.putLong(HEADER + 8 * slot, entry);
+    }
+
+    private void grow() throws IOException {
+        long[] entries = new long[size];
+        int count = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            long entry = table.getLong(HEADER + 8 * slot);
+            if (entry != 0) entries[count++] = entry;
+        }
+        int previous = capacity;
+        map(capacity * 2);
+        table.putInt(CAPACITY_OFFSET, capacity);
+        for (int slot = 0; slot < previous; slot++) table.putLong(HEADER + 8 * slot, 0L);
+        for (int i = 0; i < count; i++) put(entries[i]);
+    }
+
+    private static int index(long key, int mask) {
+        return (int) (key >>> 2) & mask;
+    }
+
+    /**
+     * Hashes a path and its directory flag to 64 bits (FNV-1a, then mixed), leaving the low two bits for flags.
+     */
+    static long hash(String relativePath, boolean isDirectory) {
+        long hash = isDirectory ? 0x84222325cbf29ce4L : 0xcbf29ce484222325L;
+        for (int i = 0; i < relativePath.length(); i++) {
+            hash = (hash ^ relativePath.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash & ~3L;
+    }
+
+    /**
+     * Gets the number of decisions answered from the cache since it was opened.
+     *
+     * @return The number of hits.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of decisions evaluated by the processor since the cache was opened.
+     *
+     * @return The number of misses.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of decisions held by the cache.
+     *
+     * @return The number of entries.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Marks the file as cleanly closed, writes it to storage, and releases it.
+     *
+     * @throws IOException if the file can't be written or closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (table == null) return;
+        try {
+            table.putInt(STATE_OFFSET, CLEAN);
+            table.force();
+        } finally {
+            table = null;
+            try {
+                lock.release();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes raw bytes and raw deflate streams to an output in order, compressing blocks of each stream in parallel.
+ * <p>
+ * A stream is split into blocks of {@link DeflatePipeline#BLOCK} bytes, and each block is compressed independently,
+ * primed with the last 32 KiB of the previous block as its dictionary (as {@code pigz} does). Every block but the last
+ * ends with a sync flush, so the blocks concatenate into one valid deflate stream. Output is the same with or without a
+ * pool. At most a fixed number of blocks are held at once, however long the streams.
+ * <p>
+ * Instances are not thread-safe; only the compression of blocks runs on the pool.
+ */
+final class DeflatePipeline {
+    static final int BLOCK = 128 * 1024;
+    private static final int WINDOW = 32 * 1024;
+
+    private final Counting out;
+    private final ForkJoinPool pool;
+    private final int level;
+    private final int limit;
+    private final ArrayDeque<Chunk> queue = new ArrayDeque<>();
+    private int pending = 0;
+
+    private Stream current = null;
+    private byte[] block = null;
+    private int length = 0;
+    private byte[] dictionary = null;
+
+    DeflatePipeline(OutputStream out, ForkJoinPool pool, int level) {
+        this.out = new Counting(out);
+        this.pool = pool;
+        this.level = level;
+        this.limit = pool == null ? 1 : 2 * pool.getParallelism() + 1;
+    }
+
+    /**
+     * Writes output bytes, in order, once everything before them is written.
+     */
+    interface Chunk {
+        void writeTo(Counting out) throws IOException;
+    }
+
+    /**
+     * The uncompressed size and checksum of a deflate stream, and its compressed size once written.
+     */
+    static final class Stream {
+        final CRC32 crc = new CRC32();
+        long size = 0;
+        long compressed = 0;
+    }
+
+    /**
+     * An output which counts the bytes written to it.
+     */
+    static final class Counting {
+        private final OutputStream out;
+        private long position = 0;
+
+        Counting(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(byte[] bytes, int offset, int count) throws IOException {
+            out.write(bytes, offset, count);
+            position += count;
+        }
+
+        void write(byte[] bytes) throws IOException {
+            write(bytes, 0, bytes.length);
+        }
+
+        long position() {
+            return position;
+        }
+    }
+
+    void raw(final byte[] bytes) throws IOException {
+        add(new Chunk() {
+            @Override
+            public void writeTo(Counting out) throws IOException {
+                out.write(bytes);
+            }
+        });
+    }
+
+    void later(Chunk chunk) throws IOException {
+        add(chunk);
+    }
+
+    Stream begin() {
+        current = new Stream();
+        block = new byte[BLOCK];
+        length = 0;
+        dictionary = null;
+        return current;
+    }
+
+    void write(byte[] bytes, int offset, int count) throws IOException {
+        current.crc.update(bytes, offset, count);
+        current.size += count;
+        while (count > 0) {
+            int n = Math.min(count, BLOCK - length);
+            System.arraycopy(bytes, offset, block, length, n);
+            length += n;
+            offset += n;
+            count -= n;
+            if (length == BLOCK) submit(false);
+        }
+    }
+
+    /**
+     * Writes {@code size} bytes of a file to the stream, reading them directly into blocks.
+     *
+     * @throws IOException if the file ends before {@code size} bytes are read.
+     */
+    void transferFrom(FileChannel channel, long size) throws IOException {
+        long remaining = size;
+        while (remaining > 0) {
+            ByteBuffer buffer = ByteBuffer.wrap(block, length, (int) Math.min(BLOCK - length, remaining));
+            int read = channel.read(buffer);
+            if (read < 0) throw new IOException("File was truncated while being read.");
+            current.crc.update(block, length, read);
+            current.size += read;
+            length += read;
+            remaining -= read;
+            if (length == BLOCK) submit(false);
+        }
+    }
+
+    Stream end() throws IOException {
+        submit(true);
+        Stream stream = current;
+        current = null;
+        block = null;
+        dictionary = null;
+        return stream;
+    }
+
+    /**
+     * Writes everything queued.
+     */
+    void finish() throws IOException {
+        while (!queue.isEmpty()) drain();
+    }
+
+    private void submit(final boolean last) throws IOException {
+        final byte[] input = block;
+        final int count = length;
+        final byte[] primer = dictionary;
+        final Stream stream = current;
+        dictionary = count >= WINDOW ? Arrays.copyOfRange(input, count - WINDOW, count) : tail(primer, input, count);
+        if (!last) {
+            block = new byte[BLOCK];
+            length = 0;
+        }
+
+        Callable<byte[]> compress = new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(input, count, primer, last, level);
+            }
+        };
+        final ForkJoinTask<byte[]> task = pool == null ? null : pool.submit(compress);
+        final byte[] compressed = pool == null ? compress(input, count, primer, last, level) : null;
+        pending++;
+        add(new Chunk() {
+            @Override
+            public void writeTo(Counting out) throws IOException {
+                byte[] bytes = task == null ? compressed : task.join();
+                out.write(bytes);
+                stream.compressed += bytes.length;
+                pending--;
+            }
+        });
+        while (pending >= limit) drain();
+    }
+
+    private void add(Chunk chunk) throws IOException {
+        queue.add(chunk);
+        // Raw chunks are small, but nothing may be written out of order, so they wait for the blocks before them.
+        if (pending == 0) finish();
+    }
+
+    private void drain() throws IOException {
+        queue.poll().writeTo(out);
+    }
+
+    /**
+     * Gets the last 32 KiB of the previous dictionary followed by a short block.
+     */
+    private static byte[] tail(byte[] previous, byte[] input, int count) {
+        int keep = previous == null ? 0 : Math.min(previous.length, WINDOW - count);
+        byte[] result = new byte[keep + count];
+        if (keep > 0) System.arraycopy(previous, previous.length - keep, result, 0, keep);
+        System.arraycopy(input, 0, result, keep, count);
+        return result;
+    }
+
+    static byte[] compress(byte[] input, int count, byte[] dictionary, boolean last, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null && dictionary.length > 0) deflater.setDictionary(dictionary);
+            deflater.setInput(input, 0, count);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(count / 2 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // A full buffer means the flush may not be complete.
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import us.jimschubert.iggy.rules.Rule;
+
+/**
+ * Describes the outcome of evaluating a path, and the rule which decided it. See {@link IgnoreProcessor#explain(String, boolean)}.
+ */
+public final class Explanation {
+    private final String relativePath;
+    private final boolean allowed;
+    private final Rule rule;
+
+    Explanation(String relativePath, boolean allowed, Rule rule) {
+        this.relativePath = relativePath;
+        this.allowed = allowed;
+        this.rule = rule;
+    }
+
+    /**
+     * Gets the evaluated path.
+     *
+     * @return The {@code /} delimited path relative to the directory containing the ignore file.
+     */
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    /**
+     * Determines whether the path is allowed.
+     *
+     * @return {@code false} if the path is excluded, otherwise {@code true}.
+     */
+    public boolean isAllowed() {
+        return allowed;
+    }
+
+    /**
+     * Gets the rule which decided the outcome: the exclusion rule for an excluded path, or the inclusion rule which
+     * re-included an excluded path.
+     *
+     * @return The deciding rule, or {@code null} if no rule matched the path.
+     */
+    public Rule getRule() {
+        return rule;
+    }
+
+    /**
+     * Gets the name of the source containing the deciding rule.
+     *
+     * @return The name of the source, or {@code null} if no rule matched the path.
+     */
+    public String getSource() {
+        return rule == null ? null : rule.getSource();
+    }
+
+    /**
+     * Formats this explanation as {@code source:line:pattern<TAB>path}, similar to {@code git check-ignore -v}.
+     * The source, line and pattern are empty if no rule matched the path.
+     *
+     * @return The formatted explanation.
+     */
+    @Override
+    public String toString() {
+        if (rule == null) return "::\t" + relativePath;
+        String source = rule.getSource() == null ? "" : rule.getSource();
+        return source + ":" + rule.getLineNumber() + ":" + rule.getDefinition() + "\t" + relativePath;
+    }
+}
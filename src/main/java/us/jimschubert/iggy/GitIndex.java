@@ -0,0 +1,312 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads the paths tracked by a git repository from its index file ({@code .git/index}), without listing the work tree
+ * and without requiring a git binary.
+ * <p>
+ * Index versions 2, 3 and 4 (including the path prefix compression of version 4) are supported. The index is memory-mapped,
+ * and entries are decoded as they're visited. Entries are visited in the order git stores them, which is sorted by path.
+ */
+public final class GitIndex {
+    private static final int SIGNATURE = 0x44495243; // DIRC
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_FIXED_SIZE = 62;
+    private static final int MODE_OFFSET = 24;
+    private static final int FLAGS_OFFSET = 60;
+    private static final int NAME_MASK = 0xfff;
+    private static final int STAGE_MASK = 0x3000;
+    private static final int EXTENDED_FLAG = 0x4000;
+    private static final int TYPE_MASK = 0170000;
+    private static final int TYPE_TREE = 0040000;
+    private static final int TYPE_GITLINK = 0160000;
+
+    private final MappedByteBuffer buffer;
+    private final int version;
+    private final int entryCount;
+
+    private GitIndex(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != SIGNATURE) {
+            throw new IOException("Not a git index file (missing DIRC signature).");
+        }
+        this.version = buffer.getInt(4);
+        if (version < 2 || version > 4) {
+            throw new IOException(String.format("Unsupported git index version %d.", version));
+        }
+        this.entryCount = buffer.getInt(8);
+    }
+
+    /**
+     * Memory-maps a git index file.
+     *
+     * @param indexFile The index file, usually {@code .git/index}.
+     * @return The index.
+     * @throws IOException if the file can't be read, or isn't a git index of version 2, 3 or 4.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static GitIndex open(final Path indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            // NOTE: The mapping remains valid once the channel is closed.
+            return new GitIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Gets the version of the index format.
+     *
+     * @return 2, 3 or 4.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the number of entries in the index. Paths with merge conflicts have an entry for each stage.
+     *
+     * @return The number of entries.
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Visits every entry of the index, in index order.
+     *
+     * @param action The action to perform for each entry.
+     * @throws IOException if the index is truncated or corrupt.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public void forEachEntry(final Consumer<Entry> action) throws IOException {
+        Decoder decoder = new Decoder();
+        for (int i = 0; i < entryCount; i++) {
+            action.accept(decoder.next());
+        }
+    }
+
+    /**
+     * Lists every entry of the index, in index order.
+     *
+     * @return The entries.
+     * @throws IOException if the index is truncated or corrupt.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public List<Entry> entries() throws IOException {
+        final List<Entry> entries = new ArrayList<>(entryCount);
+        forEachEntry(new Consumer<Entry>() {
+            @Override
+            public void accept(Entry entry) {
+                entries.add(entry);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Visits each tracked path allowed by {@code processor}, in index order. Paths are relative to the root of the work tree,
+     * so {@code processor} should be loaded from the work tree's root directory.
+     * <p>
+     * Each directory is evaluated once, and its outcome shared by the consecutive entries it contains. As with a tree walker
+     * which skips excluded directories, an entry within an excluded directory is excluded. Paths with merge conflicts are visited once.
+     *
+     * @param processor The processor defining which paths are allowed.
+     * @param action    The action to perform for each allowed entry.
+     * @throws IOException if the index is truncated or corrupt.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public void forEachAllowed(final IgnoreProcessor processor, final Consumer<Entry> action) throws IOException {
+        TreeCursor root = processor.cursor();
+        // directories[i] is the cursor for the first i + 1 segments of the current directory, or null if it is excluded.
+        TreeCursor[] directories = new TreeCursor[8];
+        String[] segments = new String[8];
+        int depth = 0;
+        String previous = null;
+
+        Decoder decoder = new Decoder();
+        for (int i = 0; i < entryCount; i++) {
+            Entry entry = decoder.next();
+            String path = entry.getPath();
+            if (path.equals(previous)) continue; // another stage of a conflicted path
+            previous = path;
+
+            // Keep the directories shared with the previous entry, then descend into the rest.
+            String[] parts = path.split("/");
+            int shared = 0;
+            while (shared < depth && shared < parts.length - 1 && segments[shared].equals(parts[shared])) shared++;
+            depth = shared;
+            for (; depth < parts.length - 1; depth++) {
+                if (depth == directories.length) {
+                    directories = Arrays.copyOf(directories, depth * 2);
+                    segments = Arrays.copyOf(segments, depth * 2);
+                }
+                TreeCursor parent = depth == 0 ? root : directories[depth - 1];
+                TreeCursor directory = parent == null ? null : parent.resolve(parts[depth]);
+                directories[depth] = directory != null && directory.allows(true) ? directory : null;
+                segments[depth] = parts[depth];
+            }
+
+            TreeCursor parent = depth == 0 ? root : directories[depth - 1];
+            if (parent != null && parent.resolve(parts[parts.length - 1]).allows(entry.isDirectory())) {
+                action.accept(entry);
+            }
+        }
+    }
+
+    /**
+     * Decodes consecutive entries from a private view of the mapped index.
+     */
+    private final class Decoder {
+        private final ByteBuffer view = buffer.duplicate();
+        private byte[] name = new byte[256];
+        private int nameLength = 0;
+        private int position = HEADER_SIZE;
+
+        Entry next() throws IOException {
+            int start = position;
+            if (start + ENTRY_FIXED_SIZE > view.limit()) throw corrupt(start);
+
+            int mode = view.getInt(start + MODE_OFFSET);
+            int flags = view.getShort(start + FLAGS_OFFSET) & 0xffff;
+            int offset = start + ENTRY_FIXED_SIZE;
+            if (version >= 3 && (flags & EXTENDED_FLAG) != 0) offset += 2;
+
+            if (version == 4) {
+                // The name is a varint count of bytes to strip from the previous name, then a NUL terminated suffix.
+                int c = byteAt(offset++);
+                int strip = c & 0x7f;
+                while ((c & 0x80) != 0) {
+                    c = byteAt(offset++);
+                    strip = ((strip + 1) << 7) | (c & 0x7f);
+                }
+                if (strip > nameLength) throw corrupt(start);
+                nameLength -= strip;
+                int end = terminator(offset, start);
+                append(offset, end);
+                position = end + 1;
+            } else {
+                int length = flags & NAME_MASK;
+                int end = length < NAME_MASK ? offset + length : terminator(offset, start);
+                if (end >= view.limit()) throw corrupt(start);
+                nameLength = 0;
+                append(offset, end);
+                // Entries are padded with 1-8 NUL bytes to a multiple of 8 bytes.
+                position = start + ((end - start + 8) & ~7);
+            }
+
+            int type = mode & TYPE_MASK;
+            int length = nameLength;
+            // Sparse directory entries are stored with a trailing slash.
+            if (type == TYPE_TREE && length > 0 && name[length - 1] == '/') length--;
+            String path = new String(name, 0, length, StandardCharsets.UTF_8);
+            return new Entry(path, mode, (flags & STAGE_MASK) >>> 12, type == TYPE_TREE || type == TYPE_GITLINK);
+        }
+
+        private int byteAt(int offset) throws IOException {
+            if (offset >= view.limit()) throw corrupt(position);
+            return view.get(offset) & 0xff;
+        }
+
+        private int terminator(int offset, int start) throws IOException {
+            int end = offset;
+            while (end < view.limit() && view.get(end) != 0) end++;
+            if (end >= view.limit()) throw corrupt(start);
+            return end;
+        }
+
+        private void append(int from, int to) {
+            int length = to - from;
+            if (nameLength + length > name.length) name = Arrays.copyOf(name, Math.max(name.length * 2, nameLength + length));
+            for (int i = 0; i < length; i++) name[nameLength + i] = view.get(from + i);
+            nameLength += length;
+        }
+
+        private IOException corrupt(int offset) {
+            return new IOException(String.format("Corrupt git index: entry at offset %d exceeds the file.", offset));
+        }
+    }
+
+    /**
+     * An entry of the index.
+     */
+    public static final class Entry {
+        private final String path;
+        private final int mode;
+        private final int stage;
+        private final boolean directory;
+
+        Entry(String path, int mode, int stage, boolean directory) {
+            this.path = path;
+            this.mode = mode;
+            this.stage = stage;
+            this.directory = directory;
+        }
+
+        /**
+         * Gets the path of the entry.
+         *
+         * @return The {@code /} delimited path, relative to the root of the work tree.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Gets the unix mode of the entry (e.g. {@code 0100644} for a regular file).
+         *
+         * @return The mode.
+         */
+        public int getMode() {
+            return mode;
+        }
+
+        /**
+         * Gets the merge stage of the entry.
+         *
+         * @return {@code 0} for a merged path, or 1-3 for the sides of a merge conflict.
+         */
+        public int getStage() {
+            return stage;
+        }
+
+        /**
+         * Determines whether the entry is a directory in the work tree: a submodule, or a sparse directory.
+         *
+         * @return {@code true} if the entry is a directory, otherwise {@code false}.
+         */
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+}
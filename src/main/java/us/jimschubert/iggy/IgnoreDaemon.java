@@ -0,0 +1,293 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A long-lived process which keeps compiled {@link IgnoreProcessor}s warm for short-lived clients ({@link IgnoreDaemonClient}).
+ * <p>
+ * The daemon listens on a Unix domain socket (JDK 16+), or on a loopback port described by an endpoint file at the socket path
+ * on older runtimes. Processors are cached by base directory and ignore file paths, and reused while every ignore file keeps
+ * its modification time, size and content hash. Requests and responses use the binary protocol described by {@link DaemonProtocol}.
+ */
+public class IgnoreDaemon implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IgnoreDaemon.class);
+    private static final int MAX_CACHED = 64;
+    private static final int MAX_COUNT = 1 << 24;
+    // Modification times are trusted only when older than this, as a file can change again within one tick of its mtime.
+    private static final long RACY_MILLIS = 2000;
+
+    private final Path socket;
+    private final DaemonProtocol.Listener listener;
+    private final ExecutorService connections;
+    private final Map<String, Cached> cache = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+    private volatile boolean closed = false;
+
+    private IgnoreDaemon(Path socket, DaemonProtocol.Listener listener) {
+        this.socket = socket;
+        this.listener = listener;
+        this.connections = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "iggy-daemon");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts a daemon listening on {@code socket}, replacing any stale socket file: one which no daemon is listening on.
+     *
+     * @param socket The path of the Unix domain socket (or endpoint file) to listen on.
+     * @return The running daemon.
+     * @throws java.nio.file.FileAlreadyExistsException if a daemon is already listening on {@code socket}, or it's some other file.
+     * @throws IOException if the socket can't be bound.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static IgnoreDaemon start(final Path socket) throws IOException {
+        final IgnoreDaemon daemon = new IgnoreDaemon(socket, DaemonProtocol.listen(socket));
+        daemon.connections.execute(new Runnable() {
+            @Override
+            public void run() {
+                daemon.accept();
+            }
+        });
+        return daemon;
+    }
+
+    /**
+     * Gets the path clients connect to.
+     *
+     * @return The path of the Unix domain socket or endpoint file.
+     */
+    public Path getSocket() {
+        return socket;
+    }
+
+    /**
+     * Determines whether the daemon is listening on a Unix domain socket, rather than a loopback port.
+     *
+     * @return {@code true} for a Unix domain socket.
+     */
+    public boolean isUnixDomainSocket() {
+        return listener.token.isEmpty();
+    }
+
+    /**
+     * Stops accepting connections, closes open connections and removes the socket file.
+     *
+     * @throws IOException if the socket file can't be removed.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        listener.channel.close();
+        connections.shutdownNow();
+        Files.deleteIfExists(socket);
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                final SocketChannel channel = listener.channel.accept();
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(channel);
+                    }
+                });
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                LOGGER.warn(String.format("Failed to accept a connection: %s", e.getMessage()));
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        try (DaemonProtocol.Connection connection = new DaemonProtocol.Connection(channel)) {
+            DataInputStream in = connection.in;
+            DataOutputStream out = connection.out;
+            if (in.readInt() != DaemonProtocol.MAGIC || in.readByte() != DaemonProtocol.VERSION) return;
+            byte[] token = DaemonProtocol.readString(in).getBytes(StandardCharsets.UTF_8);
+            if (!MessageDigest.isEqual(token, listener.token.getBytes(StandardCharsets.UTF_8))) return;
+
+            int flags;
+            while ((flags = in.read()) != -1) {
+                String directory = DaemonProtocol.readString(in);
+                List<String> ignoreFiles = readStrings(in);
+                List<String> paths = readStrings(in);
+
+                IgnoreProcessor processor;
+                try {
+                    processor = processor(directory, ignoreFiles);
+                } catch (IOException e) {
+                    out.writeByte(DaemonProtocol.ERROR);
+                    DaemonProtocol.writeString(out, String.valueOf(e.getMessage()));
+                    out.flush();
+                    continue;
+                }
+
+                out.writeByte(DaemonProtocol.OK);
+                if ((flags & DaemonProtocol.FLAG_VERBOSE) != 0) {
+                    boolean nulDelimited = (flags & DaemonProtocol.FLAG_NUL_DELIMITED) != 0;
+                    for (String path : paths) DaemonProtocol.writeString(out, CheckIgnore.explain(processor, path, nulDelimited));
+                } else {
+                    byte[] allowed = new byte[(paths.size() + 7) / 8];
+                    for (int i = 0; i < paths.size(); i++) {
+                        if (CheckIgnore.allows(processor, paths.get(i))) allowed[i >>> 3] |= 1 << (i & 7);
+                    }
+                    out.write(allowed);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!closed) LOGGER.debug(String.format("Connection closed: %s", e.getMessage()));
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_COUNT) throw new IOException("Invalid count " + count);
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) values.add(DaemonProtocol.readString(in));
+        return values;
+    }
+
+    /**
+     * Gets a processor for the ignore files, compiling it only if an ignore file was added, removed or changed.
+     */
+    IgnoreProcessor processor(String directory, List<String> ignoreFiles) throws IOException {
+        Path base = Paths.get(directory);
+        String key = directory + '\0' + String.join("\0", ignoreFiles);
+
+        long checkedAt = System.currentTimeMillis();
+        Path[] files = new Path[ignoreFiles.size()];
+        long[] stats = new long[ignoreFiles.size() * 2];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = base.resolve(ignoreFiles.get(i));
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(files[i], BasicFileAttributes.class);
+                stats[i * 2] = attributes.lastModifiedTime().toMillis();
+                stats[i * 2 + 1] = attributes.size();
+            } catch (NoSuchFileException e) {
+                stats[i * 2] = -1;
+                stats[i * 2 + 1] = -1;
+            }
+        }
+
+        Cached cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+        if (cached != null && Arrays.equals(cached.stats, stats) && cached.isTrusted()) return cached.processor;
+
+        // Stale or racy: compare content before compiling again.
+        List<List<String>> contents = new ArrayList<>(files.length);
+        MessageDigest digest = sha256();
+        for (Path file : files) {
+            byte[] bytes = Files.isRegularFile(file) ? Files.readAllBytes(file) : null;
+            digest.update(bytes == null ? new byte[]{0} : new byte[]{1});
+            if (bytes != null) {
+                digest.update(bytes);
+                // NOTE: Matches the default charset used when loading an ignore file directly.
+                contents.add(Arrays.asList(new String(bytes, Charset.defaultCharset()).split("\n")));
+            } else {
+                contents.add(null);
+            }
+        }
+        byte[] hash = digest.digest();
+
+        IgnoreProcessor processor;
+        if (cached != null && Arrays.equals(cached.hash, hash)) {
+            processor = cached.processor;
+        } else {
+            IgnoreProcessor.Builder builder = new IgnoreProcessor.Builder(directory);
+            for (int i = 0; i < files.length; i++) {
+                if (contents.get(i) != null) builder.addLines(files[i].toString(), contents.get(i));
+            }
+            processor = builder.build();
+        }
+
+        synchronized (cache) {
+            cache.put(key, new Cached(processor, stats, hash, checkedAt));
+        }
+        return processor;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Cached {
+        final IgnoreProcessor processor;
+        final long[] stats;
+        final byte[] hash;
+        final long checkedAt;
+
+        Cached(IgnoreProcessor processor, long[] stats, byte[] hash, long checkedAt) {
+            this.processor = processor;
+            this.stats = stats;
+            this.hash = hash;
+            this.checkedAt = checkedAt;
+        }
+
+        boolean isTrusted() {
+            for (int i = 0; i < stats.length; i += 2) {
+                if (stats[i] > checkedAt - RACY_MILLIS) return false;
+            }
+            return true;
+        }
+    }
+}
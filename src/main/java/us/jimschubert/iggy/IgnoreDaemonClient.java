@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A connection to an {@link IgnoreDaemon}. Requests on one client are answered in order, so a client must not be shared
+ * between threads; open a client per thread instead.
+ * <p>
+ * Paths are relative to {@code directory}, with a trailing {@code /} marking a directory. Ignore files are relative to
+ * {@code directory} (or absolute), and later files take precedence, as with {@link IgnoreProcessor.Builder#addFile(String)}.
+ */
+public class IgnoreDaemonClient implements Closeable {
+    private final DaemonProtocol.Connection connection;
+
+    private IgnoreDaemonClient(DaemonProtocol.Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Connects to a daemon listening on {@code socket}.
+     *
+     * @param socket The path of the daemon's Unix domain socket (or endpoint file).
+     * @return The connected client.
+     * @throws IOException if no daemon is listening.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static IgnoreDaemonClient connect(Path socket) throws IOException {
+        return new IgnoreDaemonClient(DaemonProtocol.connect(socket));
+    }
+
+    /**
+     * Evaluates paths against the ignore files.
+     *
+     * @param directory   The absolute base directory.
+     * @param ignoreFiles The ignore files, in order of increasing precedence.
+     * @param paths       The paths to evaluate.
+     * @return Whether each path is allowed, in the order of {@code paths}.
+     * @throws IOException if the daemon couldn't be reached, or couldn't load the ignore files.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean[] allows(String directory, List<String> ignoreFiles, List<String> paths) throws IOException {
+        DataInputStream in = request(0, directory, ignoreFiles, paths);
+        byte[] bits = new byte[(paths.size() + 7) / 8];
+        in.readFully(bits);
+        boolean[] allowed = new boolean[paths.size()];
+        for (int i = 0; i < allowed.length; i++) allowed[i] = (bits[i >>> 3] & (1 << (i & 7))) != 0;
+        return allowed;
+    }
+
+    /**
+     * Explains the outcome for each path.
+     *
+     * @param directory   The absolute base directory.
+     * @param ignoreFiles The ignore files, in order of increasing precedence.
+     * @param paths       The paths to explain.
+     * @return A {@code source:line:pattern<TAB>path} record for each path, in the order of {@code paths}.
+     * @throws IOException if the daemon couldn't be reached, or couldn't load the ignore files.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public List<String> explain(String directory, List<String> ignoreFiles, List<String> paths) throws IOException {
+        return explain(directory, ignoreFiles, paths, false);
+    }
+
+    /**
+     * Explains the outcome for each path, optionally with NUL-separated fields.
+     *
+     * @param directory    The absolute base directory.
+     * @param ignoreFiles  The ignore files, in order of increasing precedence.
+     * @param paths        The paths to explain.
+     * @param nulDelimited {@code true} for {@code source NUL line NUL pattern NUL path} records, as written by
+     *                     {@code git check-ignore -z -v}.
+     * @return A record for each path, in the order of {@code paths}.
+     * @throws IOException if the daemon couldn't be reached, or couldn't load the ignore files.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public List<String> explain(String directory, List<String> ignoreFiles, List<String> paths, boolean nulDelimited) throws IOException {
+        int flags = DaemonProtocol.FLAG_VERBOSE | (nulDelimited ? DaemonProtocol.FLAG_NUL_DELIMITED : 0);
+        DataInputStream in = request(flags, directory, ignoreFiles, paths);
+        List<String> records = new ArrayList<>(paths.size());
+        for (int i = 0; i < paths.size(); i++) records.add(DaemonProtocol.readString(in));
+        return records;
+    }
+
+    private DataInputStream request(int flags, String directory, List<String> ignoreFiles, List<String> paths) throws IOException {
+        DataOutputStream out = connection.out;
+        out.writeByte(flags);
+        DaemonProtocol.writeString(out, directory);
+        out.writeInt(ignoreFiles.size());
+        for (String ignoreFile : ignoreFiles) DaemonProtocol.writeString(out, ignoreFile);
+        out.writeInt(paths.size());
+        for (String path : paths) DaemonProtocol.writeString(out, path);
+        out.flush();
+
+        DataInputStream in = connection.in;
+        if (in.readByte() == DaemonProtocol.ERROR) throw new IOException(DaemonProtocol.readString(in));
+        return in;
+    }
+
+    @Override
+    public void close() throws IOException {
+        connection.close();
+    }
+}
@@ -20,15 +20,32 @@ package us.jimschubert.iggy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import us.jimschubert.iggy.rules.DirectoryRule;
+import us.jimschubert.iggy.rules.LiteralPrefilter;
 import us.jimschubert.iggy.rules.Rule;
+import us.jimschubert.iggy.rules.RuleSetOptimizer;
+import us.jimschubert.iggy.rules.SegmentBloomFilter;
+import us.jimschubert.iggy.rules.SegmentTrie;
+import us.jimschubert.iggy.rules.Telemetry;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Presents a processing utility for parsing and evaluating files containing common ignore patterns. (.ignore)
@@ -36,11 +53,69 @@ import java.util.List;
 public class IgnoreProcessor {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(IgnoreProcessor.class);
+    private static final int[] NO_PLAN = new int[0];
+    // Candidate sets reused by each thread's evaluations, for exclusions and for inclusions. Evaluations never nest.
+    private static final ThreadLocal<BitSet[]> CANDIDATES = new ThreadLocal<BitSet[]>() {
+        @Override
+        protected BitSet[] initialValue() {
+            return new BitSet[]{new BitSet(), new BitSet()};
+        }
+    };
 
     private List<Rule> exclusionRules = new ArrayList<>();
     private List<Rule> inclusionRules = new ArrayList<>();
+    private List<Integer> exclusionSources = new ArrayList<>();
+    private List<Integer> inclusionSources = new ArrayList<>();
+    private int[] exclusionRanks = new int[0];
+    private int[] inclusionRanks = new int[0];
+    private BitSet exclusionDirectories = new BitSet();
+    private LiteralPrefilter exclusionFilter = LiteralPrefilter.compile(exclusionRules);
+    private LiteralPrefilter inclusionFilter = LiteralPrefilter.compile(inclusionRules);
+    private final SegmentBloomFilter negativeCache;
+    private volatile SegmentTrie trie = null;
+    private int[] opaqueRules = null;
+    private List<RuleSetOptimizer.Removal> removedRules = Collections.emptyList();
+    private AdaptiveRuleOrder adaptiveOrder = null;
+
+    private File directory = null;
+    private Path baseDirectory = null;
+
+    /**
+     * Loads all sources of {@code builder}, in order of precedence.
+     */
+    private IgnoreProcessor(Builder builder) {
+        File directory = builder.directory;
+        if (!directory.exists() || !directory.isDirectory()) {
+            LOGGER.warn("Directory does not exist, or is inaccessible. No file will be evaluated.");
+            this.negativeCache = null;
+            return;
+        }
+
+        Rule.Options options = Rule.Options.DEFAULT.withLazyCompilation(builder.lazyCompilation).withLinearMatching(builder.linearMatching);
+        for (int rank = 0; rank < builder.sources.size(); rank++) {
+            Source source = builder.sources.get(rank);
+            try (BufferedReader reader = source.open()) {
+                if (reader == null) {
+                    LOGGER.info(String.format("No %s found.", source.name));
+                    continue;
+                }
+                if (builder.loadingPool != null) {
+                    loadAndProcessRules(source.name, reader, rank, options, builder.loadingPool);
+                } else {
+                    loadAndProcessRules(source.name, reader, rank, options);
+                }
+            } catch (IOException e) {
+                LOGGER.error(String.format("Could not process %s.", source.name), e.getMessage());
+            }
+        }
 
-    private File ignoreFile = null;
+        if (builder.optimization) optimize();
+        compile();
+        this.negativeCache = builder.negativeCache ? SegmentBloomFilter.compile(exclusionRules) : null;
+        if (builder.adaptiveOrdering) this.adaptiveOrder = new AdaptiveRuleOrder(exclusionRules.size());
+        this.directory = directory;
+        this.baseDirectory = directory.getAbsoluteFile().toPath().normalize();
+    }
 
     /**
      * Loads the default ignore file (.ignore) from the specified path.
@@ -61,6 +136,7 @@ public class IgnoreProcessor {
      */
     @SuppressWarnings("WeakerAccess")
     public IgnoreProcessor(String baseDirectory, String ignoreFile) {
+        this.negativeCache = null;
         final File directory = new File(baseDirectory);
         final File targetIgnoreFile = new File(directory, ignoreFile);
         if (directory.exists() && directory.isDirectory()) {
@@ -77,14 +153,19 @@ public class IgnoreProcessor {
      */
     @SuppressWarnings("WeakerAccess")
     public IgnoreProcessor(File targetIgnoreFile) {
+        this.negativeCache = null;
         loadFromFile(targetIgnoreFile);
     }
 
     private void loadFromFile(File targetIgnoreFile) {
         if (targetIgnoreFile.exists() && targetIgnoreFile.isFile()) {
             try {
-                loadAndProcessRules(targetIgnoreFile);
-                this.ignoreFile = targetIgnoreFile;
+                try (BufferedReader reader = new BufferedReader(new FileReader(targetIgnoreFile))) {
+                    loadAndProcessRules(targetIgnoreFile.getPath(), reader, 0, Rule.Options.DEFAULT);
+                }
+                compile();
+                this.directory = targetIgnoreFile.getParentFile();
+                this.baseDirectory = targetIgnoreFile.getAbsoluteFile().getParentFile().toPath().normalize();
             } catch (IOException e) {
                 LOGGER.error(String.format("Could not process %s.", targetIgnoreFile.getName()), e.getMessage());
             }
@@ -94,32 +175,90 @@ public class IgnoreProcessor {
         }
     }
 
-    private void loadAndProcessRules(final File ignoreFile) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(ignoreFile))) {
-            String line;
+    private void loadAndProcessRules(final String source, final BufferedReader reader, int rank, Rule.Options options) throws IOException {
+        Object event = Telemetry.beginLoad();
+        int before = inclusionRules.size() + exclusionRules.size();
+        String line;
+        int lineNumber = 0;
 
-            // NOTE: Comments that start with a : (e.g. //:) are pulled from git documentation for .gitignore
-            // see: https://github.com/git/git/blob/90f7b16b3adc78d4bbabbd426fb69aa78c714f71/Documentation/gitignore.txt
-            while ((line = reader.readLine()) != null) {
-                if (
-                    //: A blank line matches no files, so it can serve as a separator for readability.
-                        line.length() == 0
-                        ) continue;
+        // NOTE: Comments that start with a : (e.g. //:) are pulled from git documentation for .gitignore
+        // see: https://github.com/git/git/blob/90f7b16b3adc78d4bbabbd426fb69aa78c714f71/Documentation/gitignore.txt
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (
+                //: A blank line matches no files, so it can serve as a separator for readability.
+                    line.length() == 0
+                    ) continue;
 
-                Rule rule = Rule.create(line);
+            addRule(Rule.create(line, source, lineNumber, options), rank);
+        }
+        Telemetry.endLoad(event, source, lineNumber, inclusionRules.size() + exclusionRules.size() - before);
+    }
 
-                // rule could be null here if it's a COMMENT, for example
-                if (rule != null) {
-                    if (Boolean.TRUE.equals(rule.getNegated())) {
-                        inclusionRules.add(rule);
-                    } else {
-                        exclusionRules.add(rule);
-                    }
-                }
+    private void loadAndProcessRules(final String source, final BufferedReader reader, int rank, Rule.Options options, ForkJoinPool pool) throws IOException {
+        Object event = Telemetry.beginLoad();
+        int before = inclusionRules.size() + exclusionRules.size();
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) lines.add(line);
+
+        for (Rule rule : ParallelRuleParser.parse(pool, source, lines, options)) addRule(rule, rank);
+        Telemetry.endLoad(event, source, lines.size(), inclusionRules.size() + exclusionRules.size() - before);
+    }
+
+    private void addRule(Rule rule, int rank) {
+        // rule could be null here if it's a COMMENT, for example
+        if (rule != null) {
+            if (Boolean.TRUE.equals(rule.getNegated())) {
+                inclusionRules.add(rule);
+                inclusionSources.add(rank);
+            } else {
+                exclusionRules.add(rule);
+                exclusionSources.add(rank);
             }
         }
     }
 
+    private void compile() {
+        this.exclusionRanks = ranks(exclusionSources);
+        this.inclusionRanks = ranks(inclusionSources);
+        this.exclusionFilter = LiteralPrefilter.compile(exclusionRules);
+        this.inclusionFilter = LiteralPrefilter.compile(inclusionRules);
+        this.exclusionDirectories = new BitSet();
+        for (int i = 0; i < exclusionRules.size(); i++) {
+            if (exclusionRules.get(i) instanceof DirectoryRule) exclusionDirectories.set(i);
+        }
+    }
+
+    private void optimize() {
+        RuleSetOptimizer optimizer = RuleSetOptimizer.optimize(exclusionRules, ranks(exclusionSources), inclusionRules, ranks(inclusionSources));
+        this.removedRules = optimizer.getRemovals();
+        if (removedRules.isEmpty()) return;
+
+        BitSet removedExclusions = optimizer.getRemovedExclusions();
+        BitSet removedInclusions = optimizer.getRemovedInclusions();
+        this.exclusionRules = retain(exclusionRules, removedExclusions);
+        this.exclusionSources = retain(exclusionSources, removedExclusions);
+        this.inclusionRules = retain(inclusionRules, removedInclusions);
+        this.inclusionSources = retain(inclusionSources, removedInclusions);
+        for (RuleSetOptimizer.Removal removal : removedRules) LOGGER.debug(String.format("Removed %s", removal));
+        LOGGER.info(String.format("Removed %d redundant rules.", removedRules.size()));
+    }
+
+    private static <T> List<T> retain(List<T> items, BitSet removed) {
+        List<T> result = new ArrayList<>(items.size() - removed.cardinality());
+        for (int i = 0; i < items.size(); i++) {
+            if (!removed.get(i)) result.add(items.get(i));
+        }
+        return result;
+    }
+
+    private static int[] ranks(List<Integer> sources) {
+        int[] ranks = new int[sources.size()];
+        for (int i = 0; i < ranks.length; i++) ranks[i] = sources.get(i);
+        return ranks;
+    }
+
     /**
      * Determines whether or not a file defined by {@code toEvaluate} is allowed,
      * under the exclusion rules from the ignore file being processed.
@@ -129,28 +268,201 @@ public class IgnoreProcessor {
      */
     @SuppressWarnings("WeakerAccess")
     public boolean allowsFile(final File toEvaluate) {
-        if (ignoreFile == null) return true;
+        if (directory == null) return true;
 
-        File file = new File(this.ignoreFile.getParentFile().toURI().relativize(toEvaluate.toURI()).getPath());
+        File file = new File(this.directory.toURI().relativize(toEvaluate.toURI()).getPath());
 
-        Boolean directoryExcluded = false;
-        Boolean exclude = false;
+        return evaluate(file.getPath(), false);
+    }
+
+    /**
+     * Determines whether or not a file or directory defined by {@code toEvaluate} is allowed,
+     * under the exclusion rules from the ignore file being processed.
+     * <p>
+     * Unlike {@link IgnoreProcessor#allowsFile(File)}, this does not query the file system. Directory rules (e.g. {@code foo/})
+     * will match the directory itself when {@code isDirectory} is {@code true}.
+     *
+     * @param toEvaluate  The file to check against exclusion rules from the ignore file.
+     * @param isDirectory {@code true} if {@code toEvaluate} is a directory, otherwise {@code false}.
+     * @return {@code false} if file matches any pattern in the ignore file (disallowed), otherwise {@code true} (allowed).
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean allowsFile(final File toEvaluate, boolean isDirectory) {
+        return allowsFile(toEvaluate.toPath(), isDirectory);
+    }
+
+    /**
+     * Determines whether or not a file or directory defined by {@code toEvaluate} is allowed,
+     * under the exclusion rules from the ignore file being processed.
+     * <p>
+     * This is intended for use within a {@link java.nio.file.FileVisitor}, where {@code attributes} have already been read by the walk.
+     *
+     * @param toEvaluate The file to check against exclusion rules from the ignore file.
+     * @param attributes The attributes of {@code toEvaluate}, as provided by {@link Files#walkFileTree(Path, java.nio.file.FileVisitor)}.
+     * @return {@code false} if file matches any pattern in the ignore file (disallowed), otherwise {@code true} (allowed).
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean allowsFile(final Path toEvaluate, final BasicFileAttributes attributes) {
+        return allowsFile(toEvaluate, attributes.isDirectory());
+    }
+
+    /**
+     * Determines whether or not a file or directory defined by {@code toEvaluate} is allowed,
+     * under the exclusion rules from the ignore file being processed.
+     * <p>
+     * Relative paths are resolved against the current working directory, as with {@link IgnoreProcessor#allowsFile(File)}.
+     * This does not query the file system.
+     *
+     * @param toEvaluate  The file to check against exclusion rules from the ignore file.
+     * @param isDirectory {@code true} if {@code toEvaluate} is a directory, otherwise {@code false}.
+     * @return {@code false} if file matches any pattern in the ignore file (disallowed), otherwise {@code true} (allowed).
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean allowsFile(final Path toEvaluate, boolean isDirectory) {
+        if (directory == null) return true;
+
+        Path absolute = toEvaluate.toAbsolutePath().normalize();
+        String relativePath;
+        if (absolute.startsWith(baseDirectory)) {
+            relativePath = baseDirectory.relativize(absolute).toString();
+        } else {
+            relativePath = absolute.toString();
+        }
+
+        return evaluate(relativePath.replace(File.separatorChar, '/'), isDirectory);
+    }
+
+    /**
+     * Determines whether or not a path relative to the ignore file's directory is allowed,
+     * under the exclusion rules from the ignore file being processed.
+     *
+     * @param relativePath The {@code /} delimited path, relative to the directory containing the ignore file.
+     * @param isDirectory  {@code true} if {@code relativePath} is a directory, otherwise {@code false}.
+     * @return {@code false} if the path matches any pattern in the ignore file (disallowed), otherwise {@code true} (allowed).
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean allowsPath(final String relativePath, boolean isDirectory) {
+        if (directory == null) return true;
+
+        return evaluate(relativePath, isDirectory);
+    }
+
+    /**
+     * Determines whether or not a path relative to the ignore file's directory is allowed, and which rule decided the outcome.
+     * <p>
+     * This evaluates the path exactly as {@link IgnoreProcessor#allowsPath(String, boolean)} does.
+     *
+     * @param relativePath The {@code /} delimited path, relative to the directory containing the ignore file.
+     * @param isDirectory  {@code true} if {@code relativePath} is a directory, otherwise {@code false}.
+     * @return An {@link Explanation} of the outcome, including the source and line of the deciding rule.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public Explanation explain(final String relativePath, boolean isDirectory) {
+        Rule rule = directory == null ? null : decide(relativePath, isDirectory, false);
+        return new Explanation(relativePath, isAllowedBy(rule), rule);
+    }
+
+    private static boolean isAllowedBy(Rule decisive) {
+        return decisive == null || Boolean.TRUE.equals(decisive.getNegated());
+    }
+
+    private boolean evaluate(final String relativePath, boolean isDirectory) {
+        return isAllowedBy(decide(relativePath, isDirectory, adaptiveOrder != null));
+    }
+
+    /**
+     * Finds the rule deciding the outcome for a path, or with {@code settle}, a rule giving the same outcome (see
+     * {@link IgnoreProcessor#decide(String, boolean, BitSet, int[], boolean)}). Recorded evaluations report
+     * the deciding rule.
+     */
+    private Rule decide(final String relativePath, boolean isDirectory, boolean settle) {
+        Object event = Telemetry.beginEvaluation();
+        if (event == null) return decide(relativePath, isDirectory, null, settle);
+
+        int[] tested = new int[1];
+        Rule rule = decide(relativePath, isDirectory, tested, false);
+        Telemetry.endEvaluation(event, relativePath, isDirectory, tested[0], rule);
+        return rule;
+    }
+
+    /**
+     * Finds the rule deciding the outcome for a path: the excluding rule, an inclusion rule which overrides it, or {@code null} if the path is allowed by default.
+     * When {@code tested} is given, its first element counts the rules evaluated.
+     */
+    private Rule decide(final String relativePath, boolean isDirectory, int[] tested, boolean settle) {
         if (exclusionRules.size() == 0 && inclusionRules.size() == 0) {
-            return true;
+            return null;
         }
 
-        // NOTE: We *must* process all exclusion rules
-        for (int i = 0; i < exclusionRules.size(); i++) {
+        // NOTE: We *must* process all exclusion rules which could match. Rules skipped by the prefilter can't match.
+        BitSet exclusionCandidates;
+        SegmentBloomFilter negativeCache = this.negativeCache;
+        if (negativeCache != null && !negativeCache.mightMatch(relativePath)) {
+            // Only rules the filter has no key for could match.
+            if (negativeCache.isExhaustive()) return null;
+            exclusionCandidates = exclusionFilter.candidates(relativePath, CANDIDATES.get()[0]);
+            negativeCache.retainUnkeyed(exclusionCandidates);
+        } else {
+            exclusionCandidates = exclusionFilter.candidates(relativePath, CANDIDATES.get()[0]);
+        }
+
+        return decide(relativePath, isDirectory, exclusionCandidates, tested, settle);
+    }
+
+    /**
+     * Evaluates the candidate rules against a path.
+     * <p>
+     * With {@code settle}, only the outcome is needed. Exclusion rules in the adaptive plan are tried first, and the
+     * exclusion rules stop being evaluated once further matches can't change the outcome, so an excluded path may be
+     * reported as excluded by a rule other than the deciding rule. The candidates are modified.
+     */
+    private Rule decide(String relativePath, boolean isDirectory, BitSet exclusionCandidates, int[] tested, boolean settle) {
+        Rule excludedBy = null;
+        Boolean directoryExcluded = false;
+        int rank = 0;
+
+        // Sampled evaluations test every candidate in order, counting the rules which match.
+        BitSet matched = settle && adaptiveOrder.sample() ? new BitSet() : null;
+        if (matched != null) settle = false;
+        int[] plan = settle ? adaptiveOrder.getPlan() : NO_PLAN;
+        // Inclusion rules only depend on the highest rank of a match, and whether a directory rule matched. Both are
+        // settled once a rule of the highest candidate rank matched, and a directory rule matched or none is a candidate.
+        int top = settle && !exclusionCandidates.isEmpty() ? exclusionRanks[exclusionCandidates.length() - 1] : -1;
+        boolean directoryCandidates = settle && exclusionCandidates.intersects(exclusionDirectories);
+
+        int planned = 0;
+        int next = 0;
+        exclusions:
+        while (true) {
+            int i;
+            if (planned < plan.length) {
+                // Likely matches first. Each is cleared from the candidates, so it isn't tested again below.
+                i = plan[planned++];
+                if (!exclusionCandidates.get(i)) continue;
+                exclusionCandidates.clear(i);
+            } else {
+                i = exclusionCandidates.nextSetBit(next);
+                if (i < 0) break;
+                next = i + 1;
+            }
+
             Rule current = exclusionRules.get(i);
-            Rule.Operation op = current.evaluate(file.getPath());
+            Rule.Operation op = current.evaluate(relativePath, isDirectory);
+            if (tested != null) tested[0]++;
 
             switch (op) {
                 case EXCLUDE:
-                    exclude = true;
+                    // Rules are ordered by the precedence of their source, so the last match has the highest precedence.
+                    // Rules tried out of order keep the highest.
+                    rank = Math.max(rank, exclusionRanks[i]);
+                    if (matched != null) matched.set(i);
 
                     // Include rule can't override rules that exclude a file by some parent directory.
                     if (current instanceof DirectoryRule) {
                         directoryExcluded = true;
+                        excludedBy = current;
+                    } else if (!directoryExcluded) {
+                        excludedBy = current;
                     }
                     break;
                 case INCLUDE:
@@ -159,19 +471,25 @@ public class IgnoreProcessor {
                 case NOOP:
                     break;
                 case EXCLUDE_AND_TERMINATE:
-                    i = exclusionRules.size();
-                    break;
+                    break exclusions;
             }
+            if (settle && excludedBy != null && rank == top && (directoryExcluded || !directoryCandidates)) break;
         }
+        if (matched != null) adaptiveOrder.record(matched);
 
-        if (exclude) {
+        if (excludedBy != null) {
             // Only need to process inclusion rules if we've been excluded
-            for (int i = 0; exclude && i < inclusionRules.size(); i++) {
+            BitSet inclusionCandidates = inclusionFilter.candidates(relativePath, CANDIDATES.get()[1]);
+            for (int i = inclusionCandidates.nextSetBit(0); i >= 0; i = inclusionCandidates.nextSetBit(i + 1)) {
+                // A source can't re-include a file excluded by a source with higher precedence.
+                if (inclusionRanks[i] < rank) continue;
+
                 Rule current = inclusionRules.get(i);
-                Rule.Operation op = current.evaluate(file.getPath());
+                Rule.Operation op = current.evaluate(relativePath, isDirectory);
+                if (tested != null) tested[0]++;
 
-                // At this point exclude=true means the file should be ignored.
-                // op == INCLUDE means we have to flip that flag.
+                // At this point excludedBy means the file should be ignored.
+                // op == INCLUDE means we have to flip that decision.
                 if (op.equals(Rule.Operation.INCLUDE)) {
                     if (current instanceof DirectoryRule && directoryExcluded) {
                         // e.g
@@ -180,18 +498,102 @@ public class IgnoreProcessor {
                         // NOTE: Possibly surprising side effect:
                         // foo/bar/baz/
                         // !bar/
-                        exclude = false;
+                        return current;
                     } else if (!directoryExcluded) {
                         // e.g.
                         // **/*.log
                         // !ISSUE_1234.log
-                        exclude = false;
+                        return current;
                     }
                 }
             }
         }
 
-        return Boolean.FALSE.equals(exclude);
+        return excludedBy;
+    }
+
+    /**
+     * Creates a cursor for walking the directory containing the ignore file, one path segment at a time.
+     * <p>
+     * All rules are compiled into a {@link SegmentTrie} on first use. A cursor for a directory can be kept and
+     * {@link TreeCursor#resolve(String) resolved} for each child, so evaluating a child only consumes its name rather
+     * than re-matching its full path against every rule.
+     *
+     * @return A cursor at the directory containing the ignore file.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public TreeCursor cursor() {
+        SegmentTrie trie = this.trie;
+        if (trie == null) {
+            List<Rule> rules = new ArrayList<>(exclusionRules);
+            rules.addAll(inclusionRules);
+            trie = SegmentTrie.compile(rules);
+
+            int count = 0;
+            int[] opaque = new int[rules.size()];
+            for (int i = 0; i < rules.size(); i++) {
+                if (trie.isOpaque(i)) opaque[count++] = i;
+            }
+            this.opaqueRules = Arrays.copyOf(opaque, count);
+            this.trie = trie;
+        }
+        return new TreeCursor(this, trie.root(), "");
+    }
+
+    /**
+     * Evaluates a path already consumed by {@code state}, which belongs to the trie compiled by {@link IgnoreProcessor#cursor()}.
+     */
+    boolean allows(SegmentTrie.State state, final String relativePath, boolean isDirectory) {
+        if (directory == null) return true;
+
+        // Rules which can't be walked by segment are evaluated directly against the full path.
+        BitSet matched = new BitSet();
+        state.matches(isDirectory, matched);
+        for (int i : opaqueRules) {
+            Rule rule = i < exclusionRules.size() ? exclusionRules.get(i) : inclusionRules.get(i - exclusionRules.size());
+            if (!Rule.Operation.NOOP.equals(rule.evaluate(relativePath, isDirectory))) matched.set(i);
+        }
+        return isAllowedBy(decide(matched));
+    }
+
+    /**
+     * Finds the rule deciding the outcome, given the indexes of the matching rules: exclusion rules first, followed by
+     * inclusion rules offset by the number of exclusion rules.
+     */
+    private Rule decide(BitSet matched) {
+        Rule excludedBy = null;
+        boolean directoryExcluded = false;
+        int rank = 0;
+        int exclusions = exclusionRules.size();
+        for (int i = matched.nextSetBit(0); i >= 0 && i < exclusions; i = matched.nextSetBit(i + 1)) {
+            Rule current = exclusionRules.get(i);
+            rank = exclusionRanks[i];
+            if (current instanceof DirectoryRule) {
+                directoryExcluded = true;
+                excludedBy = current;
+            } else if (!directoryExcluded) {
+                excludedBy = current;
+            }
+        }
+        if (excludedBy == null) return null;
+
+        // Same as decide: an inclusion can't override a directory exclusion unless it is a directory rule itself,
+        // nor an exclusion from a source with higher precedence.
+        for (int i = matched.nextSetBit(exclusions); i >= 0; i = matched.nextSetBit(i + 1)) {
+            if (inclusionRanks[i - exclusions] < rank) continue;
+            Rule current = inclusionRules.get(i - exclusions);
+            if (!directoryExcluded || current instanceof DirectoryRule) return current;
+        }
+        return excludedBy;
+    }
+
+    /**
+     * Determines whether the negative cache is enabled. See {@link Builder#setNegativeCacheEnabled(boolean)}.
+     *
+     * @return {@code true} if the negative cache is enabled.
+     */
+    public boolean isNegativeCacheEnabled() {
+        return this.negativeCache != null;
     }
 
     /**
@@ -213,4 +615,295 @@ public class IgnoreProcessor {
     public List<Rule> getExclusionRules() {
         return Collections.unmodifiableList(exclusionRules);
     }
-}
\ No newline at end of file
+
+    /**
+     * Lists the rules removed by the optimizer when loading, if enabled by {@link Builder#setOptimizationEnabled(boolean)}.
+     * Removed rules can't change the outcome for any path, so the lines they were loaded from can also be removed from their sources.
+     *
+     * @return A {@link Collections#unmodifiableList(List)} of the removed rules, each with the rule taking its place.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public List<RuleSetOptimizer.Removal> getRemovedRules() {
+        return removedRules;
+    }
+
+    /**
+     * Computes a SHA-256 digest of the normalized rules: each rule's kind, definition and precedence, in evaluation order.
+     * Processors with the same fingerprint make the same decisions, whatever the names, comments or blank lines of their sources.
+     */
+    byte[] fingerprint() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required of every Java platform.", e);
+        }
+        digest.update((byte) (directory == null ? 0 : 1));
+        fingerprint(digest, exclusionRules, exclusionRanks);
+        fingerprint(digest, inclusionRules, inclusionRanks);
+        return digest.digest();
+    }
+
+    private static void fingerprint(MessageDigest digest, List<Rule> rules, int[] ranks) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(rules.size()).append('\n');
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+            builder.append(rule.getClass().getSimpleName()).append('\t').append(ranks[i]).append('\t')
+                    .append(rule.getDefinition()).append('\n');
+        }
+        digest.update(builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Builds an {@link IgnoreProcessor} from several sources of ignore patterns, such as a global excludes file,
+     * {@code .gitignore} and {@code .ignore}. All sources are compiled into a single processor, so each path is evaluated once.
+     * <p>
+     * Sources added later take precedence over sources added earlier. A negated pattern can re-include a path excluded by
+     * its own source, or by a source added before it, but not a path excluded by a source added after it:
+     * <pre>{@code
+     * IgnoreProcessor processor = new IgnoreProcessor.Builder(baseDirectory)
+     *         .addFile(globalExcludes)
+     *         .addFile(".gitignore")
+     *         .addFile(".ignore")
+     *         .build();
+     * }</pre>
+     * Sources which don't exist are skipped.
+     */
+    public static class Builder {
+        private final File directory;
+        private final List<Source> sources = new ArrayList<>();
+        private boolean lazyCompilation = false;
+        private boolean linearMatching = false;
+        private ForkJoinPool loadingPool = null;
+        private boolean optimization = false;
+        private boolean adaptiveOrdering = false;
+        private boolean negativeCache = false;
+
+        /**
+         * Constructs a builder for a processor evaluating paths relative to {@code baseDirectory}.
+         *
+         * @param baseDirectory The base directory of the files to be processed.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder(final String baseDirectory) {
+            this(new File(baseDirectory));
+        }
+
+        /**
+         * Constructs a builder for a processor evaluating paths relative to {@code baseDirectory}.
+         *
+         * @param baseDirectory The base directory of the files to be processed.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder(final File baseDirectory) {
+            this.directory = baseDirectory;
+        }
+
+        /**
+         * Adds an ignore file by name, relative to the base directory (e.g. {@code .gitignore}).
+         *
+         * @param ignoreFile The name of the file containing ignore patterns.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder addFile(final String ignoreFile) {
+            return addFile(new File(directory, ignoreFile));
+        }
+
+        /**
+         * Adds an ignore file (e.g. a global excludes file).
+         *
+         * @param ignoreFile The file containing ignore patterns.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder addFile(final File ignoreFile) {
+            sources.add(new Source(ignoreFile.getPath()) {
+                @Override
+                BufferedReader open() throws IOException {
+                    if (!ignoreFile.exists() || !ignoreFile.isFile()) return null;
+                    return new BufferedReader(new FileReader(ignoreFile));
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Adds a classpath resource containing ignore patterns, loaded by the class loader of {@link IgnoreProcessor}.
+         *
+         * @param name The name of the resource (e.g. {@code defaults/.ignore}).
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder addResource(final String name) {
+            return addResource(IgnoreProcessor.class.getClassLoader(), name);
+        }
+
+        /**
+         * Adds a classpath resource containing ignore patterns.
+         *
+         * @param classLoader The class loader used to find the resource.
+         * @param name        The name of the resource (e.g. {@code defaults/.ignore}).
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder addResource(final ClassLoader classLoader, final String name) {
+            sources.add(new Source(name) {
+                @Override
+                BufferedReader open() throws IOException {
+                    InputStream stream = classLoader.getResourceAsStream(name);
+                    if (stream == null) return null;
+                    return new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Adds ignore patterns held in memory.
+         *
+         * @param name  The name of the source, reported by {@link Rule#getSource()}.
+         * @param lines The lines of the source, as they'd appear in an ignore file.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder addLines(final String name, final List<String> lines) {
+            final List<String> copy = new ArrayList<>(lines);
+            sources.add(new Source(name) {
+                @Override
+                BufferedReader open() throws IOException {
+                    return new BufferedReader(new StringReader(String.join("\n", copy)));
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Enables or disables lazy compilation of rules (disabled by default).
+         * <p>
+         * When enabled, loading only parses and classifies each pattern, and a rule's matcher is built the first time a path
+         * passes the prefilters for that rule. This shortens the time to the first decision for large, generated ignore
+         * files, where most rules are never evaluated in a given run.
+         *
+         * @param enabled {@code true} to defer building matchers until first use.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder setLazyCompilationEnabled(final boolean enabled) {
+            this.lazyCompilation = enabled;
+            return this;
+        }
+
+        /**
+         * Enables or disables strictly linear matching (disabled by default).
+         * <p>
+         * Globs are matched by an automaton in time linear in the length of the path. A few globs can't be represented
+         * exactly by the automaton (e.g. those containing an empty character class, or of more than 1024 positions), and
+         * are otherwise evaluated by a backtracking {@link java.nio.file.PathMatcher}, which can take {@code O(n^k)} time for
+         * a path of length {@code n} and a pattern of {@code k} wildcards such as {@code *a*a*a*b}. When enabled, such patterns are instead loaded as an
+         * {@link us.jimschubert.iggy.rules.InvalidRule} giving the reason, and never match.
+         *
+         * @param enabled {@code true} to reject patterns which can't be guaranteed linear time matching.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder setLinearMatchingEnabled(final boolean enabled) {
+            this.linearMatching = enabled;
+            return this;
+        }
+
+        /**
+         * Sets the pool on which the rules of each source are created (none by default).
+         * <p>
+         * Ignore files generated from lockfiles or build outputs can run to hundreds of thousands of lines. With a pool,
+         * the lines of each source are split into chunks which are parsed in parallel, and the rules are then added in line
+         * order, so the outcome for every path is the same as loading sequentially. Sources of a few thousand lines or
+         * fewer gain nothing; those of up to {@value ParallelRuleParser#CHUNK} lines are still loaded on the calling thread.
+         *
+         * @param pool The pool to load on (e.g. {@link ForkJoinPool#commonPool()}), or {@code null} to load sequentially.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder setLoadingPool(final ForkJoinPool pool) {
+            this.loadingPool = pool;
+            return this;
+        }
+
+        /**
+         * Enables or disables the negative cache (disabled by default), a {@link SegmentBloomFilter} over the exclusion rules.
+         * <p>
+         * When most evaluated paths are allowed, the negative cache proves that no exclusion rule can match a path
+         * without evaluating the rules. This costs a small amount of memory and a hash of each path segment per evaluation,
+         * which is wasted on paths that are excluded.
+         *
+         * @param enabled {@code true} to enable the negative cache.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder setNegativeCacheEnabled(final boolean enabled) {
+            this.negativeCache = enabled;
+            return this;
+        }
+
+        /**
+         * Enables or disables removal of redundant rules (disabled by default).
+         * <p>
+         * When enabled, once all sources are loaded, rules which can't change the outcome for any path are removed: duplicates,
+         * rules subsumed by another (e.g. {@code foo/bar/**} with {@code foo/**}), and negations which can never re-include
+         * a path (e.g. {@code !build/keep.txt} after {@code build/}). See {@link RuleSetOptimizer}. Each path is allowed or
+         * excluded as without optimization, though {@link IgnoreProcessor#explain(String, boolean)} may name the remaining rule.
+         * The removed rules are listed by {@link IgnoreProcessor#getRemovedRules()}.
+         *
+         * @param enabled {@code true} to remove redundant rules.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder setOptimizationEnabled(final boolean enabled) {
+            this.optimization = enabled;
+            return this;
+        }
+
+        /**
+         * Enables or disables adaptive ordering of exclusion rules (disabled by default).
+         * <p>
+         * When enabled, a sample of evaluations counts how often each exclusion rule matches, and the most frequent rules
+         * are periodically published as a plan of the rules to try first. Evaluating a path
+         * with {@link IgnoreProcessor#allowsPath(String, boolean)} or {@code allowsFile} then stops testing exclusion rules
+         * as soon as no further match could change the outcome, e.g. once {@code node_modules/} matched. This suits
+         * long-lived processors with skewed workloads, where a few rules exclude most paths. The outcome for every path is
+         * unchanged, and {@link IgnoreProcessor#explain(String, boolean)} still reports the deciding rule.
+         *
+         * @param enabled {@code true} to try frequently matching exclusion rules first.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder setAdaptiveOrderingEnabled(final boolean enabled) {
+            this.adaptiveOrdering = enabled;
+            return this;
+        }
+
+        /**
+         * Loads all sources, in order of precedence, into a new {@link IgnoreProcessor}.
+         *
+         * @return The processor.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public IgnoreProcessor build() {
+            return new IgnoreProcessor(this);
+        }
+    }
+
+    private abstract static class Source {
+        final String name;
+
+        Source(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Opens the source for reading, or returns {@code null} if it doesn't exist.
+         */
+        abstract BufferedReader open() throws IOException;
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory tree for changes, registering only the directories its ignore files allow.
+ * <p>
+ * A {@link WatchService} needs a registration per directory, and on Linux each one consumes an inotify watch. Excluded
+ * directories such as {@code node_modules/} or {@code build/} are never registered, so they neither count against the
+ * limit nor produce events. As directories are created and deleted, registrations are added and removed. When an
+ * ignore file changes, its rules are reloaded and the registrations brought in line with them.
+ * <p>
+ * Events for excluded files are dropped before they reach the {@link Listener}. When a directory is created, an event is
+ * also delivered for each allowed file or directory it already holds, which could otherwise be missed while the new
+ * directory is being registered.
+ * <pre>{@code
+ * try (IgnoreWatcher watcher = new IgnoreWatcher.Builder(root).addFile(".gitignore").addFile(".ignore").build(listener)) {
+ *     while (running) watcher.poll(1, TimeUnit.SECONDS);
+ * }
+ * }</pre>
+ * Instances are not thread-safe: events are delivered on the thread calling {@link IgnoreWatcher#poll(long, TimeUnit)}.
+ */
+public final class IgnoreWatcher implements Closeable {
+    /**
+     * Receives the events for allowed paths.
+     */
+    public interface Listener {
+        /**
+         * Called for each change to an allowed file or directory.
+         * <p>
+         * When the watch service drops events ({@link StandardWatchEventKinds#OVERFLOW}), registrations are rebuilt
+         * and {@code relativePath} is {@code null}; a listener should then treat the whole tree as changed.
+         *
+         * @param kind         The kind of change, one of {@link StandardWatchEventKinds}.
+         * @param relativePath The {@code /} delimited path relative to the root.
+         * @param isDirectory  {@code true} if the path is a directory, otherwise {@code false}.
+         */
+        void onEvent(WatchEvent.Kind<?> kind, String relativePath, boolean isDirectory);
+    }
+
+    private final Path root;
+    private final List<String> ignoreFiles;
+    private final Listener listener;
+    private final WatchService service;
+    private final Map<WatchKey, String> keys = new HashMap<>();
+    private final Map<String, WatchKey> directories = new HashMap<>();
+    // Excluded directories aren't registered, but their deletion is still reported by their parent.
+    private final Set<String> excludedDirectories = new HashSet<>();
+    private IgnoreProcessor processor;
+
+    private IgnoreWatcher(Path root, List<String> ignoreFiles, Listener listener) throws IOException {
+        this.root = root;
+        this.ignoreFiles = ignoreFiles;
+        this.listener = listener;
+        this.service = root.getFileSystem().newWatchService();
+        try {
+            this.processor = load();
+            synchronize();
+        } catch (IOException e) {
+            service.close();
+            throw e;
+        }
+    }
+
+    private IgnoreProcessor load() {
+        IgnoreProcessor.Builder builder = new IgnoreProcessor.Builder(root.toFile());
+        for (String ignoreFile : ignoreFiles) builder.addFile(ignoreFile);
+        return builder.build();
+    }
+
+    /**
+     * Waits for changes, and delivers the events for allowed paths to the listener.
+     *
+     * @param timeout How long to wait for the first change.
+     * @param unit    The unit of {@code timeout}.
+     * @return The number of events delivered.
+     * @throws IOException          if a directory can't be registered.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public int poll(final long timeout, final TimeUnit unit) throws IOException, InterruptedException {
+        WatchKey key = service.poll(timeout, unit);
+        int delivered = 0;
+        while (key != null) {
+            delivered += process(key);
+            key = service.poll();
+        }
+        return delivered;
+    }
+
+    private int process(WatchKey key) throws IOException {
+        String directory = keys.get(key);
+        if (directory == null) {
+            key.cancel();
+            return 0;
+        }
+
+        int delivered = 0;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == StandardWatchEventKinds.OVERFLOW) {
+                synchronize();
+                listener.onEvent(kind, null, false);
+                delivered++;
+                continue;
+            }
+
+            String name = event.context().toString();
+            String relativePath = directory.isEmpty() ? name : directory + "/" + name;
+            boolean isDirectory = kind == StandardWatchEventKinds.ENTRY_DELETE
+                    ? directories.containsKey(relativePath) || excludedDirectories.contains(relativePath)
+                    : Files.isDirectory(root.resolve(relativePath), LinkOption.NOFOLLOW_LINKS);
+
+            if (ignoreFiles.contains(relativePath)) {
+                processor = load();
+                synchronize();
+            }
+            if (kind == StandardWatchEventKinds.ENTRY_DELETE && isDirectory) unregister(relativePath);
+            if (!processor.allowsPath(relativePath, isDirectory)) {
+                if (kind == StandardWatchEventKinds.ENTRY_CREATE && isDirectory) excludedDirectories.add(relativePath);
+                continue;
+            }
+
+            listener.onEvent(kind, relativePath, isDirectory);
+            delivered++;
+            if (kind == StandardWatchEventKinds.ENTRY_CREATE && isDirectory) {
+                delivered += register(relativePath);
+            }
+        }
+
+        if (!key.reset()) {
+            // The directory is gone. It stays known until its parent reports the deletion, so the event is marked as a
+            // directory's; unregister or the next synchronize removes it.
+            keys.remove(key);
+        }
+        return delivered;
+    }
+
+    /**
+     * Registers a new directory and the allowed directories below it, announcing the allowed paths below it.
+     */
+    private int register(String relativePath) throws IOException {
+        final List<String[]> created = new ArrayList<>();
+        Set<String> allowed = walk(relativePath, created);
+        int delivered = 0;
+        for (String[] path : created) {
+            listener.onEvent(StandardWatchEventKinds.ENTRY_CREATE, path[0], path[1] != null);
+            delivered++;
+        }
+        for (String directory : allowed) {
+            if (!isWatched(directory)) watch(directory);
+        }
+        return delivered;
+    }
+
+    /**
+     * Cancels the registrations of a directory and all directories below it, and forgets the excluded directories below it.
+     */
+    private void unregister(String relativePath) {
+        String prefix = relativePath + "/";
+        Iterator<String> excluded = excludedDirectories.iterator();
+        while (excluded.hasNext()) {
+            String directory = excluded.next();
+            if (directory.equals(relativePath) || directory.startsWith(prefix)) excluded.remove();
+        }
+        Iterator<Map.Entry<String, WatchKey>> iterator = directories.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, WatchKey> entry = iterator.next();
+            if (entry.getKey().equals(relativePath) || entry.getKey().startsWith(prefix)) {
+                entry.getValue().cancel();
+                keys.remove(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Brings registrations in line with the current rules: excluded directories are unregistered, and allowed ones registered.
+     */
+    private void synchronize() throws IOException {
+        excludedDirectories.clear();
+        Set<String> allowed = walk("", null);
+        Iterator<Map.Entry<String, WatchKey>> iterator = directories.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, WatchKey> entry = iterator.next();
+            if (!allowed.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                keys.remove(entry.getValue());
+                iterator.remove();
+            }
+        }
+        for (String directory : allowed) {
+            if (!isWatched(directory)) watch(directory);
+        }
+    }
+
+    private boolean isWatched(String relativePath) {
+        WatchKey key = directories.get(relativePath);
+        return key != null && key.isValid();
+    }
+
+    private void watch(String relativePath) throws IOException {
+        Path directory = relativePath.isEmpty() ? root : root.resolve(relativePath);
+        try {
+            WatchKey key = directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            keys.put(key, relativePath);
+            directories.put(relativePath, key);
+        } catch (NoSuchFileException e) {
+            // Deleted since it was found; its parent reports the deletion.
+        }
+    }
+
+    /**
+     * Finds the allowed directories at and below {@code start}, and when {@code created} is given, adds each allowed path
+     * below {@code start} as a pair of its relative path and, for directories, a non-null marker. The excluded directories
+     * found are remembered, so their deletion can be recognized.
+     */
+    private Set<String> walk(final String start, final List<String[]> created) throws IOException {
+        final Set<String> allowed = new LinkedHashSet<>();
+        final Deque<TreeCursor> cursors = new ArrayDeque<>();
+        final TreeCursor first = start.isEmpty() ? processor.cursor() : processor.cursor().resolve(start);
+        Files.walkFileTree(start.isEmpty() ? root : root.resolve(start), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                TreeCursor cursor = cursors.isEmpty() ? first : cursors.peek().resolve(dir.getFileName().toString());
+                if (!cursors.isEmpty()) {
+                    if (!cursor.allows(true)) {
+                        excludedDirectories.add(cursor.getRelativePath());
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (created != null) created.add(new String[]{cursor.getRelativePath(), ""});
+                }
+                allowed.add(cursor.getRelativePath());
+                cursors.push(cursor);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                cursors.pop();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (created != null && !attrs.isDirectory()) {
+                    TreeCursor cursor = cursors.peek().resolve(file.getFileName().toString());
+                    if (cursor.allows(false)) created.add(new String[]{cursor.getRelativePath(), null});
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                // Deleted or unreadable since it was listed; a deletion is reported by its parent.
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return allowed;
+    }
+
+    /**
+     * Gets the directories currently registered with the watch service.
+     *
+     * @return The {@code /} delimited paths relative to the root, sorted. The root is an empty string.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public Set<String> getWatchedDirectories() {
+        Set<String> watched = new TreeSet<>();
+        for (Map.Entry<String, WatchKey> entry : directories.entrySet()) {
+            if (entry.getValue().isValid()) watched.add(entry.getKey());
+        }
+        return Collections.unmodifiableSet(watched);
+    }
+
+    /**
+     * Gets the processor for the current content of the ignore files.
+     *
+     * @return The processor.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public IgnoreProcessor getProcessor() {
+        return processor;
+    }
+
+    /**
+     * Stops watching, and releases all registrations.
+     *
+     * @throws IOException if the watch service can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+    /**
+     * Builds an {@link IgnoreWatcher}.
+     */
+    public static class Builder {
+        private final Path root;
+        private final List<String> ignoreFiles = new ArrayList<>();
+
+        /**
+         * Creates a builder for watching a directory tree.
+         *
+         * @param root The directory to watch, which contains the ignore files.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder(final Path root) {
+            this.root = root;
+        }
+
+        /**
+         * Adds an ignore file, relative to the root (e.g. {@code .gitignore}). Files added later take precedence, as with
+         * {@link IgnoreProcessor.Builder}. The file is reloaded whenever it's created, changed or deleted.
+         *
+         * @param ignoreFile The {@code /} delimited path of the ignore file, relative to the root.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder addFile(final String ignoreFile) {
+            ignoreFiles.add(ignoreFile);
+            return this;
+        }
+
+        /**
+         * Registers the allowed directories, and creates the watcher.
+         *
+         * @param listener The listener receiving events for allowed paths.
+         * @return The watcher.
+         * @throws IOException if the tree can't be walked, or a directory can't be registered.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public IgnoreWatcher build(final Listener listener) throws IOException {
+            return new IgnoreWatcher(root, new ArrayList<>(ignoreFiles), listener);
+        }
+    }
+}
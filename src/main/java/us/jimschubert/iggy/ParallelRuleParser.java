@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import us.jimschubert.iggy.rules.Rule;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Creates the rules for the lines of an ignore file on a {@link ForkJoinPool}.
+ * <p>
+ * The lines are split into chunks of consecutive lines, and each rule is stored at the index of its line, so the result
+ * is in the original line order regardless of which thread created it. A line which fails (e.g. an invalid glob) stores
+ * its exception instead, and the first failing line is rethrown, as if the lines had been loaded one at a time.
+ */
+final class ParallelRuleParser {
+    /**
+     * The number of lines created by a single task. Smaller sources are parsed on the calling thread.
+     */
+    static final int CHUNK = 1024;
+
+    private ParallelRuleParser() {
+    }
+
+    /**
+     * Creates the rule for each line.
+     *
+     * @param pool    The pool to run on.
+     * @param source  The name of the source, reported by {@link Rule#getSource()}.
+     * @param lines   The lines of the source.
+     * @param options How the rules are created.
+     * @return The rule for each line, in line order; {@code null} for blank lines and lines which define no rule.
+     */
+    static Rule[] parse(ForkJoinPool pool, String source, List<String> lines, Rule.Options options) {
+        Object[] results = new Object[lines.size()];
+        Task task = new Task(source, lines, options, results, 0, lines.size());
+        if (lines.size() <= CHUNK) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+
+        Rule[] rules = new Rule[results.length];
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] instanceof RuntimeException) throw (RuntimeException) results[i];
+            rules[i] = (Rule) results[i];
+        }
+        return rules;
+    }
+
+    private static final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String source;
+        private final List<String> lines;
+        private final Rule.Options options;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+
+        Task(String source, List<String> lines, Rule.Options options, Object[] results, int from, int to) {
+            this.source = source;
+            this.lines = lines;
+            this.options = options;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK) {
+                // Split on a chunk boundary, so every task but the last creates whole chunks.
+                int middle = from + ((to - from) / CHUNK / 2) * CHUNK;
+                if (middle == from) middle += CHUNK;
+                invokeAll(new Task(source, lines, options, results, from, middle),
+                        new Task(source, lines, options, results, middle, to));
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                String line = lines.get(i);
+                //: A blank line matches no files, so it can serve as a separator for readability.
+                if (line.length() == 0) continue;
+                try {
+                    results[i] = Rule.create(line, source, i + 1, options);
+                } catch (RuntimeException e) {
+                    results[i] = e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A batch of paths held as UTF-8 bytes outside the heap, for evaluating millions of paths without a {@link String} or
+ * {@link java.io.File} per path.
+ * <p>
+ * The paths are NUL-delimited in a single buffer, usually a mapped file (e.g. the output of {@code find -print0} or
+ * {@code git ls-files -z}), with the offset of each path in a direct buffer. As with the command line, a leading
+ * {@code ./} is ignored, a trailing {@code /} marks a directory, and empty records are skipped.
+ * <pre>{@code
+ * PathBatch batch = PathBatch.map(Paths.get("paths.bin"));
+ * BitSet allowed = new BitSet(batch.size());
+ * batch.evaluate(processor, allowed);
+ * }</pre>
+ * Evaluation walks the paths with a {@link TreeCursor} per directory. Directories shared with the previous path are
+ * compared as bytes and their cursors kept, so sorted input only decodes the names below the last shared directory.
+ * Nothing is retained per path, so heap use doesn't grow with the size of the batch.
+ * <p>
+ * Instances are immutable once created, and may be evaluated from several threads.
+ */
+public final class PathBatch {
+    private final ByteBuffer data;
+    private final IntBuffer offsets;
+
+    private PathBatch(ByteBuffer data, IntBuffer offsets) {
+        this.data = data;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Maps a file of NUL-delimited paths.
+     *
+     * @param file The file, of at most 2 GiB.
+     * @return The batch, which keeps the file mapped until it is no longer referenced.
+     * @throws IOException if the file can't be read, or is too large to map at once.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static PathBatch map(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Path batch is larger than 2 GiB: " + file);
+            return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Wraps a buffer of NUL-delimited paths, from its position to its limit. The buffer's content must not change while
+     * the batch is in use.
+     *
+     * @param data The paths, typically a direct or mapped buffer.
+     * @return The batch.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static PathBatch wrap(final ByteBuffer data) {
+        ByteBuffer view = data.slice();
+        int limit = view.limit();
+
+        // Count first, so the offsets are allocated once.
+        int count = 0;
+        boolean inRecord = false;
+        for (int i = 0; i < limit; i++) {
+            boolean delimiter = view.get(i) == 0;
+            if (!delimiter && !inRecord) count++;
+            inRecord = !delimiter;
+        }
+
+        IntBuffer offsets = ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder()).asIntBuffer();
+        inRecord = false;
+        for (int i = 0; i < limit; i++) {
+            boolean delimiter = view.get(i) == 0;
+            if (!delimiter && !inRecord) offsets.put(i);
+            inRecord = !delimiter;
+        }
+        offsets.flip();
+        return new PathBatch(view, offsets);
+    }
+
+    /**
+     * Gets the number of paths in the batch.
+     *
+     * @return The number of paths.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public int size() {
+        return offsets.limit();
+    }
+
+    /**
+     * Decodes a path of the batch, as it was read.
+     *
+     * @param index The index of the path.
+     * @return The path.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public String getPath(int index) {
+        int start = offsets.get(index);
+        return decode(start, end(start), new byte[0]);
+    }
+
+    /**
+     * Evaluates every path of the batch, setting the bit of each allowed path and clearing the others.
+     *
+     * @param processor The processor evaluating the paths.
+     * @param allowed   The result, indexed like the batch.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public void evaluate(final IgnoreProcessor processor, final BitSet allowed) {
+        allowed.clear(0, size());
+        evaluate(processor, allowed, null);
+    }
+
+    /**
+     * Evaluates every path of the batch into a bit set held in a (e.g. direct) buffer: bit {@code i % 64} of word
+     * {@code i / 64} is set if path {@code i} is allowed. Words are written from the buffer's position, which is left
+     * after the last word.
+     *
+     * @param processor The processor evaluating the paths.
+     * @param allowed   The result, with at least {@code (size() + 63) / 64} words remaining.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public void evaluate(final IgnoreProcessor processor, final LongBuffer allowed) {
+        int words = (size() + 63) >>> 6;
+        if (allowed.remaining() < words) throw new IllegalArgumentException("Result needs " + words + " words.");
+        evaluate(processor, null, allowed);
+    }
+
+    private void evaluate(IgnoreProcessor processor, BitSet bits, LongBuffer words) {
+        TreeCursor root = processor.cursor();
+        // directories[k] is the cursor of the first k + 1 segments of the previous path, which end before ends[k].
+        TreeCursor[] directories = new TreeCursor[8];
+        int[] ends = new int[8];
+        int depth = 0;
+        int previousStart = 0;
+        int previousEnd = 0;
+        byte[] scratch = new byte[256];
+        long word = 0;
+
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            int start = offsets.get(i);
+            int end = end(start);
+            if (end - start >= 2 && data.get(start) == '.' && data.get(start + 1) == '/') start += 2;
+            boolean isDirectory = end > start && data.get(end - 1) == '/';
+            if (isDirectory) end--;
+
+            // Keep the directories shared with the previous path: those ending within the common prefix.
+            int common = 0;
+            int limit = Math.min(end - start, previousEnd - previousStart);
+            while (common < limit && data.get(start + common) == data.get(previousStart + common)) common++;
+            int shared = 0;
+            while (shared < depth && ends[shared] < common) shared++;
+            depth = shared;
+
+            TreeCursor parent = depth == 0 ? root : directories[depth - 1];
+            int segment = depth == 0 ? 0 : ends[depth - 1] + 1;
+            for (int slash = indexOf(start + segment, end); slash >= 0; slash = indexOf(start + segment, end)) {
+                if (depth == directories.length) {
+                    directories = Arrays.copyOf(directories, depth * 2);
+                    ends = Arrays.copyOf(ends, depth * 2);
+                }
+                if (slash - start - segment > scratch.length) scratch = new byte[slash - start - segment];
+                parent = parent.resolve(decode(start + segment, slash, scratch));
+                directories[depth] = parent;
+                ends[depth++] = slash - start;
+                segment = slash - start + 1;
+            }
+            if (end - start - segment > scratch.length) scratch = new byte[end - start - segment];
+            boolean result = parent.resolve(decode(start + segment, end, scratch)).allows(isDirectory);
+
+            previousStart = start;
+            previousEnd = end;
+            if (words != null) {
+                if (result) word |= 1L << i;
+                if ((i & 63) == 63) {
+                    words.put(word);
+                    word = 0;
+                }
+            } else if (result) {
+                bits.set(i);
+            }
+        }
+        if (words != null && (size & 63) != 0) words.put(word);
+    }
+
+    /**
+     * Finds the end of the path starting at {@code start}: its delimiter, or the end of the buffer.
+     */
+    private int end(int start) {
+        int limit = data.limit();
+        int end = start;
+        while (end < limit && data.get(end) != 0) end++;
+        return end;
+    }
+
+    private int indexOf(int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (data.get(i) == '/') return i;
+        }
+        return -1;
+    }
+
+    private String decode(int start, int end, byte[] scratch) {
+        int length = end - start;
+        byte[] bytes = scratch.length >= length ? scratch : new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = data.get(start + i);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies the allowed files of a directory tree into a target directory, such as generated sources into a project.
+ * <p>
+ * The source tree is walked with a {@link TreeCursor}, so excluded directories are skipped without visiting their contents.
+ * Files are copied with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, which the
+ * operating system can perform without copying through the heap (e.g. {@code sendfile} on Linux). A file is skipped if
+ * the target already has the same size and modification time, so repeated copies only write what changed.
+ * <p>
+ * Protected rules describe the target tree: a target path excluded by those rules (e.g. a hand-edited file listed in
+ * the target's {@code .ignore}) is never created or overwritten, and a protected directory is skipped entirely.
+ * <pre>{@code
+ * TreeCopy.Result result = new TreeCopy.Builder(generatorRules)
+ *         .setProtectedRules(new IgnoreProcessor(target.toString()))
+ *         .setPool(ForkJoinPool.commonPool())
+ *         .build()
+ *         .copy(source, target);
+ * }</pre>
+ * Only directories and regular files are copied; symbolic links and other special files are skipped.
+ */
+public final class TreeCopy {
+    private final IgnoreProcessor rules;
+    private final IgnoreProcessor protectedRules;
+    private final ForkJoinPool pool;
+
+    private TreeCopy(IgnoreProcessor rules, IgnoreProcessor protectedRules, ForkJoinPool pool) {
+        this.rules = rules;
+        this.protectedRules = protectedRules;
+        this.pool = pool;
+    }
+
+    /**
+     * Copies the allowed files below {@code source} into {@code target}, creating directories as needed.
+     * <p>
+     * Paths are evaluated relative to {@code source} against the rules, and relative to {@code target} against the
+     * protected rules. The modification time of each copied file is set to that of its source.
+     *
+     * @param source The directory to copy from.
+     * @param target The directory to copy into.
+     * @return The number of files copied, unchanged, excluded and protected.
+     * @throws NotDirectoryException if {@code source} isn't a directory.
+     * @throws IOException if a directory can't be read, or a file can't be copied. Files copied before the failure remain.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public Result copy(final Path source, final Path target) throws IOException {
+        if (!Files.isDirectory(source)) throw new NotDirectoryException(source.toString());
+
+        final Result result = new Result();
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        final Deque<TreeCursor> cursors = new ArrayDeque<>();
+
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    TreeCursor cursor = cursors.isEmpty() ? rules.cursor() : cursors.peek().resolve(dir.getFileName().toString());
+                    if (!cursors.isEmpty()) {
+                        if (!cursor.allows(true)) {
+                            result.excluded.incrementAndGet();
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        if (isProtected(cursor.getRelativePath(), true)) {
+                            result.protectedPaths.incrementAndGet();
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                    }
+                    Files.createDirectories(resolve(target, cursor.getRelativePath()));
+                    cursors.push(cursor);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    cursors.pop();
+                    return super.postVisitDirectory(dir, exc);
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+
+                    TreeCursor cursor = cursors.peek().resolve(file.getFileName().toString());
+                    if (!cursor.allows(false)) {
+                        result.excluded.incrementAndGet();
+                    } else if (isProtected(cursor.getRelativePath(), false)) {
+                        result.protectedPaths.incrementAndGet();
+                    } else if (pool == null) {
+                        transfer(file, attrs, resolve(target, cursor.getRelativePath()), result);
+                    } else {
+                        final Path destination = resolve(target, cursor.getRelativePath());
+                        tasks.add(pool.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    transfer(file, attrs, destination, result);
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            }
+                        }));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            // The walk's own failure is thrown, with those of any copies still running attached.
+            join(tasks, e);
+            throw e;
+        }
+        join(tasks, null);
+        return result;
+    }
+
+    /**
+     * Waits for all copies, even after a failure, so none are still writing once the copy returns. Failures of the tasks
+     * are added to {@code failure} when given, and otherwise the first is thrown with the others suppressed.
+     */
+    private static void join(List<ForkJoinTask<?>> tasks, Exception failure) throws IOException {
+        IOException first = null;
+        for (ForkJoinTask<?> task : tasks) {
+            try {
+                task.join();
+            } catch (UncheckedIOException e) {
+                if (failure != null) {
+                    failure.addSuppressed(e.getCause());
+                } else if (first == null) {
+                    first = e.getCause();
+                } else {
+                    first.addSuppressed(e.getCause());
+                }
+            }
+        }
+        if (first != null) throw first;
+    }
+
+    private boolean isProtected(String relativePath, boolean isDirectory) {
+        return protectedRules != null && !protectedRules.allowsPath(relativePath, isDirectory);
+    }
+
+    private static Path resolve(Path target, String relativePath) {
+        return relativePath.isEmpty() ? target : target.resolve(relativePath);
+    }
+
+    private static void transfer(Path file, BasicFileAttributes attrs, Path destination, Result result) throws IOException {
+        FileTime modified = attrs.lastModifiedTime();
+        if (Files.isRegularFile(destination, LinkOption.NOFOLLOW_LINKS)) {
+            BasicFileAttributes existing = Files.readAttributes(destination, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            // File systems differ in timestamp precision, so times are compared to the millisecond.
+            if (existing.size() == attrs.size() && existing.lastModifiedTime().toMillis() == modified.toMillis()) {
+                result.unchanged.incrementAndGet();
+                return;
+            }
+        }
+
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(destination, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, LinkOption.NOFOLLOW_LINKS)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        Files.setLastModifiedTime(destination, modified);
+        result.copied.incrementAndGet();
+    }
+
+    /**
+     * The outcome of {@link TreeCopy#copy(Path, Path)}.
+     */
+    public static final class Result {
+        private final AtomicInteger copied = new AtomicInteger();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private final AtomicInteger excluded = new AtomicInteger();
+        private final AtomicInteger protectedPaths = new AtomicInteger();
+
+        private Result() {
+        }
+
+        /**
+         * Gets the number of files written to the target.
+         *
+         * @return The number of files copied.
+         */
+        public int getCopied() {
+            return copied.get();
+        }
+
+        /**
+         * Gets the number of files skipped because the target has the same size and modification time.
+         *
+         * @return The number of unchanged files.
+         */
+        public int getUnchanged() {
+            return unchanged.get();
+        }
+
+        /**
+         * Gets the number of source files and directories excluded by the rules. The contents of an excluded directory
+         * aren't visited, and aren't counted.
+         *
+         * @return The number of excluded paths.
+         */
+        public int getExcluded() {
+            return excluded.get();
+        }
+
+        /**
+         * Gets the number of files and directories skipped because the target path is protected.
+         *
+         * @return The number of protected paths.
+         */
+        public int getProtected() {
+            return protectedPaths.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("copied=%d unchanged=%d excluded=%d protected=%d", getCopied(), getUnchanged(), getExcluded(), getProtected());
+        }
+    }
+
+    /**
+     * Builds a {@link TreeCopy}.
+     */
+    public static class Builder {
+        private final IgnoreProcessor rules;
+        private IgnoreProcessor protectedRules = null;
+        private ForkJoinPool pool = null;
+
+        /**
+         * Creates a builder for copying the paths allowed by {@code rules}.
+         *
+         * @param rules The rules of the source tree.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder(final IgnoreProcessor rules) {
+            this.rules = rules;
+        }
+
+        /**
+         * Sets the rules protecting paths of the target tree (none by default). A target path which these rules don't
+         * allow is never written.
+         *
+         * @param protectedRules The rules of the target tree, or {@code null} to protect nothing.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder setProtectedRules(final IgnoreProcessor protectedRules) {
+            this.protectedRules = protectedRules;
+            return this;
+        }
+
+        /**
+         * Sets the pool on which files are copied (none by default). The tree is always walked on the calling thread.
+         *
+         * @param pool The pool to copy on (e.g. {@link ForkJoinPool#commonPool()}), or {@code null} to copy sequentially.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder setPool(final ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Creates the {@link TreeCopy}.
+         *
+         * @return The tree copy.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public TreeCopy build() {
+            return new TreeCopy(rules, protectedRules, pool);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import us.jimschubert.iggy.rules.SegmentTrie;
+
+/**
+ * A position within the directory tree of an ignore file, created by {@link IgnoreProcessor#cursor()}.
+ * <p>
+ * A tree walker keeps the cursor of each directory, and resolves it for the directory's children:
+ * <pre>{@code
+ * TreeCursor dir = processor.cursor().resolve("src").resolve("main");
+ * for (String name : children) {
+ *     if (dir.resolve(name).allows(false)) { ... }
+ * }
+ * }</pre>
+ * Instances are immutable, and may be shared between threads.
+ */
+public final class TreeCursor {
+    private final IgnoreProcessor processor;
+    private final SegmentTrie.State state;
+    private final String relativePath;
+
+    TreeCursor(IgnoreProcessor processor, SegmentTrie.State state, String relativePath) {
+        this.processor = processor;
+        this.state = state;
+        this.relativePath = relativePath;
+    }
+
+    /**
+     * Moves the cursor to a child of the current path.
+     *
+     * @param name The name of the child, or a {@code /} delimited path relative to the current path.
+     * @return A cursor for the child.
+     */
+    public TreeCursor resolve(String name) {
+        String path = relativePath.isEmpty() ? name : relativePath + "/" + name;
+        return new TreeCursor(processor, state.resolve(name), path);
+    }
+
+    /**
+     * Determines whether or not the current path is allowed, under the exclusion rules from the ignore file being processed.
+     * The result is the same as {@link IgnoreProcessor#allowsPath(String, boolean)} for {@link TreeCursor#getRelativePath()}.
+     *
+     * @param isDirectory {@code true} if the current path is a directory, otherwise {@code false}.
+     * @return {@code false} if the path matches any pattern in the ignore file (disallowed), otherwise {@code true} (allowed).
+     */
+    public boolean allows(boolean isDirectory) {
+        if (relativePath.isEmpty()) return processor.allowsPath(relativePath, isDirectory);
+        return processor.allows(state, relativePath, isDirectory);
+    }
+
+    /**
+     * Gets the current path.
+     *
+     * @return The {@code /} delimited path relative to the directory containing the ignore file.
+     */
+    public String getRelativePath() {
+        return relativePath;
+    }
+}
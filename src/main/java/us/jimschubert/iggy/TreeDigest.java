@@ -0,0 +1,485 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes a deterministic, Merkle-style SHA-256 digest of the allowed files below a directory, such as a cache key for
+ * a generated tree.
+ * <p>
+ * The digest of a file is the digest of its content. The digest of a directory is the digest of its allowed children,
+ * ordered by name, each as a type ({@code f} or {@code d}), the length and UTF-8 bytes of its name, and its digest. Excluded
+ * paths don't contribute, and excluded directories are skipped without being walked. Empty directories do contribute, so
+ * the digest reflects the shape of the tree as well as the content of its files.
+ * <p>
+ * A {@link Result} holds the digest of every allowed file and directory, and can be persisted with
+ * {@link Result#write(OutputStream)}. When a previous result is given, a file with the same size and modification time
+ * as before is not read again, so only changed files and their ancestor directories are hashed. As in git's racy-clean
+ * check, this only applies to files last modified well before the previous result was taken: a file rewritten within one
+ * tick of its modification time would otherwise keep a stale digest.
+ * <pre>{@code
+ * TreeDigest.Result result = new TreeDigest.Builder(processor)
+ *         .setPrevious(previous)
+ *         .setPool(ForkJoinPool.commonPool())
+ *         .build()
+ *         .digest(root);
+ * String key = result.toString();
+ * }</pre>
+ * Only directories and regular files are included; symbolic links and other special files are skipped.
+ */
+public final class TreeDigest {
+    /**
+     * Files of at least this many bytes are memory-mapped rather than read.
+     */
+    static final long MAP_THRESHOLD = 1 << 20;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // The largest region of a file mapped at once.
+    private static final long MAP_REGION = 1 << 30;
+    // Results before IGD2 don't record when they were taken, so none of their files are reused.
+    private static final int FORMAT_V1 = 0x49474431; // IGD1
+    private static final int FORMAT = 0x49474432; // IGD2
+    // Modification times are trusted only when older than this, as a file can change again within one tick of its mtime.
+    private static final long RACY_MILLIS = 2000;
+
+    private final IgnoreProcessor rules;
+    private final Result previous;
+    private final ForkJoinPool pool;
+
+    private TreeDigest(IgnoreProcessor rules, Result previous, ForkJoinPool pool) {
+        this.rules = rules;
+        this.previous = previous;
+        this.pool = pool;
+    }
+
+    /**
+     * Computes the digest of the allowed files below {@code root}. Paths are evaluated relative to {@code root}.
+     *
+     * @param root The directory to digest.
+     * @return The digest of {@code root}, and of each allowed file and directory below it.
+     * @throws NotDirectoryException if {@code root} isn't a directory.
+     * @throws IOException if a directory or file can't be read.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public Result digest(final Path root) throws IOException {
+        if (!Files.isDirectory(root)) throw new NotDirectoryException(root.toString());
+
+        // Taken before any file is read, so a file changed while it's read is never trusted by the next digest.
+        final Result result = new Result(System.currentTimeMillis());
+        final Deque<TreeCursor> cursors = new ArrayDeque<>();
+        final Deque<Node> directories = new ArrayDeque<>();
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        final Node[] top = new Node[1];
+
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    TreeCursor cursor = cursors.isEmpty() ? rules.cursor() : cursors.peek().resolve(dir.getFileName().toString());
+                    if (!cursors.isEmpty() && !cursor.allows(true)) return FileVisitResult.SKIP_SUBTREE;
+
+                    Node node = new Node(cursor.getRelativePath(), name(dir, cursors.isEmpty()), true, 0, 0);
+                    if (directories.isEmpty()) {
+                        top[0] = node;
+                    } else {
+                        directories.peek().children.add(node);
+                    }
+                    cursors.push(cursor);
+                    directories.push(node);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    cursors.pop();
+                    directories.pop();
+                    return super.postVisitDirectory(dir, exc);
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, BasicFileAttributes attrs) throws IOException {
+                    if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+
+                    TreeCursor cursor = cursors.peek().resolve(file.getFileName().toString());
+                    if (!cursor.allows(false)) return FileVisitResult.CONTINUE;
+
+                    final Node node = new Node(cursor.getRelativePath(), name(file, false), false, attrs.size(),
+                            attrs.lastModifiedTime().toMillis());
+                    directories.peek().children.add(node);
+
+                    Entry before = previous == null ? null : previous.entries.get(node.path);
+                    if (before != null && !before.directory && before.size == node.size && before.modified == node.modified
+                            && previous.isTrusted(before)) {
+                        node.digest = before.digest;
+                        result.reused.incrementAndGet();
+                    } else if (pool == null) {
+                        node.digest = hash(file);
+                        result.hashed.incrementAndGet();
+                    } else {
+                        tasks.add(pool.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    node.digest = hash(file);
+                                    result.hashed.incrementAndGet();
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            }
+                        }));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            // The walk's own failure is thrown, with those of any files still being read attached.
+            join(tasks, e);
+            throw e;
+        }
+        join(tasks, null);
+
+        if (top[0] != null) combine(top[0], result);
+        return result;
+    }
+
+    /**
+     * Waits for all files, even after a failure, so none are still being read once the digest returns. Failures of the
+     * tasks are added to {@code failure} when given, and otherwise the first is thrown with the others suppressed.
+     */
+    private static void join(List<ForkJoinTask<?>> tasks, Exception failure) throws IOException {
+        IOException first = null;
+        for (ForkJoinTask<?> task : tasks) {
+            try {
+                task.join();
+            } catch (UncheckedIOException e) {
+                if (failure != null) {
+                    failure.addSuppressed(e.getCause());
+                } else if (first == null) {
+                    first = e.getCause();
+                } else {
+                    first.addSuppressed(e.getCause());
+                }
+            }
+        }
+        if (first != null) throw first;
+    }
+
+    private static String name(Path path, boolean isRoot) {
+        return isRoot ? "" : path.getFileName().toString();
+    }
+
+    /**
+     * Computes the digest of a directory from those of its children, and records each node in the result.
+     */
+    private static byte[] combine(Node node, Result result) {
+        if (node.directory) {
+            Collections.sort(node.children, BY_NAME);
+            MessageDigest digest = sha256();
+            for (Node child : node.children) {
+                byte[] childDigest = combine(child, result);
+                byte[] name = child.name.getBytes(StandardCharsets.UTF_8);
+                digest.update((byte) (child.directory ? 'd' : 'f'));
+                digest.update(new byte[]{(byte) (name.length >>> 24), (byte) (name.length >>> 16), (byte) (name.length >>> 8), (byte) name.length});
+                digest.update(name);
+                digest.update(childDigest);
+            }
+            node.digest = digest.digest();
+        }
+        result.entries.put(node.path, new Entry(node.directory, node.size, node.modified, node.digest));
+        return node.digest;
+    }
+
+    private static final Comparator<Node> BY_NAME = new Comparator<Node>() {
+        @Override
+        public int compare(Node a, Node b) {
+            return a.name.compareTo(b.name);
+        }
+    };
+
+    private static byte[] hash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                for (long position = 0; position < size; position += MAP_REGION) {
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_REGION, size - position)));
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(size, 1)));
+                while (channel.read(buffer) > 0 || buffer.position() > 0) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Node {
+        final String path;
+        final String name;
+        final boolean directory;
+        final long size;
+        final long modified;
+        final List<Node> children = new ArrayList<>();
+        // Written by at most one task, and read once all tasks are joined.
+        byte[] digest;
+
+        Node(String path, String name, boolean directory, long size, long modified) {
+            this.path = path;
+            this.name = name;
+            this.directory = directory;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    private static final class Entry {
+        final boolean directory;
+        final long size;
+        final long modified;
+        final byte[] digest;
+
+        Entry(boolean directory, long size, long modified, byte[] digest) {
+            this.directory = directory;
+            this.size = size;
+            this.modified = modified;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * The digests computed by {@link TreeDigest#digest(Path)}.
+     */
+    public static final class Result {
+        private final Map<String, Entry> entries = new HashMap<>();
+        private final AtomicInteger hashed = new AtomicInteger();
+        private final AtomicInteger reused = new AtomicInteger();
+        // When the digest began, or Long.MIN_VALUE if unknown.
+        private final long started;
+
+        private Result(long started) {
+            this.started = started;
+        }
+
+        /**
+         * Determines whether a file's digest can be reused when its size and modification time are unchanged: whether it
+         * was last modified long enough before this result was taken that a later change must show in its modification time.
+         */
+        private boolean isTrusted(Entry entry) {
+            return started != Long.MIN_VALUE && entry.modified <= started - RACY_MILLIS;
+        }
+
+        /**
+         * Gets the digest of the root directory.
+         *
+         * @return The SHA-256 digest of the tree.
+         */
+        public byte[] getDigest() {
+            return getDigest("");
+        }
+
+        /**
+         * Gets the digest of an allowed file or directory.
+         *
+         * @param relativePath The {@code /} delimited path relative to the root, or an empty string for the root.
+         * @return The SHA-256 digest, or {@code null} if the path wasn't found, or isn't allowed.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public byte[] getDigest(final String relativePath) {
+            Entry entry = entries.get(relativePath);
+            return entry == null ? null : entry.digest.clone();
+        }
+
+        /**
+         * Gets the number of files read to compute this result.
+         *
+         * @return The number of files hashed.
+         */
+        public int getHashed() {
+            return hashed.get();
+        }
+
+        /**
+         * Gets the number of files whose digest was taken from the previous result, without reading the file.
+         *
+         * @return The number of files reused.
+         */
+        public int getReused() {
+            return reused.get();
+        }
+
+        /**
+         * Writes this result, to be read by {@link Result#read(InputStream)} and given to {@link Builder#setPrevious(Result)}.
+         * The caller is responsible for closing {@code out}.
+         *
+         * @param out The stream to write to.
+         * @throws IOException if the stream can't be written.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public void write(final OutputStream out) throws IOException {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(FORMAT);
+            data.writeLong(started);
+            data.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                data.writeUTF(entry.getKey());
+                data.writeBoolean(value.directory);
+                data.writeLong(value.size);
+                data.writeLong(value.modified);
+                data.write(value.digest);
+            }
+            data.flush();
+        }
+
+        /**
+         * Reads a result written by {@link Result#write(OutputStream)}. The caller is responsible for closing {@code in}.
+         *
+         * @param in The stream to read from.
+         * @return The result.
+         * @throws IOException if the stream can't be read, or doesn't hold a result.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public static Result read(final InputStream in) throws IOException {
+            DataInputStream data = new DataInputStream(in);
+            int format = data.readInt();
+            if (format != FORMAT && format != FORMAT_V1) throw new IOException("Not a tree digest.");
+
+            Result result = new Result(format == FORMAT ? data.readLong() : Long.MIN_VALUE);
+            int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = data.readUTF();
+                boolean directory = data.readBoolean();
+                long size = data.readLong();
+                long modified = data.readLong();
+                byte[] digest = new byte[32];
+                data.readFully(digest);
+                result.entries.put(path, new Entry(directory, size, modified, digest));
+            }
+            return result;
+        }
+
+        /**
+         * Gets the digest of the root directory as lowercase hexadecimal.
+         *
+         * @return The hexadecimal digest, or an empty string if the root wasn't found.
+         */
+        @Override
+        public String toString() {
+            Entry root = entries.get("");
+            if (root == null) return "";
+
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : root.digest) sb.append(String.format("%02x", b & 0xff));
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Builds a {@link TreeDigest}.
+     */
+    public static class Builder {
+        private final IgnoreProcessor rules;
+        private Result previous = null;
+        private ForkJoinPool pool = null;
+
+        /**
+         * Creates a builder for a digest of the paths allowed by {@code rules}.
+         *
+         * @param rules The rules of the tree.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder(final IgnoreProcessor rules) {
+            this.rules = rules;
+        }
+
+        /**
+         * Sets the result of a previous digest of the same tree (none by default). Files with the same size and
+         * modification time as in that result aren't read.
+         *
+         * @param previous The previous result, or {@code null} to read every file.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder setPrevious(final Result previous) {
+            this.previous = previous;
+            return this;
+        }
+
+        /**
+         * Sets the pool on which files are hashed (none by default). The tree is always walked on the calling thread.
+         *
+         * @param pool The pool to hash on (e.g. {@link ForkJoinPool#commonPool()}), or {@code null} to hash sequentially.
+         * @return This builder.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public Builder setPool(final ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Creates the {@link TreeDigest}.
+         *
+         * @return The tree digest.
+         */
+        @SuppressWarnings("WeakerAccess")
+        public TreeDigest build() {
+            return new TreeDigest(rules, previous, pool);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * An Aho-Corasick automaton which finds every occurrence of a fixed set of keywords in a single pass over the input.
+ * <p>
+ * Transitions are kept in one open-addressed table keyed by state and character, so the automaton is compact
+ * regardless of the size of the alphabet.
+ */
+final class AhoCorasick {
+    private static final int ROOT = 0;
+    private static final long EMPTY = -1L;
+
+    private final long[] keys;
+    private final int[] targets;
+    private final int mask;
+
+    private final int[] failure;
+    private final int[][] outputs;
+
+    /**
+     * Constructs the automaton.
+     *
+     * @param keywords The keywords to find. Empty keywords are ignored.
+     */
+    AhoCorasick(List<String> keywords) {
+        this(keywords, null);
+    }
+
+    /**
+     * Constructs an automaton which reports values for each keyword found, rather than the keyword's index.
+     *
+     * @param keywords The keywords to find. Empty keywords are ignored.
+     * @param values   The values reported for each keyword (e.g. the rules requiring it), or {@code null} for its index.
+     */
+    AhoCorasick(List<String> keywords, int[][] values) {
+        int capacity = 16;
+        int characters = 0;
+        for (String keyword : keywords) characters += keyword.length();
+        while (capacity < characters * 2) capacity <<= 1;
+        keys = new long[capacity];
+        targets = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+
+        // goto function
+        List<List<Integer>> found = new ArrayList<>();
+        found.add(new ArrayList<Integer>());
+        int states = 1;
+        for (int k = 0; k < keywords.size(); k++) {
+            String keyword = keywords.get(k);
+            if (keyword.isEmpty()) continue;
+            int state = ROOT;
+            for (int i = 0; i < keyword.length(); i++) {
+                int next = get(state, keyword.charAt(i));
+                if (next < 0) {
+                    next = states++;
+                    found.add(new ArrayList<Integer>());
+                    put(state, keyword.charAt(i), next);
+                }
+                state = next;
+            }
+            if (values == null) {
+                found.get(state).add(k);
+            } else {
+                for (int value : values[k]) found.get(state).add(value);
+            }
+        }
+
+        // failure function, breadth first so that every failure target is complete before it is used.
+        failure = new int[states];
+        outputs = new int[states][];
+        List<List<int[]>> children = new ArrayList<>(states);
+        for (int i = 0; i < states; i++) children.add(new ArrayList<int[]>());
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] == EMPTY) continue;
+            int parent = (int) (keys[slot] >>> 16);
+            char c = (char) (keys[slot] & 0xFFFF);
+            children.get(parent).add(new int[]{c, targets[slot]});
+        }
+
+        Deque<Integer> queue = new ArrayDeque<>();
+        outputs[ROOT] = new int[0];
+        for (int[] edge : children.get(ROOT)) {
+            failure[edge[1]] = ROOT;
+            queue.add(edge[1]);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            outputs[state] = merge(found.get(state), outputs[failure[state]]);
+            for (int[] edge : children.get(state)) {
+                int child = edge[1];
+                char c = (char) edge[0];
+                int fallback = failure[state];
+                while (fallback != ROOT && get(fallback, c) < 0) fallback = failure[fallback];
+                int target = get(fallback, c);
+                failure[child] = target >= 0 && target != child ? target : ROOT;
+                queue.add(child);
+            }
+        }
+    }
+
+    private static int[] merge(List<Integer> own, int[] inherited) {
+        int[] result = new int[own.size() + inherited.length];
+        for (int i = 0; i < own.size(); i++) result[i] = own.get(i);
+        System.arraycopy(inherited, 0, result, own.size(), inherited.length);
+        return result;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int get(int state, char c) {
+        long key = ((long) state << 16) | c;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long current = keys[slot];
+            if (current == key) return targets[slot];
+            if (current == EMPTY) return -1;
+        }
+    }
+
+    private void put(int state, char c, int target) {
+        long key = ((long) state << 16) | c;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) slot = (slot + 1) & mask;
+        keys[slot] = key;
+        targets[slot] = target;
+    }
+
+    /**
+     * Scans {@code text} for every keyword.
+     *
+     * @param text    The text to scan.
+     * @param matched Receives the index (or values) of every keyword found in {@code text}.
+     */
+    void scan(CharSequence text, BitSet matched) {
+        int state = ROOT;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            int next;
+            while ((next = get(state, c)) < 0 && state != ROOT) state = failure[state];
+            state = next < 0 ? ROOT : next;
+            int[] found = outputs[state];
+            for (int k = 0; k < found.length; k++) matched.set(found[k]);
+        }
+    }
+}
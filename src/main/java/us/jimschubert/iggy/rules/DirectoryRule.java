@@ -17,8 +17,8 @@
 
 package us.jimschubert.iggy.rules;
 
-import java.nio.file.FileSystems;
-import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -28,8 +28,8 @@ import java.util.List;
  */
 public class DirectoryRule extends FileRule {
 
-    private PathMatcher directoryMatcher = null;
-    private PathMatcher contentsMatcher = null;
+    // NOTE: Not volatile; see FileRule. Matchers holds only final fields, so a racy read sees it fully initialized.
+    private Matchers matchers = null;
 
     /**
      * Constructs a new instance of a {@link DirectoryRule}.
@@ -38,15 +38,48 @@ public class DirectoryRule extends FileRule {
      * @param definition The original definition.
      */
     DirectoryRule(List<Part> syntax, String definition) {
-        super(syntax, definition);
-        String pattern = this.getPattern();
-        StringBuilder sb = new StringBuilder();
-        sb.append("glob:");
-        sb.append(pattern);
-        if (!pattern.endsWith("/")) sb.append("/");
-        directoryMatcher = FileSystems.getDefault().getPathMatcher(sb.toString());
-        sb.append("**");
-        contentsMatcher = FileSystems.getDefault().getPathMatcher(sb.toString());
+        this(syntax, definition, false);
+    }
+
+    /**
+     * Constructs a new instance of a {@link DirectoryRule}.
+     *
+     * @param syntax     The syntax as parsed from the original definition.
+     * @param definition The original definition.
+     * @param lazy       {@code true} to build the matchers when the first path is evaluated, rather than now.
+     */
+    DirectoryRule(List<Part> syntax, String definition, boolean lazy) {
+        // The file matcher of the base class is never used, so it's never built.
+        super(syntax, definition, true);
+        if (!lazy) matchers = new Matchers(syntax, this.getPattern());
+    }
+
+    private Matchers matchers() {
+        Matchers result = matchers;
+        if (result == null) {
+            matchers = result = new Matchers(getSyntax(), getPattern());
+        }
+        return result;
+    }
+
+    /**
+     * Removes the trailing separator from the syntax of a directory pattern, leaving the syntax of the directory's path.
+     */
+    static List<Part> directorySyntax(List<Part> syntax) {
+        if (syntax == null) return null;
+        List<Part> result = new ArrayList<>(syntax);
+        IgnoreLineParser.Token last = result.isEmpty() ? null : result.get(result.size() - 1).getToken();
+        if (IgnoreLineParser.Token.DIRECTORY_MARKER.equals(last) || IgnoreLineParser.Token.PATH_DELIM.equals(last)) {
+            result.remove(result.size() - 1);
+        }
+        return result;
+    }
+
+    private static List<Part> append(List<Part> syntax, Part... parts) {
+        if (syntax == null) return null;
+        List<Part> result = new ArrayList<>(syntax);
+        result.addAll(Arrays.asList(parts));
+        return result;
     }
 
     /**
@@ -57,6 +90,43 @@ public class DirectoryRule extends FileRule {
      */
     @Override
     public Boolean matches(String relativePath) {
-        return contentsMatcher.matches(FileSystems.getDefault().getPath(relativePath)) || directoryMatcher.matches(FileSystems.getDefault().getPath(relativePath));
+        Matchers matchers = matchers();
+        return matchers.contents.matches(relativePath) || matchers.directory.matches(relativePath);
+    }
+
+    /**
+     * The constraints for inclusion or exclusion defined by the {@link DirectoryRule}, given a hint as to whether the path is a directory.
+     * <p>
+     * Unlike {@link DirectoryRule#matches(String)}, this will match the directory itself (e.g. {@code foo/} matches the directory {@code foo}),
+     * but never a regular file of the same name.
+     *
+     * @param relativePath The path relative to the ignore file to evaluate against the rules included in that ignore file.
+     * @param isDirectory  {@code true} if {@code relativePath} refers to a directory, otherwise {@code false}.
+     * @return {@code true} if the rule matches for exclusion, otherwise {@code false}.
+     */
+    @Override
+    public Boolean matches(String relativePath, boolean isDirectory) {
+        Matchers matchers = matchers();
+        return matchers.contents.matches(relativePath) || (isDirectory ? matchers.directoryName.matches(relativePath) : matchers.directory.matches(relativePath));
+    }
+
+    private static final class Matchers {
+        final PatternMatcher directory;
+        final PatternMatcher directoryName;
+        final PatternMatcher contents;
+
+        Matchers(List<Part> syntax, String pattern) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(pattern);
+            if (!pattern.endsWith("/")) sb.append("/");
+
+            List<Part> directorySyntax = directorySyntax(syntax);
+
+            // A directory path carries no trailing slash, so the directory itself is matched by the pattern without one.
+            directoryName = PatternMatcher.compile(directorySyntax, sb.substring(0, sb.length() - 1));
+            directory = PatternMatcher.compile(append(directorySyntax, new Part(IgnoreLineParser.Token.PATH_DELIM)), sb.toString());
+            sb.append("**");
+            contents = PatternMatcher.compile(append(directorySyntax, new Part(IgnoreLineParser.Token.PATH_DELIM), new Part(IgnoreLineParser.Token.MATCH_ALL)), sb.toString());
+        }
     }
 }
\ No newline at end of file
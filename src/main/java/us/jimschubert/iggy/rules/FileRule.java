@@ -17,16 +17,19 @@
 
 package us.jimschubert.iggy.rules;
 
-import java.nio.file.FileSystems;
-import java.nio.file.PathMatcher;
 import java.util.List;
 
 /**
  * Defines how files are processed for exclusion and inclusion rules.
+ * <p>
+ * A lazily compiled rule validates its pattern when constructed, but defers building the matcher until the first path
+ * is evaluated. Initialization is racy but benign: matchers are immutable, so threads which race to build one each
+ * build an equivalent matcher, and any of them may be kept.
  */
 public class FileRule extends Rule {
 
-    private PathMatcher matcher = null;
+    // NOTE: Not volatile. PatternMatcher has only final fields, so an instance read through a data race is fully initialized.
+    private PatternMatcher matcher = null;
 
     /**
      * Constructs a new instance of a {@link FileRule}.
@@ -35,8 +38,31 @@ public class FileRule extends Rule {
      * @param definition The original definition.
      */
     FileRule(List<Part> syntax, String definition) {
+        this(syntax, definition, false);
+    }
+
+    /**
+     * Constructs a new instance of a {@link FileRule}.
+     *
+     * @param syntax     The syntax as parsed from the original definition.
+     * @param definition The original definition.
+     * @param lazy       {@code true} to build the matcher when the first path is evaluated, rather than now.
+     */
+    FileRule(List<Part> syntax, String definition, boolean lazy) {
         super(syntax, definition);
-        matcher = FileSystems.getDefault().getPathMatcher("glob:" + this.getPattern());
+        if (lazy) {
+            PatternMatcher.validate(syntax, this.getPattern());
+        } else {
+            matcher = PatternMatcher.compile(syntax, this.getPattern());
+        }
+    }
+
+    private PatternMatcher matcher() {
+        PatternMatcher result = matcher;
+        if (result == null) {
+            matcher = result = PatternMatcher.compile(getSyntax(), getPattern());
+        }
+        return result;
     }
 
     /**
@@ -47,6 +73,6 @@ public class FileRule extends Rule {
      */
     @Override
     public Boolean matches(String relativePath) {
-        return matcher.matches(FileSystems.getDefault().getPath(relativePath));
+        return matcher().matches(relativePath);
     }
 }
\ No newline at end of file
@@ -0,0 +1,236 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The Flight Recorder events behind {@link Telemetry}.
+ * <p>
+ * The events are defined at runtime with {@code jdk.jfr.EventFactory}, and all of {@code jdk.jfr} is reached through
+ * method handles, so building iggy doesn't need a JDK which ships Flight Recorder. This class must only be loaded once
+ * {@link Telemetry} has found {@code jdk.jfr}; otherwise its initialization fails with a {@link LinkageError}.
+ */
+final class FlightEvents {
+    private static final MethodHandle BEGIN;
+    private static final MethodHandle END;
+    private static final MethodHandle COMMIT;
+    private static final MethodHandle IS_ENABLED;
+    private static final MethodHandle SHOULD_COMMIT;
+    private static final MethodHandle SET;
+
+    private static final MethodHandle NEW_LOAD;
+    private static final MethodHandle NEW_COMPILE;
+    private static final MethodHandle NEW_EVALUATION;
+
+    // Event#isEnabled() reads the enabled setting of the event's type, so one instance of each serves as a probe.
+    private static final Object LOAD;
+    private static final Object COMPILE;
+    private static final Object EVALUATION;
+
+    static {
+        try {
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            BEGIN = eventMethod(event, "begin", void.class);
+            END = eventMethod(event, "end", void.class);
+            COMMIT = eventMethod(event, "commit", void.class);
+            IS_ENABLED = eventMethod(event, "isEnabled", boolean.class);
+            SHOULD_COMMIT = eventMethod(event, "shouldCommit", boolean.class);
+            SET = eventMethod(event, "set", void.class, int.class, Object.class);
+
+            // Fields are set by index, in the order given here.
+            NEW_LOAD = define(event,
+                    Arrays.asList(annotation("Name", "us.jimschubert.iggy.Load"), annotation("Label", "Ignore Source Load"),
+                            annotation("Category", new String[]{"iggy"}),
+                            annotation("Description", "Rules were loaded from an ignore file or other source")),
+                    field(String.class, "source", "Source"),
+                    field(int.class, "lines", "Lines"),
+                    field(int.class, "rules", "Rules"));
+            NEW_COMPILE = define(event,
+                    Arrays.asList(annotation("Name", "us.jimschubert.iggy.Compile"), annotation("Label", "Pattern Compilation"),
+                            annotation("Category", new String[]{"iggy"}),
+                            annotation("Description", "A matcher was built for a pattern"), annotation("Threshold", "100 us")),
+                    field(String.class, "kind", "Kind"),
+                    field(String.class, "pattern", "Pattern"),
+                    field(boolean.class, "linear", "Linear", annotation("Description", "Whether the matcher runs in time linear in the length of the path")));
+            NEW_EVALUATION = define(event,
+                    Arrays.asList(annotation("Name", "us.jimschubert.iggy.Evaluation"), annotation("Label", "Path Evaluation"),
+                            annotation("Category", new String[]{"iggy"}),
+                            annotation("Description", "A path was evaluated against the rules of an ignore processor"),
+                            annotation("Threshold", "1 ms")),
+                    field(String.class, "path", "Path"),
+                    field(boolean.class, "directory", "Directory"),
+                    field(int.class, "rulesTested", "Rules Tested"),
+                    field(String.class, "decidedBy", "Deciding Rule"),
+                    field(String.class, "source", "Deciding Source"),
+                    field(int.class, "lineNumber", "Deciding Line"));
+
+            LOAD = (Object) NEW_LOAD.invokeExact();
+            COMPILE = (Object) NEW_COMPILE.invokeExact();
+            EVALUATION = (Object) NEW_EVALUATION.invokeExact();
+        } catch (Throwable e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private FlightEvents() {
+    }
+
+    /**
+     * Finds a method of {@code jdk.jfr.Event}, taking the event as an {@link Object}.
+     */
+    private static MethodHandle eventMethod(Class<?> event, String name, Class<?> returnType, Class<?>... parameterTypes) throws ReflectiveOperationException {
+        MethodHandle method = MethodHandles.publicLookup().findVirtual(event, name, MethodType.methodType(returnType, parameterTypes));
+        return method.asType(method.type().changeParameterType(0, Object.class));
+    }
+
+    /**
+     * Creates a {@code jdk.jfr.AnnotationElement} for one of the annotations in {@code jdk.jfr}.
+     */
+    private static Object annotation(String name, Object value) throws ReflectiveOperationException {
+        return Class.forName("jdk.jfr.AnnotationElement")
+                .getConstructor(Class.class, Object.class)
+                .newInstance(Class.forName("jdk.jfr." + name), value);
+    }
+
+    /**
+     * Creates a {@code jdk.jfr.ValueDescriptor} for a field of an event.
+     */
+    private static Object field(Class<?> type, String name, String label, Object... annotations) throws ReflectiveOperationException {
+        Object[] all = Arrays.copyOf(annotations, annotations.length + 1);
+        all[annotations.length] = annotation("Label", label);
+        return Class.forName("jdk.jfr.ValueDescriptor")
+                .getConstructor(Class.class, String.class, List.class)
+                .newInstance(type, name, Arrays.asList(all));
+    }
+
+    /**
+     * Defines and registers an event type.
+     *
+     * @return A handle creating an event of the type.
+     */
+    private static MethodHandle define(Class<?> event, List<Object> annotations, Object... fields) throws ReflectiveOperationException {
+        Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+        Object factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, Arrays.asList(fields));
+        return MethodHandles.publicLookup()
+                .findVirtual(factoryClass, "newEvent", MethodType.methodType(event))
+                .bindTo(factory)
+                .asType(MethodType.methodType(Object.class));
+    }
+
+    /**
+     * Loads this class, which fails with a {@link LinkageError} if the events can't be defined.
+     *
+     * @return {@code true}
+     */
+    static boolean initialize() {
+        return LOAD != null && COMPILE != null && EVALUATION != null;
+    }
+
+    static Object beginLoad() {
+        try {
+            if (!(boolean) IS_ENABLED.invokeExact(LOAD)) return null;
+            Object event = (Object) NEW_LOAD.invokeExact();
+            BEGIN.invokeExact(event);
+            return event;
+        } catch (Throwable e) {
+            throw unchecked(e);
+        }
+    }
+
+    static void endLoad(Object event, String source, int lines, int rules) {
+        try {
+            END.invokeExact(event);
+            if ((boolean) SHOULD_COMMIT.invokeExact(event)) {
+                SET.invokeExact(event, 0, (Object) source);
+                SET.invokeExact(event, 1, (Object) lines);
+                SET.invokeExact(event, 2, (Object) rules);
+                COMMIT.invokeExact(event);
+            }
+        } catch (Throwable e) {
+            throw unchecked(e);
+        }
+    }
+
+    static Object beginCompile() {
+        try {
+            if (!(boolean) IS_ENABLED.invokeExact(COMPILE)) return null;
+            Object event = (Object) NEW_COMPILE.invokeExact();
+            BEGIN.invokeExact(event);
+            return event;
+        } catch (Throwable e) {
+            throw unchecked(e);
+        }
+    }
+
+    static void endCompile(Object event, String kind, String pattern, boolean linear) {
+        try {
+            END.invokeExact(event);
+            if ((boolean) SHOULD_COMMIT.invokeExact(event)) {
+                SET.invokeExact(event, 0, (Object) kind);
+                SET.invokeExact(event, 1, (Object) pattern);
+                SET.invokeExact(event, 2, (Object) linear);
+                COMMIT.invokeExact(event);
+            }
+        } catch (Throwable e) {
+            throw unchecked(e);
+        }
+    }
+
+    static Object beginEvaluation() {
+        try {
+            if (!(boolean) IS_ENABLED.invokeExact(EVALUATION)) return null;
+            Object event = (Object) NEW_EVALUATION.invokeExact();
+            BEGIN.invokeExact(event);
+            return event;
+        } catch (Throwable e) {
+            throw unchecked(e);
+        }
+    }
+
+    static void endEvaluation(Object event, String path, boolean isDirectory, int tested, Rule decidedBy) {
+        try {
+            END.invokeExact(event);
+            if ((boolean) SHOULD_COMMIT.invokeExact(event)) {
+                SET.invokeExact(event, 0, (Object) path);
+                SET.invokeExact(event, 1, (Object) isDirectory);
+                SET.invokeExact(event, 2, (Object) tested);
+                if (decidedBy != null) {
+                    SET.invokeExact(event, 3, (Object) decidedBy.getDefinition());
+                    SET.invokeExact(event, 4, (Object) decidedBy.getSource());
+                    SET.invokeExact(event, 5, (Object) decidedBy.getLineNumber());
+                }
+                COMMIT.invokeExact(event);
+            }
+        } catch (Throwable e) {
+            throw unchecked(e);
+        }
+    }
+
+    /**
+     * Rethrows what an event's method threw; none of them declare checked exceptions.
+     */
+    private static RuntimeException unchecked(Throwable e) {
+        if (e instanceof RuntimeException) return (RuntimeException) e;
+        if (e instanceof Error) throw (Error) e;
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,514 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches a glob without backtracking, in time linear in the length of the path.
+ * <p>
+ * The glob is compiled to a position (Glushkov) automaton, with one position per literal, class or wildcard, and the
+ * set of active positions is advanced once per character of the path. Sets which are reached are cached as the states
+ * of a lazily built DFA, up to {@link #MAX_DFA_STATES}; beyond that, transitions are computed without caching. A path of
+ * {@code n} characters is matched in {@code O(n)} time once the cache is warm, and {@code O(n·m²/64)} time at worst for
+ * a glob of {@code m} positions, regardless of the shape of the glob.
+ * <p>
+ * Results are identical to a {@link java.nio.file.PathMatcher} glob on the default (unix) file system, and invalid globs
+ * are rejected with the exception the file system raises for them.
+ * The automaton is immutable apart from its cache, and is safe for use by multiple threads.
+ */
+final class GlobAutomaton {
+    /**
+     * The maximum number of positions a glob may compile to.
+     */
+    static final int MAX_POSITIONS = 1024;
+    private static final int MAX_DFA_STATES = 64;
+    private static final int ASCII = 128;
+
+    private static final byte LITERAL = 0;
+    private static final byte CLASS = 1;
+    private static final byte NOT_SLASH = 2;
+    private static final byte ANY = 3;
+
+    private final int words;
+    private final byte[] kinds;
+    private final int[] literals;
+    private final int[][] ranges;
+    private final boolean[] negated;
+    private final long[][] follow;
+    private final long[] last;
+    private final State start;
+    private final State dead;
+    private final ConcurrentMap<Key, State> states = new ConcurrentHashMap<>();
+
+    private GlobAutomaton(Syntax syntax) {
+        int size = syntax.positions.size();
+        this.words = Math.max(1, (size + 63) >>> 6);
+        this.kinds = new byte[size];
+        this.literals = new int[size];
+        this.ranges = new int[size][];
+        this.negated = new boolean[size];
+        for (int p = 0; p < size; p++) {
+            Leaf leaf = syntax.positions.get(p);
+            kinds[p] = leaf.kind;
+            literals[p] = leaf.literal;
+            ranges[p] = leaf.ranges;
+            negated[p] = leaf.negated;
+        }
+
+        this.follow = new long[size][words];
+        Fragment fragment = sequence(syntax.nodes);
+        this.last = fragment.last;
+
+        this.dead = new State(new long[words], false, false);
+        this.start = new State(fragment.first, fragment.nullable, true);
+    }
+
+    /**
+     * Compiles a glob.
+     *
+     * @param glob The glob pattern, without the {@code glob:} prefix.
+     * @return The automaton.
+     * @throws PatternSyntaxException if the glob is invalid.
+     */
+    static GlobAutomaton compile(String glob) {
+        return new GlobAutomaton(parse(glob));
+    }
+
+    /**
+     * Builds the automaton for a parsed glob.
+     *
+     * @param syntax The glob, as parsed by {@link GlobAutomaton#parse(String)}.
+     * @return The automaton.
+     */
+    static GlobAutomaton compile(Syntax syntax) {
+        return new GlobAutomaton(syntax);
+    }
+
+    /**
+     * Parses a glob, without building its automaton.
+     *
+     * @param glob The glob pattern, without the {@code glob:} prefix.
+     * @return The parsed glob.
+     * @throws PatternSyntaxException if the glob is invalid.
+     */
+    static Syntax parse(String glob) {
+        return new Parser(glob).parse();
+    }
+
+    /**
+     * Evaluates a path against the glob.
+     *
+     * @param path The path, normalized as by {@link PatternMatcher#normalize(String)}.
+     * @return {@code true} if the entire path matches the glob.
+     */
+    boolean matches(CharSequence path) {
+        State state = start;
+        for (int i = 0, length = path.length(); i < length; ) {
+            int c = path.charAt(i++);
+            if (Character.isHighSurrogate((char) c) && i < length && Character.isLowSurrogate(path.charAt(i))) {
+                c = Character.toCodePoint((char) c, path.charAt(i++));
+            }
+            state = step(state, c);
+            if (state == dead) return false;
+        }
+        return state.accepting;
+    }
+
+    private State step(State state, int c) {
+        if (c < ASCII && state.cached) {
+            State next = state.next[c];
+            if (next != null) return next;
+        }
+
+        long[] set = new long[words];
+        boolean empty = true;
+        for (int w = 0; w < words; w++) {
+            for (long bits = state.follow[w]; bits != 0; bits &= bits - 1) {
+                int p = (w << 6) + Long.numberOfTrailingZeros(bits);
+                if (accepts(p, c)) {
+                    set[w] |= 1L << p;
+                    empty = false;
+                }
+            }
+        }
+
+        State next = empty ? dead : intern(set);
+        // NOTE: A racy write. States are immutable apart from this cache, so a reader sees either null or a complete state.
+        if (c < ASCII && state.cached && next.cached) state.next[c] = next;
+        return next;
+    }
+
+    private State intern(long[] set) {
+        Key key = new Key(set);
+        State state = states.get(key);
+        if (state != null) return state;
+
+        boolean accepting = false;
+        long[] reachable = new long[words];
+        for (int w = 0; w < words; w++) {
+            if ((set[w] & last[w]) != 0) accepting = true;
+            for (long bits = set[w]; bits != 0; bits &= bits - 1) {
+                long[] next = follow[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                for (int v = 0; v < words; v++) reachable[v] |= next[v];
+            }
+        }
+
+        if (states.size() >= MAX_DFA_STATES) return new State(reachable, accepting, false);
+        State created = new State(reachable, accepting, true);
+        State existing = states.putIfAbsent(key, created);
+        return existing != null ? existing : created;
+    }
+
+    private boolean accepts(int p, int c) {
+        switch (kinds[p]) {
+            case LITERAL:
+                return literals[p] == c;
+            case NOT_SLASH:
+                return c != '/';
+            case ANY:
+                // ** translates to '.', which doesn't match line terminators.
+                return c != '\n' && c != '\r' && c != 0x85 && c != 0x2028 && c != 0x2029;
+            default:
+                if (c == '/') return false;
+                int[] bounds = ranges[p];
+                boolean found = false;
+                for (int i = 0; i < bounds.length && !found; i += 2) found = c >= bounds[i] && c <= bounds[i + 1];
+                return found != negated[p];
+        }
+    }
+
+    private Fragment sequence(List<Object> nodes) {
+        Fragment result = new Fragment(new long[words], new long[words], true);
+        for (Object node : nodes) {
+            Fragment next = node instanceof Leaf ? leaf((Leaf) node) : group(node);
+            for (int w = 0; w < words; w++) {
+                for (long bits = result.last[w]; bits != 0; bits &= bits - 1) {
+                    or(follow[(w << 6) + Long.numberOfTrailingZeros(bits)], next.first);
+                }
+            }
+            long[] first = result.first.clone();
+            if (result.nullable) or(first, next.first);
+            long[] last = next.last.clone();
+            if (next.nullable) or(last, result.last);
+            result = new Fragment(first, last, result.nullable && next.nullable);
+        }
+        return result;
+    }
+
+    private Fragment leaf(Leaf leaf) {
+        long[] position = new long[words];
+        position[leaf.position >>> 6] |= 1L << leaf.position;
+        if (leaf.star) or(follow[leaf.position], position);
+        return new Fragment(position, position.clone(), leaf.star);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Fragment group(Object node) {
+        Fragment result = new Fragment(new long[words], new long[words], false);
+        for (List<Object> alternative : (List<List<Object>>) node) {
+            Fragment next = sequence(alternative);
+            or(result.first, next.first);
+            or(result.last, next.last);
+            result = new Fragment(result.first, result.last, result.nullable || next.nullable);
+        }
+        return result;
+    }
+
+    private static void or(long[] target, long[] source) {
+        for (int w = 0; w < target.length; w++) target[w] |= source[w];
+    }
+
+    /**
+     * A parsed glob: a sequence of {@link Leaf} positions and groups, where a group is a list of alternative sequences.
+     */
+    static final class Syntax {
+        private final List<Object> nodes;
+        private final List<Leaf> positions;
+        private final int degree;
+        private final boolean supported;
+
+        private Syntax(List<Object> nodes, List<Leaf> positions, int degree, boolean supported) {
+            this.nodes = nodes;
+            this.positions = positions;
+            this.degree = degree;
+            this.supported = supported;
+        }
+
+        /**
+         * Determines whether the automaton matches exactly as {@link java.nio.file.PathMatcher} would.
+         * <p>
+         * An empty class ({@code []} or {@code [!]}) translates to a regular expression in which the following {@code ]}
+         * is read as a member of the class, rather than the end of it. Likewise, a range ending in {@code [}, {@code \}
+         * or {@code &&} is read as regular expression syntax. Such globs aren't supported.
+         *
+         * @return {@code false} if the glob contains an empty class, or a range ending in regular expression syntax.
+         */
+        boolean isSupported() {
+            return supported;
+        }
+
+        /**
+         * Gets the number of positions the glob compiles to.
+         *
+         * @return The number of literals, classes and wildcards in the glob.
+         */
+        int getPositions() {
+            return positions.size();
+        }
+
+        /**
+         * Gets the number of wildcards which a backtracking matcher may have to retry in combination.
+         * <p>
+         * A regular expression translated from a glob with {@code k} such wildcards can take {@code O(n^k)} time for a
+         * path of length {@code n}, e.g. {@code *a*a*a*b} against a long run of {@code a}.
+         *
+         * @return The number of wildcards in sequence, counting only the most of any alternative within a group.
+         */
+        int getDegree() {
+            return degree;
+        }
+    }
+
+    private static final class Leaf {
+        final int position;
+        final byte kind;
+        final boolean star;
+        final int literal;
+        final int[] ranges;
+        final boolean negated;
+
+        Leaf(int position, byte kind, boolean star, int literal, int[] ranges, boolean negated) {
+            this.position = position;
+            this.kind = kind;
+            this.star = star;
+            this.literal = literal;
+            this.ranges = ranges;
+            this.negated = negated;
+        }
+    }
+
+    private static final class Fragment {
+        final long[] first;
+        final long[] last;
+        final boolean nullable;
+
+        Fragment(long[] first, long[] last, boolean nullable) {
+            this.first = first;
+            this.last = last;
+            this.nullable = nullable;
+        }
+    }
+
+    private static final class State {
+        final long[] follow;
+        final boolean accepting;
+        final boolean cached;
+        final State[] next;
+
+        State(long[] follow, boolean accepting, boolean cached) {
+            this.follow = follow;
+            this.accepting = accepting;
+            this.cached = cached;
+            this.next = cached ? new State[ASCII] : null;
+        }
+    }
+
+    private static final class Key {
+        private final long[] set;
+        private final int hash;
+
+        Key(long[] set) {
+            this.set = set;
+            this.hash = Arrays.hashCode(set);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(set, ((Key) o).set);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Reads a glob into its positions and groups. Only the structure of a valid glob is recognized here: a glob which the
+     * default file system's {@link java.nio.file.PathMatcher} rejects is reported with the exception it raises.
+     */
+    private static final class Parser {
+        private static final int EOL = -1;
+
+        private final String glob;
+        private final List<Leaf> positions = new ArrayList<>();
+        private int i = 0;
+        private boolean supported = true;
+
+        Parser(String glob) {
+            this.glob = glob;
+        }
+
+        private int peek() {
+            return i < glob.length() ? glob.codePointAt(i) : EOL;
+        }
+
+        private int read() {
+            int c = glob.codePointAt(i);
+            i += Character.charCount(c);
+            return c;
+        }
+
+        private Leaf add(byte kind, boolean star, int literal, int[] ranges, boolean negated) {
+            Leaf leaf = new Leaf(positions.size(), kind, star, literal, ranges, negated);
+            positions.add(leaf);
+            return leaf;
+        }
+
+        private PatternSyntaxException invalid() {
+            try {
+                FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            } catch (PatternSyntaxException e) {
+                return e;
+            }
+            return new PatternSyntaxException("Invalid glob", glob, i);
+        }
+
+        Syntax parse() {
+            List<Object> nodes = new ArrayList<>();
+            int degree = 0;
+            while (i < glob.length()) {
+                if (peek() == '{') {
+                    read();
+                    int[] widest = new int[1];
+                    nodes.add(group(widest));
+                    degree += widest[0];
+                } else {
+                    Leaf leaf = element();
+                    nodes.add(leaf);
+                    if (leaf.star) degree++;
+                }
+            }
+            return new Syntax(nodes, positions, degree, supported);
+        }
+
+        // Reads the alternatives of a group up to its closing brace. Outside of a group, ',' and '}' are literals.
+        private List<List<Object>> group(int[] widest) {
+            List<List<Object>> alternatives = new ArrayList<>();
+            List<Object> alternative = new ArrayList<>();
+            int stars = 0;
+            while (true) {
+                int c = peek();
+                if (c == EOL || c == '{') throw invalid();
+                if (c == ',' || c == '}') {
+                    read();
+                    alternatives.add(alternative);
+                    widest[0] = Math.max(widest[0], stars);
+                    if (c == '}') return alternatives;
+                    alternative = new ArrayList<>();
+                    stars = 0;
+                } else {
+                    Leaf leaf = element();
+                    alternative.add(leaf);
+                    if (leaf.star) stars++;
+                }
+            }
+        }
+
+        private Leaf element() {
+            int c = read();
+            if (c == '\\') {
+                if (peek() == EOL) throw invalid();
+                return add(LITERAL, false, read(), null, false);
+            } else if (c == '[') {
+                return characterClass();
+            } else if (c == '*') {
+                boolean crossing = peek() == '*';
+                if (crossing) read();
+                return add(crossing ? ANY : NOT_SLASH, true, 0, null, false);
+            } else if (c == '?') {
+                return add(NOT_SLASH, false, 0, null, false);
+            }
+            return add(LITERAL, false, c, null, false);
+        }
+
+        private Leaf characterClass() {
+            boolean negate = false;
+            List<Integer> bounds = new ArrayList<>();
+            // A member which may begin a range, or -1 where a '-' would be invalid.
+            int from = -1;
+            if (peek() == '^') {
+                // '^' isn't negation in a glob, and leaves no range start.
+                int c = read();
+                bounds.add(c);
+                bounds.add(c);
+            } else {
+                if (peek() == '!') {
+                    read();
+                    negate = true;
+                }
+                if (peek() == '-') {
+                    int c = read();
+                    bounds.add(c);
+                    bounds.add(c);
+                }
+            }
+
+            while (true) {
+                int c = peek();
+                if (c == EOL || c == '/') throw invalid();
+                read();
+                if (c == ']') break;
+                if (c != '-') {
+                    bounds.add(c);
+                    bounds.add(c);
+                    from = c;
+                    continue;
+                }
+
+                if (from < 0) throw invalid();
+                int to = peek();
+                if (to == ']') {
+                    // The closing ']' follows a trailing '-', which is a member.
+                    read();
+                    bounds.add(c);
+                    bounds.add(c);
+                    break;
+                }
+                if (to == EOL || to < from) throw invalid();
+                read();
+                // The file system doesn't escape the end of a range, so these become regular expression syntax.
+                if (to == '[' || to == '\\' || to == '&' && peek() == '&') supported = false;
+                bounds.add(from);
+                bounds.add(to);
+                from = -1;
+            }
+            if (bounds.isEmpty()) supported = false;
+
+            int[] ranges = new int[bounds.size()];
+            for (int b = 0; b < ranges.length; b++) ranges[b] = bounds.get(b);
+            return add(CLASS, false, 0, ranges, negate);
+        }
+    }
+}
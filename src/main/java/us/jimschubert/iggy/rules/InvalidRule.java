@@ -52,10 +52,11 @@ public class InvalidRule extends Rule {
      * Evaluates a path against a derived {@link Rule}'s match constraints, resulting in the defined {@link Operation} for that rule.
      *
      * @param relativePath The path relative to the ignore file to evaluate against the rules included in that ignore file.
+     * @param isDirectory  {@code true} if {@code relativePath} refers to a directory, otherwise {@code false}.
      * @return The {@link Operation} for an inclusion or exclusion rule (that is, {@link Operation#NOOP}).
      */
     @Override
-    public Operation evaluate(String relativePath) {
+    public Operation evaluate(String relativePath, boolean isDirectory) {
         return Operation.NOOP;
     }
 
@@ -0,0 +1,325 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Narrows a list of rules to those which could possibly match a path.
+ * <p>
+ * Most patterns contain literal text (e.g. {@code node_modules} or {@code .min.js}) which must appear in any path
+ * the pattern matches. The longest such literal is taken from each rule, and all literals are searched for at once
+ * by a single {@link AhoCorasick} automaton. Only the rules whose literal occurs in the path, and the rules which
+ * have no literal at all, are candidates for a match.
+ * <p>
+ * Candidates matched as globs are then checked against structural bounds, also taken from each rule's syntax: the
+ * number of separators (e.g. exactly two for {@code src/*}{@code /gen.txt}), the minimum length, and the extension the
+ * last segment must end with (e.g. {@code class} for {@code build/**}{@code /*.class}). The same facts are computed once
+ * for the path, so such a rule is rejected with a few integer comparisons before its automaton is run.
+ */
+public final class LiteralPrefilter {
+    private final int size;
+    private final BitSet unfiltered = new BitSet();
+    private final AhoCorasick automaton;
+    private final int[][] rulesByLiteral;
+    private final Bounds[] bounds;
+    private final BitSet bounded = new BitSet();
+
+    private LiteralPrefilter(List<Rule> rules) {
+        this.size = rules.size();
+        this.bounds = new Bounds[size];
+        for (int i = 0; i < size; i++) {
+            // Specialized matchers are cheaper than the bounds.
+            if (isSpecialized(rules.get(i))) continue;
+            bounds[i] = Bounds.of(rules.get(i));
+            if (bounds[i] != null) bounded.set(i);
+        }
+
+        Map<String, List<Integer>> literals = new HashMap<>();
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            String literal = requiredLiteral(rules.get(i));
+            if (literal == null) {
+                unfiltered.set(i);
+                continue;
+            }
+
+            List<Integer> indices = literals.get(literal);
+            if (indices == null) {
+                indices = new ArrayList<>();
+                literals.put(literal, indices);
+                keywords.add(literal);
+            }
+            indices.add(i);
+        }
+
+        rulesByLiteral = new int[keywords.size()][];
+        for (int k = 0; k < keywords.size(); k++) {
+            List<Integer> indices = literals.get(keywords.get(k));
+            rulesByLiteral[k] = new int[indices.size()];
+            for (int i = 0; i < indices.size(); i++) rulesByLiteral[k][i] = indices.get(i);
+        }
+        // The automaton reports the rules requiring each literal, so a scan sets candidates directly.
+        automaton = new AhoCorasick(keywords, rulesByLiteral);
+    }
+
+    /**
+     * Compiles a prefilter for an ordered list of rules.
+     *
+     * @param rules The rules to be filtered. Indexes of candidates refer to this list.
+     * @return A new {@link LiteralPrefilter}.
+     */
+    public static LiteralPrefilter compile(List<Rule> rules) {
+        return new LiteralPrefilter(rules);
+    }
+
+    /**
+     * Gets the literal text which must occur in any path matched by {@code rule}.
+     *
+     * @param rule The rule.
+     * @return The longest literal required by the rule, or {@code null} if the rule has no such literal.
+     */
+    static String requiredLiteral(Rule rule) {
+        // NOTE: Windows file systems match case-insensitively, so a literal can't be required as written.
+        if (!(rule instanceof FileRule) || rule.getSyntax() == null || File.separatorChar != '/') return null;
+
+        String longest = null;
+        StringBuilder run = new StringBuilder();
+        search:
+        for (Part part : rule.getSyntax()) {
+            switch (part.getToken()) {
+                case TEXT:
+                    String value = part.getValue();
+                    for (int i = 0; i < value.length(); i++) {
+                        char c = value.charAt(i);
+                        if (c == '?') {
+                            longest = longer(longest, run);
+                            run.setLength(0);
+                        } else if (c == '[' || c == ']' || c == '{' || c == '}' || c == '\\') {
+                            // Groups, classes and escapes may span parts. Nothing after them is known to be literal.
+                            break search;
+                        } else {
+                            run.append(c);
+                        }
+                    }
+                    break;
+                case NEGATE:
+                case ROOTED_MARKER:
+                case COMMENT:
+                    break;
+                default:
+                    longest = longer(longest, run);
+                    run.setLength(0);
+                    break;
+            }
+        }
+        return longer(longest, run);
+    }
+
+    private static boolean isSpecialized(Rule rule) {
+        if (rule instanceof DirectoryRule) {
+            // The directory's matchers are specialized along with its path.
+            PatternMatcher matcher = PatternMatcher.specialized(DirectoryRule.directorySyntax(rule.getSyntax()));
+            return matcher != null && matcher.getKind() == PatternMatcher.Kind.EXACT;
+        }
+        return rule instanceof FileRule && PatternMatcher.specialized(rule.getSyntax()) != null;
+    }
+
+    private static String longer(String longest, StringBuilder run) {
+        if (run.length() == 0 || (longest != null && longest.length() >= run.length())) return longest;
+        return run.toString();
+    }
+
+    /**
+     * Determines which rules could match {@code relativePath}.
+     *
+     * @param relativePath The path relative to the ignore file.
+     * @return The indexes of rules which could match. Rules not included can not match.
+     */
+    public BitSet candidates(String relativePath) {
+        return candidates(relativePath, new BitSet(size));
+    }
+
+    /**
+     * Determines which rules could match {@code relativePath}, reusing a set rather than allocating one for each path.
+     *
+     * @param relativePath The path relative to the ignore file.
+     * @param candidates   The set to clear, and fill with the indexes of rules which could match.
+     * @return {@code candidates}. Rules not included can not match.
+     */
+    public BitSet candidates(String relativePath, BitSet candidates) {
+        candidates.clear();
+        candidates.or(unfiltered);
+        if (rulesByLiteral.length > 0) automaton.scan(relativePath, candidates);
+        if (candidates.intersects(bounded)) {
+            String path = PatternMatcher.normalize(relativePath);
+            int separators = 0;
+            int dot = -1;
+            for (int i = 0; i < path.length(); i++) {
+                char c = path.charAt(i);
+                if (c == '/') {
+                    separators++;
+                    dot = -1;
+                } else if (c == '.') {
+                    dot = i;
+                }
+            }
+            // The extension is hashed as by String#hashCode, without taking a substring.
+            int extension = 0;
+            if (dot >= 0) {
+                for (int i = dot + 1; i < path.length(); i++) extension = 31 * extension + path.charAt(i);
+            }
+            reject(candidates, separators, path.length(), dot >= 0, extension);
+        }
+        return candidates;
+    }
+
+    private void reject(BitSet candidates, int separators, int length, boolean hasExtension, int extension) {
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            Bounds rule = bounds[i];
+            if (rule != null && !rule.admits(separators, length, hasExtension, extension)) candidates.clear(i);
+        }
+    }
+
+    /**
+     * The structure any path matched by a rule must have: the range of its number of separators, its minimum length, and
+     * the extension of its last segment. Bounds are taken from the syntax, so they hold for every matcher of a
+     * {@link DirectoryRule} and whichever matcher is selected for the pattern.
+     */
+    static final class Bounds {
+        final int minSeparators;
+        final int maxSeparators;
+        final int minLength;
+        // The required extension, and its hash as by String#hashCode.
+        final String extension;
+        private final int extensionHash;
+
+        private Bounds(int minSeparators, int maxSeparators, int minLength, String extension) {
+            this.minSeparators = minSeparators;
+            this.maxSeparators = maxSeparators;
+            this.minLength = minLength;
+            this.extension = extension;
+            this.extensionHash = extension == null ? 0 : extension.hashCode();
+        }
+
+        /**
+         * Takes the bounds of any path matched by {@code rule} from its syntax.
+         *
+         * @param rule The rule.
+         * @return The bounds, or {@code null} if the rule's paths have none.
+         */
+        static Bounds of(Rule rule) {
+            // NOTE: Windows file systems accept either separator, so separators can't be counted as written.
+            if (!(rule instanceof FileRule) || rule.getSyntax() == null || File.separatorChar != '/') return null;
+
+            // A directory rule matches the directory, and anything below it (so any number of further separators).
+            boolean directory = rule instanceof DirectoryRule;
+            List<Part> syntax = directory ? DirectoryRule.directorySyntax(rule.getSyntax()) : rule.getSyntax();
+            int separators = 0;
+            int length = 0;
+            boolean unbounded = directory;
+            // The literal text the path must end with, or null if unknown.
+            StringBuilder tail = new StringBuilder();
+            search:
+            for (Part part : syntax) {
+                switch (part.getToken()) {
+                    case TEXT:
+                        String value = part.getValue();
+                        for (int i = 0; i < value.length(); i++) {
+                            char c = value.charAt(i);
+                            if (c == '?') {
+                                length++;
+                                tail.setLength(0);
+                            } else if (c == '[' || c == ']' || c == '{' || c == '}' || c == '\\') {
+                                // Groups, classes and escapes may span parts, and match any number of separators.
+                                unbounded = true;
+                                tail = null;
+                                break search;
+                            } else {
+                                length++;
+                                if (c == '/') separators++;
+                                tail.append(c);
+                            }
+                        }
+                        break;
+                    case PATH_DELIM:
+                    case DIRECTORY_MARKER:
+                        length++;
+                        separators++;
+                        tail.append('/');
+                        break;
+                    case ESCAPED_EXCLAMATION:
+                        length++;
+                        tail.append('!');
+                        break;
+                    case ESCAPED_SPACE:
+                        length++;
+                        tail.append(' ');
+                        break;
+                    case MATCH_ALL:
+                        unbounded = true;
+                        tail.setLength(0);
+                        break;
+                    case MATCH_ANY:
+                        tail.setLength(0);
+                        break;
+                    case NEGATE:
+                    case ROOTED_MARKER:
+                    case COMMENT:
+                        break;
+                }
+            }
+
+            String extension = null;
+            if (tail != null && !directory) {
+                int dot = tail.lastIndexOf(".");
+                if (dot >= 0 && dot > tail.lastIndexOf("/")) extension = tail.substring(dot + 1);
+            }
+            if (separators == 0 && unbounded && length == 0 && extension == null) return null;
+            return new Bounds(separators, unbounded ? Integer.MAX_VALUE : separators, length, extension);
+        }
+
+        /**
+         * Determines whether a path's facts are within the bounds.
+         *
+         * @param separators   The number of separators in the normalized path.
+         * @param length       The length of the normalized path.
+         * @param hasExtension Whether the last segment of the path has a {@code .}.
+         * @param extension    The hash of the text after the last {@code .} of the last segment.
+         * @return {@code false} if the rule can't match the path.
+         */
+        boolean admits(int separators, int length, boolean hasExtension, int extension) {
+            if (separators < minSeparators || separators > maxSeparators || length < minLength) return false;
+            if (this.extension == null) return true;
+            return hasExtension && extension == extensionHash;
+        }
+    }
+
+    /**
+     * Gets the number of rules considered by this prefilter.
+     *
+     * @return The size of the list of rules this prefilter was compiled from.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches a relative path against a single pattern.
+ * <p>
+ * Most patterns found in ignore files have one of a few simple shapes. {@link PatternMatcher#compile(List, String)}
+ * inspects the parsed syntax of a pattern and selects a matcher specialized for that shape, falling back to a
+ * {@link GlobAutomaton} for everything else. Specialized matchers give exactly the same results as the glob.
+ * <p>
+ * Globs the automaton can't represent exactly (and all globs on a file system other than the default unix one) are
+ * evaluated by a {@link PathMatcher}, which backtracks: such a matcher isn't {@link PatternMatcher#isLinear() linear}.
+ */
+abstract class PatternMatcher {
+
+    /**
+     * The shape of a pattern, as determined by {@link PatternMatcher#compile(List, String)}.
+     */
+    enum Kind {
+        /**
+         * A pattern without wildcards, e.g. {@code path/to/file.txt}
+         */
+        EXACT,
+        /**
+         * Everything below a literal directory, e.g. {@code path/to/**}
+         */
+        PREFIX,
+        /**
+         * A file name suffix at any depth, e.g. {@code **}{@code /*.ext}
+         */
+        SUFFIX,
+        /**
+         * A file name suffix in the root directory, e.g. {@code *.ext}
+         */
+        ROOT_SUFFIX,
+        /**
+         * A literal file name (or trailing path) at any depth, e.g. {@code **}{@code /name}
+         */
+        BASENAME,
+        /**
+         * Any other pattern, evaluated as a glob by {@link GlobAutomaton} (or {@link PathMatcher}).
+         */
+        GLOB
+    }
+
+    private final Kind kind;
+
+    PatternMatcher(Kind kind) {
+        this.kind = kind;
+    }
+
+    /**
+     * Selects the matcher for a pattern.
+     *
+     * @param syntax The syntax as parsed from the pattern's definition.
+     * @param glob   The glob equivalent of {@code syntax}, used when no specialized matcher applies.
+     * @return A matcher which evaluates paths identically to the glob.
+     */
+    static PatternMatcher compile(List<Part> syntax, String glob) {
+        Object event = Telemetry.beginCompile();
+        PatternMatcher matcher = select(syntax, glob);
+        Telemetry.endCompile(event, matcher.getKind().name(), glob, matcher.isLinear());
+        return matcher;
+    }
+
+    private static PatternMatcher select(List<Part> syntax, String glob) {
+        // NOTE: Windows file systems match globs case-insensitively and accept either separator.
+        if (syntax != null && File.separatorChar == '/') {
+            PatternMatcher specialized = specialize(syntax);
+            if (specialized != null) return specialized;
+        }
+        if (File.separatorChar == '/') {
+            GlobAutomaton.Syntax parsed = GlobAutomaton.parse(glob);
+            if (parsed.isSupported() && parsed.getPositions() <= GlobAutomaton.MAX_POSITIONS) {
+                return new Linear(GlobAutomaton.compile(parsed));
+            }
+        }
+        return new Glob(glob);
+    }
+
+    /**
+     * Checks that {@link PatternMatcher#compile(List, String)} would select a {@link PatternMatcher#isLinear() linear} matcher.
+     *
+     * @param syntax The syntax as parsed from the pattern's definition.
+     * @param glob   The glob equivalent of {@code syntax}.
+     * @throws ParserException with the reason, if the glob would be evaluated by a backtracking {@link PathMatcher}.
+     * @throws java.util.regex.PatternSyntaxException if {@link PatternMatcher#compile(List, String)} would reject the glob.
+     */
+    static void checkLinear(List<Part> syntax, String glob) throws ParserException {
+        if (syntax != null && File.separatorChar == '/' && specialize(syntax) != null) return;
+        if (File.separatorChar != '/') {
+            throw new ParserException("Pattern '" + glob + "' can't be matched in linear time on this file system.");
+        }
+
+        GlobAutomaton.Syntax parsed = GlobAutomaton.parse(glob);
+        if (!parsed.isSupported()) {
+            // Most such globs are also rejected by the file system, and must fail in the same way.
+            FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            throw new ParserException("Pattern '" + glob + "' can't be matched in linear time: it contains an empty character class, or a range ending in '[', '\\' or '&&'.");
+        }
+        if (parsed.getPositions() > GlobAutomaton.MAX_POSITIONS) {
+            throw new ParserException("Pattern '" + glob + "' can't be matched in linear time: it has " + parsed.getPositions() +
+                    " positions, more than the limit of " + GlobAutomaton.MAX_POSITIONS + ".");
+        }
+    }
+
+    /**
+     * Checks that a pattern can be compiled, without compiling it.
+     *
+     * @param syntax The syntax as parsed from the pattern's definition.
+     * @param glob   The glob equivalent of {@code syntax}.
+     * @throws java.util.regex.PatternSyntaxException if {@link PatternMatcher#compile(List, String)} would reject the glob.
+     */
+    static void validate(List<Part> syntax, String glob) {
+        if (syntax != null && File.separatorChar == '/' && specialize(syntax) != null) return;
+        // Parsing is cheap relative to building the automaton (or a PathMatcher), and rejects the same globs.
+        if (File.separatorChar == '/') {
+            GlobAutomaton.parse(glob);
+        } else {
+            FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        }
+    }
+
+    /**
+     * Selects the specialized matcher for a pattern, without building a glob matcher when none applies.
+     *
+     * @param syntax The syntax as parsed from the pattern's definition.
+     * @return The matcher {@link PatternMatcher#compile(List, String)} would select, or {@code null} if it would select a glob.
+     */
+    static PatternMatcher specialized(List<Part> syntax) {
+        return syntax != null && File.separatorChar == '/' ? specialize(syntax) : null;
+    }
+
+    private static PatternMatcher specialize(List<Part> syntax) {
+        // Reduce the syntax to literal runs and wildcards. String holds a literal, Token holds a wildcard.
+        List<Object> shape = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        for (Part part : syntax) {
+            switch (part.getToken()) {
+                case TEXT:
+                    if (!isPlain(part.getValue())) return null;
+                    literal.append(part.getValue());
+                    break;
+                case PATH_DELIM:
+                case DIRECTORY_MARKER:
+                    literal.append('/');
+                    break;
+                case MATCH_ANY:
+                case MATCH_ALL:
+                    if (literal.length() > 0) {
+                        shape.add(literal.toString());
+                        literal.setLength(0);
+                    }
+                    shape.add(part.getToken());
+                    break;
+                case ESCAPED_EXCLAMATION:
+                case ESCAPED_SPACE:
+                    return null;
+                case NEGATE:
+                case ROOTED_MARKER:
+                case COMMENT:
+                    break;
+            }
+        }
+        if (literal.length() > 0) shape.add(literal.toString());
+
+        final IgnoreLineParser.Token any = IgnoreLineParser.Token.MATCH_ANY;
+        final IgnoreLineParser.Token all = IgnoreLineParser.Token.MATCH_ALL;
+
+        switch (shape.size()) {
+            case 1:
+                if (shape.get(0) instanceof String) {
+                    return new Exact((String) shape.get(0));
+                }
+                break;
+            case 2:
+                Object first = shape.get(0);
+                Object second = shape.get(1);
+                if (first instanceof String && second == all && ((String) first).endsWith("/")) {
+                    return new Prefix((String) first);
+                } else if (first == all && second instanceof String && ((String) second).startsWith("/")) {
+                    return new Basename((String) second);
+                } else if (first == any && second instanceof String && ((String) second).indexOf('/') < 0) {
+                    return new RootSuffix((String) second);
+                }
+                break;
+            case 4:
+                if (shape.get(0) == all && "/".equals(shape.get(1)) && shape.get(2) == any &&
+                        shape.get(3) instanceof String && ((String) shape.get(3)).indexOf('/') < 0) {
+                    return new Suffix((String) shape.get(3));
+                }
+                break;
+        }
+        return null;
+    }
+
+    private static boolean isPlain(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            switch (text.charAt(i)) {
+                case '*':
+                case '?':
+                case '[':
+                case ']':
+                case '{':
+                case '}':
+                case '\\':
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the shape of the pattern handled by this matcher.
+     *
+     * @return The {@link Kind} of this matcher.
+     */
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Determines whether this matcher evaluates a path in time linear in the length of the path, whatever the pattern.
+     *
+     * @return {@code false} if the path is evaluated by a backtracking {@link PathMatcher}, otherwise {@code true}.
+     */
+    boolean isLinear() {
+        return true;
+    }
+
+    /**
+     * Gets the literal compared against a normalized path by a specialized matcher.
+     *
+     * @return The file name, prefix or suffix for the {@link Kind} of this matcher, or {@code null} for {@link Kind#GLOB}.
+     */
+    String getLiteral() {
+        return null;
+    }
+
+    /**
+     * Evaluates a relative path against the pattern.
+     *
+     * @param relativePath The {@code /} delimited path, relative to the ignore file.
+     * @return {@code true} if the path matches the pattern, otherwise {@code false}.
+     */
+    abstract boolean matches(String relativePath);
+
+    /**
+     * Applies the normalization {@link java.nio.file.Path} applies before a glob is evaluated:
+     * redundant and trailing separators are removed. Allocates only when the path needs normalization.
+     */
+    static String normalize(String relativePath) {
+        int length = relativePath.length();
+        if (relativePath.indexOf("//") < 0 && (length <= 1 || relativePath.charAt(length - 1) != '/')) {
+            return relativePath;
+        }
+
+        StringBuilder sb = new StringBuilder(length);
+        char previous = 0;
+        for (int i = 0; i < length; i++) {
+            char c = relativePath.charAt(i);
+            if (c == '/' && previous == '/') continue;
+            sb.append(c);
+            previous = c;
+        }
+        if (sb.length() > 1 && sb.charAt(sb.length() - 1) == '/') sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    private static final class Exact extends PatternMatcher {
+        private final String literal;
+
+        Exact(String literal) {
+            super(Kind.EXACT);
+            this.literal = literal;
+        }
+
+        @Override
+        String getLiteral() {
+            return literal;
+        }
+
+        @Override
+        boolean matches(String relativePath) {
+            return literal.equals(normalize(relativePath));
+        }
+    }
+
+    private static final class Prefix extends PatternMatcher {
+        private final String prefix;
+
+        Prefix(String prefix) {
+            super(Kind.PREFIX);
+            this.prefix = prefix;
+        }
+
+        @Override
+        String getLiteral() {
+            return prefix;
+        }
+
+        @Override
+        boolean matches(String relativePath) {
+            return normalize(relativePath).startsWith(prefix);
+        }
+    }
+
+    private static final class Suffix extends PatternMatcher {
+        private final String suffix;
+
+        Suffix(String suffix) {
+            super(Kind.SUFFIX);
+            this.suffix = suffix;
+        }
+
+        @Override
+        String getLiteral() {
+            return suffix;
+        }
+
+        @Override
+        boolean matches(String relativePath) {
+            String path = normalize(relativePath);
+            // suffix contains no separator, so any separator found precedes the file name.
+            return path.endsWith(suffix) && path.lastIndexOf('/') >= 0;
+        }
+    }
+
+    private static final class RootSuffix extends PatternMatcher {
+        private final String suffix;
+
+        RootSuffix(String suffix) {
+            super(Kind.ROOT_SUFFIX);
+            this.suffix = suffix;
+        }
+
+        @Override
+        String getLiteral() {
+            return suffix;
+        }
+
+        @Override
+        boolean matches(String relativePath) {
+            String path = normalize(relativePath);
+            return path.endsWith(suffix) && path.lastIndexOf('/') < 0;
+        }
+    }
+
+    private static final class Basename extends PatternMatcher {
+        private final String suffix;
+
+        Basename(String suffix) {
+            super(Kind.BASENAME);
+            this.suffix = suffix;
+        }
+
+        @Override
+        String getLiteral() {
+            return suffix;
+        }
+
+        @Override
+        boolean matches(String relativePath) {
+            return normalize(relativePath).endsWith(suffix);
+        }
+    }
+
+    private static final class Linear extends PatternMatcher {
+        private final GlobAutomaton automaton;
+
+        Linear(GlobAutomaton automaton) {
+            super(Kind.GLOB);
+            this.automaton = automaton;
+        }
+
+        @Override
+        boolean matches(String relativePath) {
+            return automaton.matches(normalize(relativePath));
+        }
+    }
+
+    private static final class Glob extends PatternMatcher {
+        private final PathMatcher matcher;
+
+        Glob(String glob) {
+            super(Kind.GLOB);
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        }
+
+        @Override
+        boolean isLinear() {
+            return false;
+        }
+
+        @Override
+        boolean matches(String relativePath) {
+            return matcher.matches(FileSystems.getDefault().getPath(relativePath));
+        }
+    }
+}
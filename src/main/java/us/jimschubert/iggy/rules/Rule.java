@@ -17,6 +17,9 @@
 
 package us.jimschubert.iggy.rules;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.util.List;
 
 /**
@@ -24,10 +27,13 @@ import java.util.List;
  * generally using glob patterns.
  */
 public abstract class Rule {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Rule.class);
 
     // The original rule
     private final String definition;
     private final List<Part> syntax;
+    private String source = null;
+    private int lineNumber = 0;
 
     /**
      * Constructs a new instance of {@link Rule}, providing a parsed syntax of the rule definition, and the original definition.
@@ -47,6 +53,10 @@ public abstract class Rule {
      * @return A new instance of a type deriving from {@link Rule}.
      */
     public static Rule create(String definition) {
+        return create(definition, null, 0, Options.DEFAULT);
+    }
+
+    private static Rule create(String definition, boolean lazy, boolean linear) {
         // NOTE: Comments that start with a : (e.g. //:) are pulled from git documentation for .gitignore
         // see: https://github.com/git/git/blob/90f7b16b3adc78d4bbabbd426fb69aa78c714f71/Documentation/gitignore.txt
         Rule rule;
@@ -64,13 +74,16 @@ public abstract class Rule {
             Boolean directoryOnly;
             if (result.size() == 0) {
                 return null;
+            } else if (IgnoreLineParser.Token.COMMENT.equals(result.get(0).getToken())) {
+                //: A line starting with # serves as a comment.
+                return null;
             } else if (result.size() == 1) {
                 // single-character filename only
                 Part part = result.get(0);
                 if (IgnoreLineParser.Token.MATCH_ANY.equals(part.getToken())) {
                     rule = new RootedFileRule(result, definition);
                 } else {
-                    rule = new FileRule(result, definition);
+                    rule = fileRule(result, definition, false, lazy, linear);
                 }
             } else {
                 IgnoreLineParser.Token head = result.get(0).getToken();
@@ -94,7 +107,7 @@ public abstract class Rule {
                 directoryOnly = IgnoreLineParser.Token.DIRECTORY_MARKER.equals(result.get(result.size() - 1).getToken());
 
                 if (directoryOnly) {
-                    rule = new DirectoryRule(result, definition);
+                    rule = fileRule(result, definition, true, lazy, linear);
                 } else if (IgnoreLineParser.Token.PATH_DELIM.equals(head)) {
                     //: A leading slash matches the beginning of the pathname.
                     //: For example, "/{asterisk}.c" matches "cat-file.c" but not
@@ -136,18 +149,67 @@ public abstract class Rule {
                     //: matches "`a/b`", "`a/x/b`", "`a/x/y/b`" and so on.
                     //:
                     //: - Other consecutive asterisks are considered invalid.
-                    rule = new FileRule(result, definition);
+                    rule = fileRule(result, definition, false, lazy, linear);
                 }
 
             }
         } catch (ParserException e) {
-            e.printStackTrace();
             return new InvalidRule(null, definition, e.getMessage());
         }
 
         return rule;
     }
 
+    private static FileRule fileRule(List<Part> syntax, String definition, boolean directory, boolean lazy, boolean linear) throws ParserException {
+        if (linear) {
+            String pattern = pattern(syntax, definition);
+            if (directory) {
+                // A directory rule also matches its contents, the longest of the globs it compiles.
+                PatternMatcher.checkLinear(null, (pattern.endsWith("/") ? pattern : pattern + "/") + "**");
+            } else {
+                PatternMatcher.checkLinear(syntax, pattern);
+            }
+        }
+        return directory ? new DirectoryRule(syntax, definition, lazy) : new FileRule(syntax, definition, lazy);
+    }
+
+    /**
+     * A factory method for creating more specific instances of {@link Rule}, recording where the {@code definition} was read from.
+     *
+     * @param definition The originally defined rule. Generally a single line from an ignore file.
+     * @param source     The name of the source containing the definition, such as the path of an ignore file.
+     * @param lineNumber The 1-based line number of the definition within {@code source}.
+     * @return A new instance of a type deriving from {@link Rule}, or {@code null} if the definition defines no rule (e.g. a comment).
+     */
+    public static Rule create(String definition, String source, int lineNumber) {
+        return create(definition, source, lineNumber, Options.DEFAULT);
+    }
+
+    /**
+     * A factory method for creating more specific instances of {@link Rule}, recording where the {@code definition} was read from.
+     * <p>
+     * A definition which can't be loaded (e.g. an invalid glob, or one rejected by {@link Options#withLinearMatching(boolean)})
+     * is logged once, and results in an {@link InvalidRule} giving the reason.
+     *
+     * @param definition The originally defined rule. Generally a single line from an ignore file.
+     * @param source     The name of the source containing the definition, such as the path of an ignore file.
+     * @param lineNumber The 1-based line number of the definition within {@code source}.
+     * @param options    How the rule is created.
+     * @return A new instance of a type deriving from {@link Rule}, or {@code null} if the definition defines no rule (e.g. a comment).
+     */
+    public static Rule create(String definition, String source, int lineNumber, Options options) {
+        Rule rule = create(definition, options.isLazyCompilation(), options.isLinearMatching());
+        if (rule != null) {
+            rule.source = source;
+            rule.lineNumber = lineNumber;
+        }
+        if (rule instanceof InvalidRule) {
+            String location = source == null ? "" : source + ":" + lineNumber + ": ";
+            LOGGER.warn(String.format("Ignoring %s%s (%s)", location, definition, ((InvalidRule) rule).getReason()));
+        }
+        return rule;
+    }
+
     /**
      * The constraints for inclusion or exclusion defined by the {@link Rule}.
      *
@@ -156,6 +218,21 @@ public abstract class Rule {
      */
     public abstract Boolean matches(String relativePath);
 
+    /**
+     * The constraints for inclusion or exclusion defined by the {@link Rule}, given a hint as to whether the path is a directory.
+     * <p>
+     * Callers which already know the type of the path (e.g. from {@link java.nio.file.attribute.BasicFileAttributes} during a
+     * walk) should prefer this method, as it allows rules such as {@link DirectoryRule} to match directories without
+     * querying the file system.
+     *
+     * @param relativePath The path relative to the ignore file to evaluate against the rules included in that ignore file.
+     * @param isDirectory  {@code true} if {@code relativePath} refers to a directory, otherwise {@code false}.
+     * @return {@code true} if the rule matches for exclusion, otherwise {@code false}.
+     */
+    public Boolean matches(String relativePath, boolean isDirectory) {
+        return matches(relativePath);
+    }
+
     /**
      * Gets the original definition of this rule.
      *
@@ -166,6 +243,33 @@ public abstract class Rule {
         return this.definition;
     }
 
+    /**
+     * Gets the name of the source this rule was read from.
+     *
+     * @return The name of the source (e.g. the path of the ignore file), or {@code null} if the rule wasn't read from a source.
+     */
+    public String getSource() {
+        return this.source;
+    }
+
+    /**
+     * Gets the line number of this rule's definition within its source.
+     *
+     * @return The 1-based line number, or {@code 0} if the rule wasn't read from a source.
+     */
+    public int getLineNumber() {
+        return this.lineNumber;
+    }
+
+    /**
+     * Gets the parsed syntax of this rule.
+     *
+     * @return The list of {@link Part} parsed from the {@link Rule#definition}, or {@code null} if the definition couldn't be parsed.
+     */
+    List<Part> getSyntax() {
+        return this.syntax;
+    }
+
     /**
      * Gets the pattern used to evaluate a rule. This method includes some cleanup based on certain tokens that may occur in a rule's definition.
      *
@@ -174,7 +278,11 @@ public abstract class Rule {
      */
     @SuppressWarnings("WeakerAccess")
     protected String getPattern() {
-        if (syntax == null) return this.definition;
+        return pattern(this.syntax, this.definition);
+    }
+
+    private static String pattern(List<Part> syntax, String definition) {
+        if (syntax == null) return definition;
 
         StringBuilder sb = new StringBuilder();
         for (Part current : syntax) {
@@ -216,7 +324,18 @@ public abstract class Rule {
      * @return The {@link Operation} for an inclusion or exclusion rule.
      */
     public Operation evaluate(String relativePath) {
-        if (Boolean.TRUE.equals(matches(relativePath))) {
+        return evaluate(relativePath, false);
+    }
+
+    /**
+     * Evaluates a path against a derived {@link Rule}'s match constraints, resulting in the defined {@link Operation} for that rule.
+     *
+     * @param relativePath The path relative to the ignore file to evaluate against the rules included in that ignore file.
+     * @param isDirectory  {@code true} if {@code relativePath} refers to a directory, otherwise {@code false}.
+     * @return The {@link Operation} for an inclusion or exclusion rule.
+     */
+    public Operation evaluate(String relativePath, boolean isDirectory) {
+        if (Boolean.TRUE.equals(matches(relativePath, isDirectory))) {
             if (Boolean.TRUE.equals(this.getNegated())) {
                 return this.getIncludeOperation();
             }
@@ -251,4 +370,69 @@ public abstract class Rule {
     public enum Operation {
         EXCLUDE, INCLUDE, NOOP, EXCLUDE_AND_TERMINATE
     }
-}
\ No newline at end of file
+
+    /**
+     * Options for creating rules with {@link Rule#create(String, String, int, Options)}. Instances are immutable.
+     */
+    public static final class Options {
+        /**
+         * Rules are compiled when created, and globs which can't be matched in linear time are accepted.
+         */
+        public static final Options DEFAULT = new Options(false, false);
+
+        private final boolean lazyCompilation;
+        private final boolean linearMatching;
+
+        private Options(boolean lazyCompilation, boolean linearMatching) {
+            this.lazyCompilation = lazyCompilation;
+            this.linearMatching = linearMatching;
+        }
+
+        /**
+         * Enables or disables lazy compilation.
+         * <p>
+         * A lazily created rule only parses and classifies its definition. Building the matcher for a glob is deferred until
+         * the first path is evaluated against the rule, which saves loading time for rules that are never evaluated (e.g. those
+         * excluded by a {@link LiteralPrefilter} for every path). An invalid pattern is still rejected when the rule is created.
+         *
+         * @param enabled {@code true} to defer building matchers until first use.
+         * @return Options with lazy compilation enabled or disabled.
+         */
+        public Options withLazyCompilation(boolean enabled) {
+            return new Options(enabled, linearMatching);
+        }
+
+        /**
+         * Enables or disables strictly linear matching.
+         * <p>
+         * With linear matching, a rule is created only if every path can be evaluated against it in time linear in the length
+         * of the path. Otherwise, the result is an {@link InvalidRule} giving the reason, e.g. a glob which could only be
+         * evaluated by a backtracking regular expression. Without it, such a glob is still accepted, and evaluated by
+         * {@link java.nio.file.PathMatcher}.
+         *
+         * @param enabled {@code true} to reject patterns which can't be guaranteed linear time matching.
+         * @return Options with linear matching enabled or disabled.
+         */
+        public Options withLinearMatching(boolean enabled) {
+            return new Options(lazyCompilation, enabled);
+        }
+
+        /**
+         * Determines whether matchers are built on first use. See {@link Options#withLazyCompilation(boolean)}.
+         *
+         * @return {@code true} if lazy compilation is enabled.
+         */
+        public boolean isLazyCompilation() {
+            return lazyCompilation;
+        }
+
+        /**
+         * Determines whether patterns are rejected unless they can be matched in linear time. See {@link Options#withLinearMatching(boolean)}.
+         *
+         * @return {@code true} if linear matching is enabled.
+         */
+        public boolean isLinearMatching() {
+            return linearMatching;
+        }
+    }
+}
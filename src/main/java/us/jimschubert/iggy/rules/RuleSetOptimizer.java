@@ -0,0 +1,351 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the rules of a rule set which can't change the outcome for any path, so they can be removed before paths are evaluated.
+ * <p>
+ * Generated and hand-maintained ignore files accumulate redundant rules, each of which is otherwise evaluated for every path:
+ * <ul>
+ * <li>duplicates, such as the same line repeated, of which the last is kept;</li>
+ * <li>subsumed rules, which only match paths another rule also matches, e.g. {@code foo/bar/**} with {@code foo/**},
+ * or {@code **}{@code /app.log} with {@code **}{@code /*.log};</li>
+ * <li>unreachable negations, which can never re-include a path: {@code !build/keep.txt} after {@code build/} (a file in an
+ * excluded directory stays excluded), or a negation of paths which a source of higher precedence excludes.</li>
+ * </ul>
+ * A rule is only removed when a remaining rule takes its place for every path, allowing for the precedence of sources
+ * and for excluded directories, so every path is allowed or excluded exactly as before. The rule reported as deciding a
+ * path may become the remaining rule. Subsumption is decided for patterns with a specialized matcher (literals, prefixes
+ * and suffixes, see {@link PatternMatcher.Kind}); other patterns are only removed as duplicates.
+ * <p>
+ * NOTE: {@code **}{@code /*.log} only matches below a directory, so it doesn't subsume {@code *.log}.
+ */
+public final class RuleSetOptimizer {
+    // Keys describe the paths a rule matches: the kind of its specialized matcher followed by the matcher's literal.
+    private static final char EXACT = 'E';
+    private static final char PREFIX = 'P';
+    private static final char SUFFIX = 'S';
+    private static final char ROOT_SUFFIX = 'R';
+    private static final char BASENAME = 'B';
+    // A directory rule of a literal path, e.g. build/ (the directory, and everything below it).
+    private static final char DIRECTORY = 'D';
+    // Any other rule, whose key only equals that of an identical rule.
+    private static final char OTHER = 'O';
+
+    private final BitSet removedExclusions = new BitSet();
+    private final BitSet removedInclusions = new BitSet();
+    private final List<Removal> removals = new ArrayList<>();
+
+    private RuleSetOptimizer() {
+    }
+
+    /**
+     * Finds the redundant rules of a rule set, as evaluated by {@link us.jimschubert.iggy.IgnoreProcessor}.
+     *
+     * @param exclusions     The exclusion rules, in order of evaluation.
+     * @param exclusionRanks The precedence of the source of each exclusion rule, ascending.
+     * @param inclusions     The inclusion (negated) rules, in order of evaluation.
+     * @param inclusionRanks The precedence of the source of each inclusion rule, ascending.
+     * @return The rules which can be removed.
+     */
+    public static RuleSetOptimizer optimize(List<Rule> exclusions, int[] exclusionRanks, List<Rule> inclusions, int[] inclusionRanks) {
+        RuleSetOptimizer optimizer = new RuleSetOptimizer();
+        String[] exclusionKeys = keys(exclusions);
+        String[] inclusionKeys = keys(inclusions);
+        Map<String, List<Integer>> exclusionIndex = index(exclusionKeys);
+        Map<String, List<Integer>> inclusionIndex = index(inclusionKeys);
+
+        // Earlier exclusions first, and the latest candidate first, so duplicates keep the last rule. A rule may replace
+        // another if it matches every path the other matches, and the outcome doesn't change:
+        // * a directory exclusion can't be replaced by a file exclusion, which would allow negations below it;
+        // * an earlier rule must be of the same source, so the precedence of the last match is unchanged.
+        Removal[] excluded = new Removal[exclusions.size()];
+        for (int x = 0; x < exclusions.size(); x++) {
+            if (exclusionKeys[x] == null) continue;
+            Rule rule = exclusions.get(x);
+            search:
+            for (String key : coveringKeys(exclusionKeys[x])) {
+                List<Integer> candidates = exclusionIndex.get(key);
+                if (candidates == null) continue;
+                for (int c = candidates.size() - 1; c >= 0; c--) {
+                    int y = candidates.get(c);
+                    Rule other = exclusions.get(y);
+                    if (y == x || optimizer.removedExclusions.get(y)) continue;
+                    if (rule instanceof DirectoryRule && !(other instanceof DirectoryRule)) continue;
+                    if (y < x && exclusionRanks[y] != exclusionRanks[x]) continue;
+
+                    optimizer.removedExclusions.set(x);
+                    excluded[x] = new Removal(rule, other, key.equals(exclusionKeys[x]) ? Reason.DUPLICATE : Reason.SUBSUMED);
+                    break search;
+                }
+            }
+        }
+
+        // A negation is only applied to an excluded path, if the last exclusion is of no higher precedence, and only a
+        // directory negation can re-include a path below an excluded directory.
+        Removal[] included = new Removal[inclusions.size()];
+        for (int i = 0; i < inclusions.size(); i++) {
+            if (inclusionKeys[i] == null) continue;
+            Rule rule = inclusions.get(i);
+            search:
+            for (String key : coveringKeys(inclusionKeys[i])) {
+                List<Integer> candidates = exclusionIndex.get(key);
+                if (candidates == null) continue;
+                for (int y : candidates) {
+                    Rule other = exclusions.get(y);
+                    if (optimizer.removedExclusions.get(y)) continue;
+                    if ((other instanceof DirectoryRule && !(rule instanceof DirectoryRule)) || exclusionRanks[y] > inclusionRanks[i]) {
+                        optimizer.removedInclusions.set(i);
+                        included[i] = new Removal(rule, other, Reason.UNREACHABLE);
+                        break search;
+                    }
+                }
+            }
+        }
+
+        // The first applicable negation re-includes the path, so any other negation re-including at least the same
+        // paths may replace a negation: if it is of no lower precedence, and re-includes below excluded directories alike.
+        for (int i = 0; i < inclusions.size(); i++) {
+            if (inclusionKeys[i] == null || optimizer.removedInclusions.get(i)) continue;
+            Rule rule = inclusions.get(i);
+            search:
+            for (String key : coveringKeys(inclusionKeys[i])) {
+                List<Integer> candidates = inclusionIndex.get(key);
+                if (candidates == null) continue;
+                for (int c = candidates.size() - 1; c >= 0; c--) {
+                    int j = candidates.get(c);
+                    Rule other = inclusions.get(j);
+                    if (j == i || optimizer.removedInclusions.get(j)) continue;
+                    if (rule instanceof DirectoryRule && !(other instanceof DirectoryRule)) continue;
+                    if (inclusionRanks[j] < inclusionRanks[i]) continue;
+
+                    optimizer.removedInclusions.set(i);
+                    included[i] = new Removal(rule, other, key.equals(inclusionKeys[i]) ? Reason.DUPLICATE : Reason.SUBSUMED);
+                    break search;
+                }
+            }
+        }
+
+        for (Removal removal : excluded) {
+            if (removal != null) optimizer.removals.add(removal);
+        }
+        for (Removal removal : included) {
+            if (removal != null) optimizer.removals.add(removal);
+        }
+        return optimizer;
+    }
+
+    private static String[] keys(List<Rule> rules) {
+        String[] keys = new String[rules.size()];
+        for (int i = 0; i < keys.length; i++) keys[i] = key(rules.get(i));
+        return keys;
+    }
+
+    private static Map<String, List<Integer>> index(String[] keys) {
+        Map<String, List<Integer>> index = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) continue;
+            List<Integer> indices = index.get(keys[i]);
+            if (indices == null) {
+                indices = new ArrayList<>();
+                index.put(keys[i], indices);
+            }
+            indices.add(i);
+        }
+        return index;
+    }
+
+    /**
+     * Describes the paths a rule matches, or returns {@code null} for a rule which never matches.
+     */
+    private static String key(Rule rule) {
+        if (rule instanceof InvalidRule) return null;
+        if (rule.getClass() == FileRule.class) {
+            PatternMatcher matcher = PatternMatcher.specialized(rule.getSyntax());
+            if (matcher != null && matcher.getKind() != PatternMatcher.Kind.GLOB) {
+                return kind(matcher.getKind()) + matcher.getLiteral();
+            }
+        } else if (rule.getClass() == DirectoryRule.class) {
+            PatternMatcher matcher = PatternMatcher.specialized(DirectoryRule.directorySyntax(rule.getSyntax()));
+            if (matcher != null && matcher.getKind() == PatternMatcher.Kind.EXACT) {
+                String literal = matcher.getLiteral();
+                if (literal.length() > 0 && !literal.endsWith("/")) return DIRECTORY + literal;
+            }
+        }
+        String pattern = rule instanceof RootedFileRule ? rule.getDefinition() : rule.getPattern();
+        return OTHER + rule.getClass().getName() + '\0' + pattern;
+    }
+
+    private static char kind(PatternMatcher.Kind kind) {
+        switch (kind) {
+            case EXACT:
+                return EXACT;
+            case PREFIX:
+                return PREFIX;
+            case SUFFIX:
+                return SUFFIX;
+            case ROOT_SUFFIX:
+                return ROOT_SUFFIX;
+            default:
+                return BASENAME;
+        }
+    }
+
+    /**
+     * Lists the keys of rules which match every path matched by the rule of {@code key}, starting with {@code key} itself.
+     */
+    private static List<String> coveringKeys(String key) {
+        List<String> keys = new ArrayList<>();
+        keys.add(key);
+        char kind = key.charAt(0);
+        String literal = key.substring(1);
+
+        if (kind == EXACT || kind == PREFIX || kind == DIRECTORY) {
+            // Everything below each literal directory containing the paths.
+            for (int i = literal.indexOf('/'); i >= 0; i = literal.indexOf('/', i + 1)) {
+                keys.add(PREFIX + literal.substring(0, i + 1));
+                keys.add(DIRECTORY + literal.substring(0, i));
+            }
+        }
+        if (kind == EXACT || kind == SUFFIX || kind == ROOT_SUFFIX || kind == BASENAME) {
+            // The trailing paths and file name suffixes which the paths end with.
+            int name = literal.lastIndexOf('/') + 1;
+            for (int i = 0; i < literal.length(); i++) {
+                String suffix = literal.substring(i);
+                if (i < name) {
+                    if (literal.charAt(i) == '/' && (kind == EXACT || kind == BASENAME)) keys.add(BASENAME + suffix);
+                } else if (kind == ROOT_SUFFIX || (kind == EXACT && name == 0)) {
+                    keys.add(ROOT_SUFFIX + suffix);
+                } else if (kind != EXACT || name > 0) {
+                    keys.add(SUFFIX + suffix);
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Gets the indexes of the exclusion rules which can be removed.
+     *
+     * @return A copy of the set of indexes.
+     */
+    public BitSet getRemovedExclusions() {
+        return (BitSet) removedExclusions.clone();
+    }
+
+    /**
+     * Gets the indexes of the inclusion rules which can be removed.
+     *
+     * @return A copy of the set of indexes.
+     */
+    public BitSet getRemovedInclusions() {
+        return (BitSet) removedInclusions.clone();
+    }
+
+    /**
+     * Gets the rules which can be removed, and why: exclusion rules first, each in order of evaluation.
+     *
+     * @return A {@link Collections#unmodifiableList(List)} of removals.
+     */
+    public List<Removal> getRemovals() {
+        return Collections.unmodifiableList(removals);
+    }
+
+    /**
+     * Why a rule was found redundant.
+     */
+    public enum Reason {
+        /**
+         * The rule matches the same paths as a remaining rule.
+         */
+        DUPLICATE("duplicates"),
+        /**
+         * The rule only matches paths a remaining rule also matches.
+         */
+        SUBSUMED("is subsumed by"),
+        /**
+         * The negation can never re-include a path excluded by a remaining rule.
+         */
+        UNREACHABLE("can't re-include paths excluded by");
+
+        private final String description;
+
+        Reason(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * A rule found redundant, with the rule taking its place.
+     */
+    public static final class Removal {
+        private final Rule rule;
+        private final Rule coveredBy;
+        private final Reason reason;
+
+        Removal(Rule rule, Rule coveredBy, Reason reason) {
+            this.rule = rule;
+            this.coveredBy = coveredBy;
+            this.reason = reason;
+        }
+
+        /**
+         * Gets the redundant rule.
+         *
+         * @return The rule, whose source and line can be cleaned up.
+         */
+        public Rule getRule() {
+            return rule;
+        }
+
+        /**
+         * Gets the rule which makes {@link Removal#getRule()} redundant.
+         *
+         * @return The remaining rule.
+         */
+        public Rule getCoveredBy() {
+            return coveredBy;
+        }
+
+        /**
+         * Gets the reason the rule is redundant.
+         *
+         * @return The {@link Reason}.
+         */
+        public Reason getReason() {
+            return reason;
+        }
+
+        /**
+         * Describes the removal, e.g. {@code .gitignore:3: foo/bar/** is subsumed by .gitignore:1: foo/**}.
+         *
+         * @return The description.
+         */
+        @Override
+        public String toString() {
+            return String.format("%s:%d: %s %s %s:%d: %s", rule.getSource(), rule.getLineNumber(), rule.getDefinition(),
+                    reason.description, coveredBy.getSource(), coveredBy.getLineNumber(), coveredBy.getDefinition());
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import java.io.File;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A Bloom filter which proves that a path can't be matched by a list of rules.
+ * <p>
+ * Many patterns require a whole path segment (e.g. {@code node_modules/} or {@code **}{@code /build.sh}) or a file
+ * extension (e.g. {@code *.log}). One such key is taken from each rule. A path whose segments and extension are all
+ * absent from the filter can't be matched by any keyed rule; only rules without a key (see {@link SegmentBloomFilter#retainUnkeyed(BitSet)})
+ * remain to be evaluated. False positives only cost a full evaluation.
+ */
+public final class SegmentBloomFilter {
+    private static final long SEGMENT_SEED = 0xcbf29ce484222325L;
+    private static final long EXTENSION_SEED = 0x84222325cbf29ce4L;
+    private static final int BITS_PER_KEY = 16;
+    private static final int HASHES = 4;
+
+    private final long[] bits;
+    private final int mask;
+    private final BitSet unkeyed = new BitSet();
+    private final boolean empty;
+
+    private SegmentBloomFilter(List<Rule> rules) {
+        Set<String> segments = new LinkedHashSet<>();
+        Set<String> extensions = new LinkedHashSet<>();
+        for (int i = 0; i < rules.size(); i++) {
+            if (!addKey(rules.get(i), segments, extensions)) unkeyed.set(i);
+        }
+
+        int keys = segments.size() + extensions.size();
+        int size = 64;
+        while (size < keys * BITS_PER_KEY) size <<= 1;
+        bits = new long[size >>> 6];
+        mask = size - 1;
+        empty = keys == 0;
+
+        for (String segment : segments) add(hash(SEGMENT_SEED, segment, 0, segment.length()));
+        for (String extension : extensions) add(hash(EXTENSION_SEED, extension, 0, extension.length()));
+    }
+
+    /**
+     * Compiles a filter for an ordered list of rules.
+     *
+     * @param rules The rules to be filtered. Indexes of unkeyed rules refer to this list.
+     * @return A new {@link SegmentBloomFilter}.
+     */
+    public static SegmentBloomFilter compile(List<Rule> rules) {
+        return new SegmentBloomFilter(rules);
+    }
+
+    private static boolean addKey(Rule rule, Set<String> segments, Set<String> extensions) {
+        if (rule instanceof InvalidRule) return true; // never matches, so needs no key
+        // NOTE: Windows file systems match case-insensitively, so a key can't be required as written.
+        if (!(rule instanceof FileRule) || rule.getSyntax() == null || File.separatorChar != '/') return false;
+
+        String segmentKey = null;
+        StringBuilder segment = new StringBuilder();
+        boolean plain = true;
+        boolean complete = true;
+        Part last = null;
+        search:
+        for (Part part : rule.getSyntax()) {
+            switch (part.getToken()) {
+                case TEXT:
+                    String value = part.getValue();
+                    for (int i = 0; i < value.length(); i++) {
+                        char c = value.charAt(i);
+                        if (c == '[' || c == ']' || c == '{' || c == '}' || c == '\\') {
+                            // Groups, classes and escapes may span segments. Nothing after them is known to be literal.
+                            complete = false;
+                            break search;
+                        } else if (c == '?') {
+                            plain = false;
+                        }
+                    }
+                    segment.append(value);
+                    break;
+                case PATH_DELIM:
+                case DIRECTORY_MARKER:
+                    if (plain && segment.length() > 0) segmentKey = segment.toString();
+                    segment.setLength(0);
+                    plain = true;
+                    break;
+                case NEGATE:
+                case ROOTED_MARKER:
+                case COMMENT:
+                    continue;
+                default:
+                    plain = false;
+                    break;
+            }
+            last = part;
+        }
+
+        if (complete && last != null && plain && segment.length() > 0) segmentKey = segment.toString();
+        if (segmentKey != null) {
+            segments.add(segmentKey);
+            return true;
+        }
+
+        // DirectoryRule also matches contents, whose file names are unrelated to the pattern.
+        if (complete && !(rule instanceof DirectoryRule) && last != null && IgnoreLineParser.Token.TEXT.equals(last.getToken())) {
+            String value = last.getValue();
+            int dot = value.lastIndexOf('.');
+            if (dot >= 0 && dot < value.length() - 1 && value.indexOf('?', dot) < 0) {
+                extensions.add(value.substring(dot + 1));
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static long hash(long seed, CharSequence text, int start, int end) {
+        long h = seed;
+        for (int i = start; i < end; i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        // murmur3 finalizer, so both halves are usable as independent hashes.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean contains(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Determines whether any keyed rule could match {@code relativePath}.
+     *
+     * @param relativePath The {@code /} delimited path relative to the ignore file.
+     * @return {@code false} if no keyed rule can match the path, {@code true} if one might.
+     */
+    public boolean mightMatch(String relativePath) {
+        if (empty) return false;
+
+        int end = relativePath.length();
+        while (end > 1 && relativePath.charAt(end - 1) == '/') end--;
+
+        int start = 0;
+        for (int i = 0; i <= end; i++) {
+            if (i == end || relativePath.charAt(i) == '/') {
+                if (i > start && contains(hash(SEGMENT_SEED, relativePath, start, i))) return true;
+                start = i + 1;
+            }
+        }
+
+        int dot = relativePath.lastIndexOf('.', end - 1);
+        return dot > relativePath.lastIndexOf('/', end - 1) && dot < end - 1 && contains(hash(EXTENSION_SEED, relativePath, dot + 1, end));
+    }
+
+    /**
+     * Removes every keyed rule from {@code candidates}, leaving those rules for which no key could be determined.
+     * Call this when {@link SegmentBloomFilter#mightMatch(String)} returns {@code false}.
+     *
+     * @param candidates The indexes of rules which are candidates for a match.
+     */
+    public void retainUnkeyed(BitSet candidates) {
+        candidates.and(unkeyed);
+    }
+
+    /**
+     * Determines whether every rule is represented by this filter, such that {@link SegmentBloomFilter#mightMatch(String)}
+     * returning {@code false} proves no rule matches.
+     *
+     * @return {@code true} if there are no unkeyed rules.
+     */
+    public boolean isExhaustive() {
+        return unkeyed.isEmpty();
+    }
+}
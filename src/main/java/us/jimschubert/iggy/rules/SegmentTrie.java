@@ -0,0 +1,324 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches paths one segment at a time against a list of rules compiled into a trie of path segments.
+ * <p>
+ * Each pattern is split on {@code /} into segments. Literal segments are followed by lookup, wildcard segments
+ * (e.g. {@code *.txt}) by a glob over the single segment, and {@code **} by a node which consumes one or more segments.
+ * A {@link State} holds the nodes reached by the segments consumed so far, so a tree walker can keep the state of a
+ * directory and extend it for each child. The cost of evaluating a child is then proportional to its name.
+ * <p>
+ * Patterns which can't be split into segments (e.g. {@code foo**}, or a group containing {@code /}) are not compiled
+ * into the trie. These are reported by {@link SegmentTrie#isOpaque(int)} and must be evaluated directly.
+ */
+public final class SegmentTrie {
+    private final List<Node> nodes = new ArrayList<>();
+    private final BitSet opaque = new BitSet();
+    private final Node root;
+
+    private SegmentTrie(List<Rule> rules) {
+        root = newNode(false);
+        for (int i = 0; i < rules.size(); i++) {
+            if (!add(i, rules.get(i))) opaque.set(i);
+        }
+    }
+
+    /**
+     * Compiles a trie for an ordered list of rules.
+     *
+     * @param rules The rules to compile. Indexes reported by a {@link State} refer to this list.
+     * @return A new {@link SegmentTrie}.
+     */
+    public static SegmentTrie compile(List<Rule> rules) {
+        return new SegmentTrie(rules);
+    }
+
+    /**
+     * Gets the state of the directory containing the ignore file, before any segment is consumed.
+     *
+     * @return The root state.
+     */
+    public State root() {
+        return new State(this, new int[]{root.id});
+    }
+
+    /**
+     * Determines whether a rule couldn't be compiled into the trie. Such rules are never reported by a {@link State}.
+     *
+     * @param index The index of the rule.
+     * @return {@code true} if the rule must be evaluated directly.
+     */
+    public boolean isOpaque(int index) {
+        return opaque.get(index);
+    }
+
+    private Node newNode(boolean loop) {
+        Node node = new Node(nodes.size(), loop);
+        nodes.add(node);
+        return node;
+    }
+
+    private boolean add(int index, Rule rule) {
+        // NOTE: Windows file systems match case-insensitively and accept either separator.
+        if (!(rule instanceof FileRule) || rule.getSyntax() == null || File.separatorChar != '/') {
+            return rule instanceof InvalidRule; // never matches, so needs no representation
+        }
+
+        List<List<Part>> segments = new ArrayList<>();
+        List<Part> current = new ArrayList<>();
+        for (Part part : rule.getSyntax()) {
+            switch (part.getToken()) {
+                case PATH_DELIM:
+                case DIRECTORY_MARKER:
+                    segments.add(current);
+                    current = new ArrayList<>();
+                    break;
+                case NEGATE:
+                case ROOTED_MARKER:
+                case COMMENT:
+                    break;
+                default:
+                    if (!IgnoreLineParser.Token.TEXT.equals(part.getToken()) || !part.getValue().isEmpty()) {
+                        current.add(part);
+                    }
+                    break;
+            }
+        }
+        segments.add(current);
+
+        boolean directory = rule instanceof DirectoryRule;
+        if (directory) {
+            // Drop the segment following the directory marker.
+            if (!current.isEmpty()) return false;
+            segments.remove(segments.size() - 1);
+        }
+        if (segments.isEmpty()) return false;
+
+        // Build all edges in a scratch list first, so a rule which turns out to be opaque leaves no nodes behind.
+        List<Object> edges = new ArrayList<>();
+        for (List<Part> segment : segments) {
+            Object edge = edge(segment);
+            if (edge == null) return false;
+            edges.add(edge);
+        }
+
+        Node node = root;
+        for (Object edge : edges) {
+            node = follow(node, edge);
+        }
+
+        if (directory) {
+            // foo/ matches the directory foo (when known to be a directory), and anything below it.
+            node.directoryTerminals.set(index);
+            follow(node, IgnoreLineParser.Token.MATCH_ALL).terminals.set(index);
+        } else {
+            node.terminals.set(index);
+        }
+        return true;
+    }
+
+    /**
+     * Determines the edge for a segment: {@link IgnoreLineParser.Token#MATCH_ALL}, a literal {@link String}, or a {@link Glob}.
+     */
+    private static Object edge(List<Part> segment) {
+        if (segment.isEmpty()) return null;
+        if (segment.size() == 1 && IgnoreLineParser.Token.MATCH_ALL.equals(segment.get(0).getToken())) {
+            return IgnoreLineParser.Token.MATCH_ALL;
+        }
+
+        StringBuilder glob = new StringBuilder();
+        boolean literal = true;
+        for (Part part : segment) {
+            switch (part.getToken()) {
+                case TEXT:
+                    String value = part.getValue();
+                    for (int i = 0; i < value.length() && literal; i++) {
+                        literal = "\\*?[]{}".indexOf(value.charAt(i)) < 0;
+                    }
+                    glob.append(value);
+                    break;
+                case MATCH_ANY:
+                case ESCAPED_SPACE:
+                case ESCAPED_EXCLAMATION:
+                    literal = false;
+                    glob.append(part.getValue());
+                    break;
+                default:
+                    // ** within a segment crosses segment boundaries.
+                    return null;
+            }
+        }
+
+        if (literal) return glob.toString();
+        try {
+            GlobAutomaton.Syntax parsed = GlobAutomaton.parse(glob.toString());
+            if (parsed.isSupported() && parsed.getPositions() <= GlobAutomaton.MAX_POSITIONS) {
+                return new Glob(glob.toString(), GlobAutomaton.compile(parsed), null);
+            }
+            return new Glob(glob.toString(), null, FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        } catch (PatternSyntaxException e) {
+            // e.g. a group or class split across segments
+            return null;
+        }
+    }
+
+    private Node follow(Node node, Object edge) {
+        if (edge == IgnoreLineParser.Token.MATCH_ALL) {
+            if (node.doubleStar == null) node.doubleStar = newNode(true);
+            return node.doubleStar;
+        } else if (edge instanceof String) {
+            Node child = node.literals.get(edge);
+            if (child == null) {
+                child = newNode(false);
+                node.literals.put((String) edge, child);
+            }
+            return child;
+        } else {
+            Glob glob = (Glob) edge;
+            for (Glob existing : node.globs) {
+                if (existing.glob.equals(glob.glob)) return existing.target;
+            }
+            glob.target = newNode(false);
+            node.globs.add(glob);
+            return glob.target;
+        }
+    }
+
+    private static final class Node {
+        final int id;
+        final boolean loop;
+        final Map<String, Node> literals = new HashMap<>();
+        final List<Glob> globs = new ArrayList<>();
+        final BitSet terminals = new BitSet();
+        final BitSet directoryTerminals = new BitSet();
+        Node doubleStar;
+
+        Node(int id, boolean loop) {
+            this.id = id;
+            this.loop = loop;
+        }
+    }
+
+    private static final class Glob {
+        final String glob;
+        // One of automaton or matcher; matcher only when the automaton can't represent the glob exactly.
+        final GlobAutomaton automaton;
+        final PathMatcher matcher;
+        Node target;
+
+        Glob(String glob, GlobAutomaton automaton, PathMatcher matcher) {
+            this.glob = glob;
+            this.automaton = automaton;
+            this.matcher = matcher;
+        }
+
+        boolean matches(String segment) {
+            return automaton != null ? automaton.matches(segment) : matcher.matches(FileSystems.getDefault().getPath(segment));
+        }
+    }
+
+    /**
+     * The nodes of a {@link SegmentTrie} reached after consuming the segments of a path. Instances are immutable,
+     * and may be shared between threads.
+     */
+    public static final class State {
+        private final SegmentTrie trie;
+        private final int[] active;
+
+        private State(SegmentTrie trie, int[] active) {
+            this.trie = trie;
+            this.active = active;
+        }
+
+        /**
+         * Consumes the segments of a path relative to this state.
+         *
+         * @param relativePath A single name (e.g. a file in this directory), or a {@code /} delimited path.
+         * @return The state after consuming each segment of {@code relativePath}.
+         */
+        public State resolve(String relativePath) {
+            State state = this;
+            int start = 0;
+            for (int i = 0, length = relativePath.length(); i <= length; i++) {
+                if (i == length || relativePath.charAt(i) == '/') {
+                    if (i > start) state = state.step(relativePath.substring(start, i));
+                    start = i + 1;
+                }
+            }
+            return state;
+        }
+
+        private State step(String segment) {
+            if (active.length == 0) return this;
+
+            List<Node> nodes = trie.nodes;
+            BitSet next = new BitSet(nodes.size());
+            for (int id : active) {
+                Node node = nodes.get(id);
+                if (node.loop) next.set(id);
+                if (node.doubleStar != null) next.set(node.doubleStar.id);
+                Node literal = node.literals.isEmpty() ? null : node.literals.get(segment);
+                if (literal != null) next.set(literal.id);
+                for (int g = 0; g < node.globs.size(); g++) {
+                    Glob glob = node.globs.get(g);
+                    if (glob.matches(segment)) next.set(glob.target.id);
+                }
+            }
+
+            int[] reached = new int[next.cardinality()];
+            for (int i = next.nextSetBit(0), n = 0; i >= 0; i = next.nextSetBit(i + 1)) reached[n++] = i;
+            return Arrays.equals(reached, active) ? this : new State(trie, reached);
+        }
+
+        /**
+         * Determines which compiled rules match the path consumed by this state.
+         *
+         * @param isDirectory {@code true} if the path is a directory, otherwise {@code false}.
+         * @param matched     Receives the index of every matching rule. Opaque rules are never reported.
+         */
+        public void matches(boolean isDirectory, BitSet matched) {
+            List<Node> nodes = trie.nodes;
+            for (int id : active) {
+                Node node = nodes.get(id);
+                matched.or(node.terminals);
+                if (isDirectory) matched.or(node.directoryTerminals);
+            }
+        }
+
+        /**
+         * Determines whether no further segment can lead to a match by any compiled rule.
+         *
+         * @return {@code true} if this state has no active nodes.
+         */
+        public boolean isDead() {
+            return active.length == 0;
+        }
+    }
+}
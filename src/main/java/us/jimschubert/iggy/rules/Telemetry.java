@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+/**
+ * Reports loading, compilation and evaluation to JDK Flight Recorder, when the runtime provides it.
+ * <p>
+ * The events are reached reflectively, so iggy builds on JDKs without Flight Recorder (e.g. Java 8 before 8u262). They
+ * are only defined once {@link Telemetry#isAvailable()} has found {@code jdk.jfr.Event}, so on runtimes without Flight
+ * Recorder each method returns immediately. Where Flight Recorder is present but an event isn't enabled by a recording,
+ * {@code begin} methods return {@code null} after a single flag check.
+ * <p>
+ * Each {@code begin} method returns an opaque handle (or {@code null}), which is passed to the matching {@code end}
+ * method. The events are:
+ * <ul>
+ * <li>{@code us.jimschubert.iggy.Load}: an ignore source was loaded (source, lines, rules).</li>
+ * <li>{@code us.jimschubert.iggy.Compile}: a matcher was built for a pattern (kind, pattern, linear). Recorded only
+ * above 100 µs by default.</li>
+ * <li>{@code us.jimschubert.iggy.Evaluation}: a path was evaluated (path, rules tested, deciding rule). Recorded only
+ * above 1 ms by default.</li>
+ * </ul>
+ * Thresholds can be changed in the recording's settings, as for any event.
+ */
+public final class Telemetry {
+    private static final boolean AVAILABLE = available();
+
+    private Telemetry() {
+    }
+
+    private static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Telemetry.class.getClassLoader());
+            return FlightEvents.initialize();
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Determines whether the runtime provides JDK Flight Recorder.
+     *
+     * @return {@code true} if events can be recorded.
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Begins timing the load of an ignore source.
+     *
+     * @return A handle for {@link Telemetry#endLoad(Object, String, int, int)}, or {@code null} if the event isn't recorded.
+     */
+    public static Object beginLoad() {
+        return AVAILABLE ? FlightEvents.beginLoad() : null;
+    }
+
+    /**
+     * Ends timing the load of an ignore source, and records it.
+     *
+     * @param handle The handle returned by {@link Telemetry#beginLoad()}; ignored if {@code null}.
+     * @param source The name of the source (e.g. the path of the ignore file).
+     * @param lines  The number of lines read.
+     * @param rules  The number of rules created.
+     */
+    public static void endLoad(Object handle, String source, int lines, int rules) {
+        if (handle != null) FlightEvents.endLoad(handle, source, lines, rules);
+    }
+
+    /**
+     * Begins timing the compilation of a pattern.
+     *
+     * @return A handle for {@link Telemetry#endCompile(Object, String, String, boolean)}, or {@code null} if the event isn't recorded.
+     */
+    static Object beginCompile() {
+        return AVAILABLE ? FlightEvents.beginCompile() : null;
+    }
+
+    /**
+     * Ends timing the compilation of a pattern, and records it if it took longer than the event's threshold.
+     *
+     * @param handle  The handle returned by {@link Telemetry#beginCompile()}; ignored if {@code null}.
+     * @param kind    The kind of matcher built.
+     * @param pattern The glob compiled.
+     * @param linear  {@code false} if the matcher backtracks.
+     */
+    static void endCompile(Object handle, String kind, String pattern, boolean linear) {
+        if (handle != null) FlightEvents.endCompile(handle, kind, pattern, linear);
+    }
+
+    /**
+     * Begins timing the evaluation of a path.
+     *
+     * @return A handle for {@link Telemetry#endEvaluation(Object, String, boolean, int, Rule)}, or {@code null} if the event isn't recorded.
+     */
+    public static Object beginEvaluation() {
+        return AVAILABLE ? FlightEvents.beginEvaluation() : null;
+    }
+
+    /**
+     * Ends timing the evaluation of a path, and records it if it took longer than the event's threshold.
+     *
+     * @param handle      The handle returned by {@link Telemetry#beginEvaluation()}; ignored if {@code null}.
+     * @param path        The path evaluated.
+     * @param isDirectory {@code true} if the path was evaluated as a directory.
+     * @param tested      The number of rules evaluated against the path.
+     * @param decidedBy   The rule which decided the outcome, or {@code null} if the path was allowed by default.
+     */
+    public static void endEvaluation(Object handle, String path, boolean isDirectory, int tested, Rule decidedBy) {
+        if (handle != null) FlightEvents.endEvaluation(handle, path, isDirectory, tested, decidedBy);
+    }
+}
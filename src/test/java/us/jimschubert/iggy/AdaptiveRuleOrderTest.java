@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.testng.Assert.assertEquals;
+
+public class AdaptiveRuleOrderTest {
+    private static BitSet rules(int... indexes) {
+        BitSet set = new BitSet();
+        for (int index : indexes) set.set(index);
+        return set;
+    }
+
+    @Test
+    public void testPlanOrdersMostFrequentRulesFirst() {
+        // Arrange
+        AdaptiveRuleOrder order = new AdaptiveRuleOrder(20);
+
+        // Act
+        for (int n = 0; n < AdaptiveRuleOrder.INTERVAL - 1; n++) {
+            order.record(n % 4 == 0 ? rules(3, 12) : n % 4 == 1 ? rules(12) : n % 4 == 2 ? rules(7) : rules());
+        }
+        int[] before = order.getPlan();
+        order.record(rules(19));
+
+        // Assert
+        assertEquals(before.length, 0);
+        assertEquals(Arrays.toString(order.getPlan()), "[12, 3, 7, 19]");
+    }
+
+    @Test
+    public void testPlanFollowsWorkload() {
+        // Arrange
+        AdaptiveRuleOrder order = new AdaptiveRuleOrder(AdaptiveRuleOrder.PLAN_SIZE + 4);
+        for (int n = 0; n < AdaptiveRuleOrder.INTERVAL; n++) order.record(rules(n % (AdaptiveRuleOrder.PLAN_SIZE + 4)));
+
+        // Act
+        for (int n = 0; n < 2 * AdaptiveRuleOrder.INTERVAL; n++) order.record(rules(n % 2 == 0 ? 5 : 1));
+
+        // Assert
+        int[] plan = order.getPlan();
+        assertEquals(plan.length, AdaptiveRuleOrder.PLAN_SIZE);
+        assertEquals(plan[0], 1);
+        assertEquals(plan[1], 5);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class ArchiveFilterTest {
+    private static final List<String> ENTRIES = Arrays.asList("META-INF/", "META-INF/MANIFEST.MF", "docs/", "docs/README.md",
+            "docs/api/index.html", "com/example/App.class", "com/example/App.java", "build/", "build/out.txt", "logs/debug.log");
+    private static final List<String> ALLOWED = Arrays.asList("META-INF/", "META-INF/MANIFEST.MF", "com/example/App.class", "logs/debug.log");
+
+    private static IgnoreProcessor processor() {
+        return new IgnoreProcessor.Builder(System.getProperty("java.io.tmpdir"))
+                .addLines(".ignore", Arrays.asList("docs/", "**/*.java", "build"))
+                .build();
+    }
+
+    private static byte[] archive() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            for (String name : ENTRIES) {
+                ZipEntry entry = new ZipEntry(name);
+                byte[] content = name.endsWith("/") ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+                if (name.endsWith(".class")) {
+                    // Stored entries must carry their size and checksum.
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(content.length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testAllowsEntryNames() throws Exception {
+        // Arrange
+        ArchiveFilter filter = new ArchiveFilter(processor());
+
+        // Act & Assert
+        assertTrue(filter.allows("com/example/App.class"));
+        assertFalse(filter.allows("docs/"), "A directory entry matching a directory rule should be excluded.");
+        assertTrue(filter.allows("docs"), "A file entry shouldn't match a directory rule.");
+        assertFalse(filter.allows("build/out.txt"), "An entry within an excluded directory should be excluded.");
+        assertFalse(filter.allows("/com/example/App.java"), "A leading slash should be ignored.");
+        assertTrue(filter.allows("/"));
+    }
+
+    @Test
+    public void testFilterStreamInSinglePass() throws Exception {
+        // Arrange
+        ArchiveFilter filter = new ArchiveFilter(processor());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        // Act
+        int written;
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive()));
+             ZipOutputStream out = new ZipOutputStream(bytes)) {
+            written = filter.filter(in, out);
+        }
+
+        // Assert
+        assertEquals(written, ALLOWED.size());
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                names.add(entry.getName());
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[64];
+                int read;
+                while ((read = in.read(buffer)) != -1) content.write(buffer, 0, read);
+                if (!entry.isDirectory()) {
+                    assertEquals(new String(content.toByteArray(), StandardCharsets.UTF_8), entry.getName());
+                }
+            }
+        }
+        assertEquals(names, ALLOWED);
+    }
+
+    @Test
+    public void testFilterZipFileAndFileSystem() throws Exception {
+        // Arrange
+        Path zip = Files.createTempFile(getClass().getSimpleName(), ".zip");
+        Files.write(zip, archive());
+        try {
+            // Act
+            List<String> fromZipFile = new ArrayList<>();
+            try (ZipFile archive = new ZipFile(zip.toFile())) {
+                for (ZipEntry entry : new ArchiveFilter(processor()).entries(archive)) fromZipFile.add(entry.getName());
+            }
+
+            final List<String> fromFileSystem = new ArrayList<>();
+            final ArchiveFilter filter = new ArchiveFilter(processor());
+            try (FileSystem fileSystem = FileSystems.newFileSystem(zip, (ClassLoader) null)) {
+                Files.walkFileTree(fileSystem.getPath("/"), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        if (dir.getNameCount() == 0) return FileVisitResult.CONTINUE;
+                        return filter.allows(dir, attrs) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (filter.allows(file, attrs)) fromFileSystem.add(file.toString().substring(1));
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+
+            // Assert
+            assertEquals(fromZipFile, ALLOWED);
+            fromFileSystem.sort(null);
+            assertEquals(fromFileSystem, Arrays.asList("META-INF/MANIFEST.MF", "com/example/App.class", "logs/debug.log"));
+        } finally {
+            Files.delete(zip);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.testng.Assert.assertEquals;
+
+public class ArchiveWriterTest {
+    private static final List<String> EXPECTED = Arrays.asList("README.md", "docs/", "docs/index.md", "src/", "src/main/",
+            "src/main/App.java", "src/main/large.bin");
+
+    private Path root;
+    private byte[] large;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory(ArchiveWriterTest.class.getSimpleName());
+        // Several blocks of partly compressible content.
+        large = new byte[DeflatePipeline.BLOCK * 3 + 1234];
+        Random random = new Random(42);
+        for (int i = 0; i < large.length; i++) large[i] = (byte) (i % 1000 < 500 ? i % 7 : random.nextInt());
+
+        write("src/main/App.java", "class App {}".getBytes(StandardCharsets.UTF_8));
+        write("src/main/large.bin", large);
+        write("src/main/App.java.orig", "old".getBytes(StandardCharsets.UTF_8));
+        write("README.md", "readme".getBytes(StandardCharsets.UTF_8));
+        write("docs/index.md", new byte[0]);
+        write("build/out.txt", "out".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void write(String path, byte[] content) throws IOException {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1500000000000L));
+    }
+
+    private byte[] archive(ArchiveWriter.Format format, ForkJoinPool pool) throws IOException {
+        IgnoreProcessor rules = new IgnoreProcessor.Builder(System.getProperty("java.io.tmpdir"))
+                .addLines(".ignore", Arrays.asList("build/", "**/*.orig"))
+                .build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int entries = new ArchiveWriter.Builder(rules, format).setPool(pool).build().write(root, out);
+        assertEquals(entries, EXPECTED.size());
+        return out.toByteArray();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the entries of a tar archive, applying pax path records.
+     */
+    private static Map<String, byte[]> untar(byte[] archive) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(archive)));
+        byte[] header = new byte[512];
+        String paxPath = null;
+        while (true) {
+            in.readFully(header);
+            if (header[0] == 0) break;
+            String name = new String(header, 0, 100, StandardCharsets.UTF_8).replace("\0", "");
+            long size = Long.parseLong(new String(header, 124, 11, StandardCharsets.US_ASCII), 8);
+            byte[] content = new byte[(int) size];
+            in.readFully(content);
+            in.readFully(new byte[(int) ((512 - size % 512) % 512)]);
+            if (header[156] == 'x') {
+                String record = new String(content, StandardCharsets.UTF_8);
+                paxPath = record.substring(record.indexOf("path=") + 5, record.length() - 1);
+                continue;
+            }
+            entries.put(paxPath != null ? paxPath : name, content);
+            paxPath = null;
+        }
+        return entries;
+    }
+
+    @Test
+    public void testWritesZipInOrder() throws Exception {
+        // Act
+        byte[] archive = archive(ArchiveWriter.Format.ZIP, null);
+
+        // Assert: both the local headers and the central directory are readable.
+        List<String> streamed = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                streamed.add(entry.getName());
+                if (entry.getName().equals("src/main/large.bin")) assertEquals(read(in), large);
+            }
+        }
+        assertEquals(streamed, EXPECTED);
+
+        Path file = Files.createTempFile(getClass().getSimpleName(), ".zip");
+        try {
+            Files.write(file, archive);
+            try (ZipFile zip = new ZipFile(file.toFile())) {
+                assertEquals(zip.size(), EXPECTED.size());
+                assertEquals(read(zip.getInputStream(zip.getEntry("src/main/App.java"))), "class App {}".getBytes(StandardCharsets.UTF_8));
+                assertEquals(read(zip.getInputStream(zip.getEntry("src/main/large.bin"))), large);
+                assertEquals(zip.getEntry("docs/index.md").getSize(), 0);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testWritesTarGzInOrder() throws Exception {
+        // Arrange
+        String longName = "src/main/" + new String(new char[120]).replace('\0', 'n') + ".txt";
+        write(longName, "long".getBytes(StandardCharsets.UTF_8));
+        List<String> expected = new ArrayList<>(EXPECTED);
+        expected.add(longName);
+
+        // Act
+        IgnoreProcessor rules = new IgnoreProcessor.Builder(System.getProperty("java.io.tmpdir"))
+                .addLines(".ignore", Arrays.asList("build/", "**/*.orig"))
+                .build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ArchiveWriter.Builder(rules, ArchiveWriter.Format.TAR_GZ).build().write(root, out);
+        Map<String, byte[]> entries = untar(out.toByteArray());
+
+        // Assert
+        assertEquals(new ArrayList<>(entries.keySet()), expected);
+        assertEquals(entries.get("src/main/large.bin"), large);
+        assertEquals(entries.get(longName), "long".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParallelCompressionIsDeterministic() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (ArchiveWriter.Format format : ArchiveWriter.Format.values()) {
+                // Act
+                byte[] sequential = archive(format, null);
+                byte[] parallel = archive(format, pool);
+
+                // Assert
+                assertEquals(parallel, sequential, format.name());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
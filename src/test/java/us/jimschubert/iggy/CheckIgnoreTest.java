@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class CheckIgnoreTest {
+
+    private static String run(Path directory, String input, String... args) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        List<String> arguments = new ArrayList<>(Arrays.asList("-C", directory.toString()));
+        arguments.addAll(Arrays.asList(args));
+
+        int status = CheckIgnore.run(arguments.toArray(new String[0]), new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+                out, new PrintStream(err, true));
+
+        assertEquals(status, 0, new String(err.toByteArray(), StandardCharsets.UTF_8));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Path project(String ignore, String gitignore) throws IOException {
+        Path directory = Files.createTempDirectory(CheckIgnoreTest.class.getSimpleName());
+        Files.write(directory.resolve(".ignore"), ignore.getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve(".gitignore"), gitignore.getBytes(StandardCharsets.UTF_8));
+        return directory;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        Files.delete(directory.resolve(".ignore"));
+        Files.delete(directory.resolve(".gitignore"));
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testWritesAllowedPathsInInputOrder() throws Exception {
+        // Arrange
+        Path directory = project("**/*.log\nbuild/\n", "");
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            String path = i % 3 == 0 ? "logs/run" + i + ".log" : "src/File" + i + ".java";
+            input.append(path).append('\n');
+            if (i % 3 != 0) expected.append(path).append('\n');
+        }
+        input.append("build/\n./build.gradle\r\n\n");
+        expected.append("./build.gradle\n");
+
+        try {
+            // Act
+            String actual = run(directory, input.toString(), "--threads", "4", "--batch", "7");
+
+            // Assert
+            assertEquals(actual, expected.toString());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testNulDelimitedVerboseRecords() throws Exception {
+        // Arrange
+        Path directory = project("**/*.log\n", "# generated\nbuild/\n");
+        String input = "build/out.txt\0logs/app.log\0src/App.java\0with\nnewline.log\0logs/tab\tand:colon.log";
+
+        try {
+            // Act
+            String actual = run(directory, input, "-z", "-v", "-f", ".gitignore", "-f", ".ignore");
+
+            // Assert
+            // The layout of git check-ignore -z -v: source NUL line NUL pattern NUL path NUL, with empty fields for no match.
+            String gitignore = directory.resolve(".gitignore").toString();
+            String ignore = directory.resolve(".ignore").toString();
+            assertEquals(actual, gitignore + "\0" + "2\0" + "build/\0" + "build/out.txt\0" +
+                    ignore + "\0" + "1\0" + "**/*.log\0" + "logs/app.log\0" +
+                    "\0\0\0" + "src/App.java\0" +
+                    "\0\0\0" + "with\nnewline.log\0" +
+                    ignore + "\0" + "1\0" + "**/*.log\0" + "logs/tab\tand:colon.log\0");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testRecordsLargerThanBuffer() throws Exception {
+        // Arrange
+        char[] name = new char[(1 << 20) + 10];
+        Arrays.fill(name, 'a');
+        String large = new String(name);
+        CheckIgnore.RecordReader reader = new CheckIgnore.RecordReader(
+                Channels.newChannel(new ByteArrayInputStream(("first\n" + large + "\nlast").getBytes(StandardCharsets.UTF_8))), (byte) '\n');
+
+        // Act & Assert
+        assertEquals(reader.next(), "first");
+        assertEquals(reader.next(), large);
+        assertEquals(reader.next(), "last");
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testCachedRunsWriteSamePaths() throws Exception {
+        // Arrange
+        Path directory = project("**/*.log\nbuild/\n", "");
+        Path cache = Files.createTempFile(CheckIgnoreTest.class.getSimpleName(), ".cache");
+        String input = "logs/app.log\nsrc/App.java\nbuild/\nbuild.gradle\n";
+
+        try {
+            // Act
+            String cold = run(directory, input, "--cache", cache.toString(), "--threads", "2", "--batch", "1");
+            String warm = run(directory, input, "--cache", cache.toString());
+
+            // Assert
+            assertEquals(cold, "src/App.java\nbuild.gradle\n");
+            assertEquals(warm, cold);
+        } finally {
+            Files.delete(cache);
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testInvalidArguments() throws Exception {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = CheckIgnore.run(new String[]{"--threads", "0"}, new ByteArrayInputStream(new byte[0]),
+                new ByteArrayOutputStream(), new PrintStream(err, true));
+
+        assertEquals(status, 2);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class DecisionCacheTest {
+    private Path file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = Files.createTempFile(DecisionCacheTest.class.getSimpleName(), ".cache");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static IgnoreProcessor processor(String... lines) {
+        return new IgnoreProcessor.Builder(System.getProperty("java.io.tmpdir"))
+                .addLines(".ignore", Arrays.asList(lines))
+                .build();
+    }
+
+    private static String path(int i) {
+        return i % 5 == 0 ? "build/out" + i + ".class" : "src/main/File" + i + ".java";
+    }
+
+    @Test
+    public void testWarmRunAnswersFromFile() throws Exception {
+        // Arrange
+        IgnoreProcessor processor = processor("build/", "*.log");
+        try (DecisionCache cache = DecisionCache.open(file, processor)) {
+            for (int i = 0; i < 50000; i++) cache.allowsPath(path(i), false);
+            assertEquals(cache.getMisses(), 50000);
+            assertEquals(cache.size(), 50000);
+        }
+
+        // Act
+        try (DecisionCache cache = DecisionCache.open(file, processor)) {
+            for (int i = 0; i < 50000; i++) {
+                // Assert
+                assertEquals(cache.allowsPath(path(i), false), processor.allowsPath(path(i), false), path(i));
+            }
+            assertEquals(cache.getHits(), 50000);
+            assertEquals(cache.getMisses(), 0);
+
+            assertFalse(cache.allowsPath("build", true));
+            assertTrue(cache.allowsPath("build", false));
+        }
+    }
+
+    @Test
+    public void testChangedRulesEmptyCache() throws Exception {
+        // Arrange
+        try (DecisionCache cache = DecisionCache.open(file, processor("*.log"))) {
+            assertFalse(cache.allowsPath("app.log", false));
+        }
+
+        // Act: comments and blank lines don't change decisions.
+        try (DecisionCache cache = DecisionCache.open(file, processor("# logs", "", "*.log"))) {
+            // Assert
+            assertEquals(cache.size(), 1);
+        }
+
+        // Act
+        try (DecisionCache cache = DecisionCache.open(file, processor("*.log", "!app.log"))) {
+            // Assert
+            assertEquals(cache.size(), 0);
+            assertTrue(cache.allowsPath("app.log", false));
+        }
+    }
+
+    @Test
+    public void testFileLeftInUseIsEmptied() throws Exception {
+        // Arrange
+        IgnoreProcessor processor = processor("*.log");
+        try (DecisionCache cache = DecisionCache.open(file, processor)) {
+            cache.allowsPath("app.log", false);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // The state of an open cache, as after a crash.
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 1}), 16);
+        }
+
+        // Act
+        try (DecisionCache cache = DecisionCache.open(file, processor)) {
+            // Assert
+            assertEquals(cache.size(), 0);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class GitIndexTest {
+    // Index files written by git for a fixture repository, tracking these paths.
+    private static final List<String> TRACKED = Arrays.asList(".ignore", "README.md", "build/out.txt", "docs/README.md",
+            "docs/api/index.html", "logs/debug.log", "logs/keep.log", "src/main/java/com/example/App.java",
+            "src/main/java/com/example/Util.java", "src/main/java/com/example/\u00dcn\u00efcode.java",
+            "src/test/java/com/example/AppTest.java", "with space/file name.txt");
+
+    // The fixture repository's .ignore
+    private static final List<String> IGNORE = Arrays.asList("build/", "**/*.log", "!**/keep.log", "docs/api/", "**/Util.java");
+
+    private static Path fixture(String name) throws Exception {
+        return Paths.get(GitIndexTest.class.getResource("git/" + name).toURI());
+    }
+
+    @DataProvider(name = "versions")
+    public static Object[][] versions() {
+        return new Object[][]{{"index-v2", 2}, {"index-v3", 3}, {"index-v4", 4}};
+    }
+
+    @Test(dataProvider = "versions")
+    public void testReadsSortedPaths(String name, int version) throws Exception {
+        // Arrange
+        GitIndex index = GitIndex.open(fixture(name));
+
+        // Act
+        List<String> paths = new ArrayList<>();
+        for (GitIndex.Entry entry : index.entries()) {
+            paths.add(entry.getPath());
+            assertEquals(entry.getStage(), 0);
+            assertFalse(entry.isDirectory());
+            assertEquals(entry.getMode() & 0170000, 0100000);
+        }
+
+        // Assert
+        assertEquals(index.getVersion(), version);
+        assertEquals(index.getEntryCount(), TRACKED.size());
+        assertEquals(paths, TRACKED);
+    }
+
+    @Test(dataProvider = "versions")
+    public void testStreamsAllowedPaths(String name, int version) throws Exception {
+        // Arrange
+        GitIndex index = GitIndex.open(fixture(name));
+        final IgnoreProcessor processor = new IgnoreProcessor.Builder(System.getProperty("java.io.tmpdir"))
+                .addLines(".ignore", IGNORE)
+                .build();
+
+        // Act
+        final List<String> allowed = new ArrayList<>();
+        index.forEachAllowed(processor, new Consumer<GitIndex.Entry>() {
+            @Override
+            public void accept(GitIndex.Entry entry) {
+                allowed.add(entry.getPath());
+            }
+        });
+
+        // Assert
+        List<String> expected = new ArrayList<>();
+        for (String path : TRACKED) {
+            if (processor.allowsPath(path, false)) expected.add(path);
+        }
+        assertEquals(allowed, expected);
+        assertEquals(allowed, Arrays.asList(".ignore", "README.md", "docs/README.md", "logs/keep.log",
+                "src/main/java/com/example/App.java", "src/main/java/com/example/\u00dcn\u00efcode.java",
+                "src/test/java/com/example/AppTest.java", "with space/file name.txt"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testRejectsOtherFiles() throws Exception {
+        Path file = Files.createTempFile(getClass().getSimpleName(), ".index");
+        try {
+            Files.write(file, "not an index".getBytes(StandardCharsets.UTF_8));
+            GitIndex.open(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class IgnoreDaemonTest {
+    private Path directory;
+    private IgnoreDaemon daemon;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory(IgnoreDaemonTest.class.getSimpleName());
+        Files.write(directory.resolve(".gitignore"), "build/\n**/*.log\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve(".ignore"), "!**/keep.log\n".getBytes(StandardCharsets.UTF_8));
+        daemon = IgnoreDaemon.start(directory.resolve("iggy.sock"));
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        daemon.close();
+        Files.delete(directory.resolve(".gitignore"));
+        Files.delete(directory.resolve(".ignore"));
+        Files.delete(directory);
+    }
+
+    private static void age(Path file) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+    }
+
+    @Test
+    public void testClientMatchesLocalProcessor() throws Exception {
+        // Arrange
+        List<String> ignoreFiles = Arrays.asList(".gitignore", ".ignore");
+        List<String> paths = Arrays.asList("build/", "build/out.txt", "src/App.java", "logs/app.log", "logs/keep.log", "./logs/run.log");
+        IgnoreProcessor processor = new IgnoreProcessor.Builder(directory.toFile()).addFile(".gitignore").addFile(".ignore").build();
+
+        try (IgnoreDaemonClient client = IgnoreDaemonClient.connect(daemon.getSocket())) {
+            // Act
+            boolean[] allowed = client.allows(directory.toString(), ignoreFiles, paths);
+            List<String> records = client.explain(directory.toString(), ignoreFiles, paths);
+            List<String> nulRecords = client.explain(directory.toString(), ignoreFiles, paths, true);
+
+            // Assert
+            assertEquals(Arrays.toString(allowed), Arrays.toString(new boolean[]{false, false, true, false, true, false}));
+            for (int i = 0; i < paths.size(); i++) {
+                assertEquals(allowed[i], CheckIgnore.allows(processor, paths.get(i)), paths.get(i));
+                assertEquals(records.get(i), CheckIgnore.explain(processor, paths.get(i)));
+                assertEquals(nulRecords.get(i), CheckIgnore.explain(processor, paths.get(i), true));
+            }
+        }
+    }
+
+    @Test
+    public void testReusesProcessorUntilIgnoreFileChanges() throws Exception {
+        // Arrange
+        Path gitignore = directory.resolve(".gitignore");
+        List<String> ignoreFiles = Collections.singletonList(".gitignore");
+        age(gitignore);
+        IgnoreProcessor first = daemon.processor(directory.toString(), ignoreFiles);
+
+        // Act
+        IgnoreProcessor unchanged = daemon.processor(directory.toString(), ignoreFiles);
+        Files.setLastModifiedTime(gitignore, FileTime.fromMillis(System.currentTimeMillis()));
+        IgnoreProcessor touched = daemon.processor(directory.toString(), ignoreFiles);
+        // Same size, and written within the same modification time tick: only the content differs.
+        Files.write(gitignore, "build/\n**/*.txt\n".getBytes(StandardCharsets.UTF_8));
+        IgnoreProcessor changed = daemon.processor(directory.toString(), ignoreFiles);
+
+        // Assert
+        assertSame(unchanged, first);
+        assertSame(touched, first);
+        assertNotSame(changed, first);
+        assertTrue(changed.allowsPath("logs/app.log", false));
+        assertFalse(changed.allowsPath("docs/notes.txt", false));
+    }
+
+    @Test
+    public void testMissingIgnoreFileIsSkipped() throws Exception {
+        try (IgnoreDaemonClient client = IgnoreDaemonClient.connect(daemon.getSocket())) {
+            boolean[] allowed = client.allows(directory.toString(), Arrays.asList(".gitignore", ".missing"),
+                    Arrays.asList("build/", "logs/keep.log"));
+
+            assertEquals(Arrays.toString(allowed), Arrays.toString(new boolean[]{false, false}));
+        }
+    }
+
+    @Test
+    public void testRefusesSocketInUse() throws Exception {
+        // Act
+        FileAlreadyExistsException thrown = null;
+        try {
+            IgnoreDaemon.start(daemon.getSocket()).close();
+        } catch (FileAlreadyExistsException e) {
+            thrown = e;
+        }
+
+        // Assert
+        assertNotNull(thrown);
+        assertTrue(thrown.getMessage().contains("already in use"), thrown.getMessage());
+        try (IgnoreDaemonClient client = IgnoreDaemonClient.connect(daemon.getSocket())) {
+            boolean[] allowed = client.allows(directory.toString(), Collections.singletonList(".gitignore"),
+                    Collections.singletonList("build/"));
+            assertEquals(Arrays.toString(allowed), Arrays.toString(new boolean[]{false}));
+        }
+    }
+
+    @Test
+    public void testRefusesOtherFiles() throws Exception {
+        // Arrange
+        Path file = directory.resolve("notes.txt");
+        Files.write(file, "not a socket\n".getBytes(StandardCharsets.UTF_8));
+
+        // Act
+        FileAlreadyExistsException thrown = null;
+        try {
+            IgnoreDaemon.start(file).close();
+        } catch (FileAlreadyExistsException e) {
+            thrown = e;
+        }
+
+        // Assert
+        assertNotNull(thrown);
+        assertTrue(thrown.getMessage().contains("not an iggy daemon endpoint"), thrown.getMessage());
+        assertEquals(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), "not a socket\n");
+        Files.delete(file);
+    }
+
+    @Test
+    public void testReplacesStaleEndpoint() throws Exception {
+        // Arrange
+        int port;
+        try (ServerSocketChannel closed = ServerSocketChannel.open()) {
+            closed.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            port = ((InetSocketAddress) closed.getLocalAddress()).getPort();
+        }
+        Path stale = directory.resolve("stale.sock");
+        Files.write(stale, ("iggy-tcp " + port + " 00\n").getBytes(StandardCharsets.UTF_8));
+
+        // Act
+        try (IgnoreDaemon replacement = IgnoreDaemon.start(stale);
+             IgnoreDaemonClient client = IgnoreDaemonClient.connect(replacement.getSocket())) {
+            boolean[] allowed = client.allows(directory.toString(), Collections.singletonList(".gitignore"),
+                    Collections.singletonList("build/"));
+
+            // Assert
+            assertEquals(Arrays.toString(allowed), Arrays.toString(new boolean[]{false}));
+        }
+        assertFalse(Files.exists(stale));
+    }
+
+    @Test
+    public void testCommandLineDaemonMode() throws Exception {
+        // Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        String input = "build/out.txt\nsrc/App.java\nlogs/app.log\nlogs/keep.log\n";
+
+        // Act
+        int status = CheckIgnore.run(new String[]{"-C", directory.toString(), "-f", ".gitignore", "-f", ".ignore",
+                        "--batch", "3", "--daemon", daemon.getSocket().toString()},
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out, new PrintStream(err, true));
+
+        // Assert
+        assertEquals(status, 0, new String(err.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), "src/App.java\nlogs/keep.log\n");
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.PatternSyntaxException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class IgnoreProcessorBuilderTest {
+    private static final String BASE = System.getProperty("java.io.tmpdir");
+
+    @DataProvider(name = "precedence")
+    public static Object[][] precedence() {
+        return new Object[][]{
+                {"*.log", "!keep.log", "keep.log", true, "A later source should re-include a file excluded by an earlier source."},
+                {"!keep.log", "*.log", "keep.log", false, "An earlier source should not re-include a file excluded by a later source."},
+                {"*.log\n!keep.log", "", "keep.log", true, "A source should re-include a file it excludes itself."},
+                {"logs/", "!logs/keep.log", "logs/keep.log", false, "A later source should not re-include a file within an excluded directory."},
+                {"*.log", "build/", "debug.log", false, "Exclusions from all sources should apply."},
+                {"*.log", "build/", "src/App.java", true, "A file matching no source should allow."}
+        };
+    }
+
+    @Test(dataProvider = "precedence")
+    public void testPrecedence(String global, String local, String path, boolean allowed, String description) throws Exception {
+        // Arrange
+        IgnoreProcessor processor = new IgnoreProcessor.Builder(BASE)
+                .addLines("global", Arrays.asList(global.split("\n")))
+                .addLines(".ignore", Arrays.asList(local.split("\n")))
+                .build();
+
+        IgnoreProcessor lazy = new IgnoreProcessor.Builder(BASE)
+                .addLines("global", Arrays.asList(global.split("\n")))
+                .addLines(".ignore", Arrays.asList(local.split("\n")))
+                .setLazyCompilationEnabled(true)
+                .build();
+
+        // Act
+        Boolean actual = processor.allowsPath(path, false);
+        Boolean walked = processor.cursor().resolve(path).allows(false);
+        Boolean lazyActual = lazy.allowsPath(path, false);
+
+        // Assert
+        assertEquals(actual.booleanValue(), allowed, description);
+        assertEquals(walked, actual, description + " (cursor)");
+        assertEquals(lazyActual, actual, description + " (lazy)");
+    }
+
+    @Test
+    public void testExplainRecordsWinningSource() throws Exception {
+        // Arrange
+        IgnoreProcessor processor = new IgnoreProcessor.Builder(BASE)
+                .addLines("global", Arrays.asList("# editors", "*.swp", "*.log"))
+                .addLines(".ignore", Arrays.asList("build/", "", "!keep.log"))
+                .build();
+
+        // Act
+        Explanation excluded = processor.explain("debug.log", false);
+        Explanation included = processor.explain("keep.log", false);
+        Explanation unmatched = processor.explain("src/App.java", false);
+
+        // Assert
+        assertFalse(excluded.isAllowed());
+        assertEquals(excluded.getSource(), "global");
+        assertEquals(excluded.getRule().getLineNumber(), 3);
+        assertEquals(excluded.toString(), "global:3:*.log\tdebug.log");
+
+        assertTrue(included.isAllowed());
+        assertEquals(included.toString(), ".ignore:3:!keep.log\tkeep.log");
+
+        assertTrue(unmatched.isAllowed());
+        assertNull(unmatched.getRule());
+        assertEquals(unmatched.toString(), "::\tsrc/App.java");
+    }
+
+    @Test
+    public void testMissingSourcesAreSkipped() throws Exception {
+        // Arrange
+        Path directory = Files.createTempDirectory(getClass().getSimpleName());
+        Path gitignore = directory.resolve(".gitignore");
+        Files.write(gitignore, "*.class\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            // Act
+            IgnoreProcessor processor = new IgnoreProcessor.Builder(directory.toFile())
+                    .addResource("us/jimschubert/iggy/missing.ignore")
+                    .addFile(".gitignore")
+                    .addFile(".ignore")
+                    .addLines("empty", Collections.<String>emptyList())
+                    .build();
+
+            // Assert
+            assertEquals(processor.getExclusionRules().size(), 1);
+            assertFalse(processor.allowsFile(directory.resolve("App.class").toFile()));
+            assertEquals(processor.explain("App.class", false).getSource(), gitignore.toFile().getPath());
+        } finally {
+            Files.delete(gitignore);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testSingleFileRulesRecordSource() throws IOException {
+        // Arrange
+        Path directory = Files.createTempDirectory(getClass().getSimpleName());
+        Path ignore = directory.resolve(".ignore");
+        Files.write(ignore, "# comment\n\n**/*.tmp\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            // Act
+            IgnoreProcessor processor = new IgnoreProcessor(directory.toString());
+
+            // Assert
+            assertEquals(processor.explain("a/b.tmp", false).toString(), ignore.toString() + ":3:**/*.tmp\ta/b.tmp");
+        } finally {
+            Files.delete(ignore);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Creates lines in which each path {@code dirN/keepK.txt} is matched by many exclusions and negations spread through
+     * the file, so its outcome depends on every rule keeping its line order. Every fifth line is blank or a comment.
+     */
+    private static List<String> interleavedKeepRules(int size) {
+        List<String> lines = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            switch (i % 5) {
+                case 0:
+                    lines.add("dir" + (i % 40) + "/*.txt");
+                    break;
+                case 1:
+                    lines.add("!dir" + (i % 40) + "/keep" + (i % 9) + ".txt");
+                    break;
+                case 2:
+                    lines.add(i % 2 == 0 ? "" : "# comment " + i);
+                    break;
+                case 3:
+                    lines.add("**/out" + (i % 30) + "/");
+                    break;
+                default:
+                    lines.add("dir" + (i % 40) + "/keep" + (i % 9) + ".*");
+                    break;
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void testParallelLoadingPreservesLineOrder() throws Exception {
+        // Arrange
+        List<String> lines = interleavedKeepRules(20000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            IgnoreProcessor sequential = new IgnoreProcessor.Builder(BASE).addLines(".ignore", lines).build();
+
+            // Act
+            IgnoreProcessor parallel = new IgnoreProcessor.Builder(BASE).addLines(".ignore", lines).setLoadingPool(pool).build();
+
+            // Assert
+            assertEquals(parallel.getExclusionRules().size(), sequential.getExclusionRules().size());
+            assertEquals(parallel.getInclusionRules().size(), sequential.getInclusionRules().size());
+            for (int d = 0; d < 40; d++) {
+                for (int k = 0; k < 9; k++) {
+                    String path = "dir" + d + "/keep" + k + ".txt";
+                    assertEquals(parallel.explain(path, false).toString(), sequential.explain(path, false).toString(), path);
+                }
+            }
+            assertEquals(parallel.explain("a/out7/b.txt", false).toString(), sequential.explain("a/out7/b.txt", false).toString());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelLoadingRethrowsFirstInvalidLine() throws Exception {
+        // Arrange
+        List<String> lines = interleavedKeepRules(10000);
+        lines.set(6000, "later[z-a]");
+        lines.set(3000, "first[z-a]");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        PatternSyntaxException actual = null;
+
+        // Act
+        try {
+            new IgnoreProcessor.Builder(BASE).addLines(".ignore", lines).setLoadingPool(pool).build();
+        } catch (PatternSyntaxException e) {
+            actual = e;
+        } finally {
+            pool.shutdown();
+        }
+
+        // Assert
+        assertTrue(actual != null && actual.getPattern().contains("first"), String.valueOf(actual));
+    }
+
+    @Test
+    public void testAdaptiveOrderingDecidesSameAsEvaluation() throws Exception {
+        // Arrange
+        List<String> global = Arrays.asList("*.log", "build/", "!keep.log", "**/*.tmp", "**/*.js");
+        List<String> project = Arrays.asList("!**/keep.js", "**/node_modules/", "!**/node_modules/keep/", "dist/",
+                "**/test*/", "!**/fixtures/*.tmp", "**/*.map", "node_modules/**/*.md", "/*.txt", "**/*.js");
+        List<String> local = Arrays.asList("vendor/**", "**/*.bak");
+        String[] names = {"node_modules", "src", "keep", "dist", "test", "fixtures", "vendor", "a.js", "keep.js", "b.tmp",
+                "c.log", "keep.log", "d.map", "README.md", "e.txt", "f.bak"};
+        IgnoreProcessor evaluated = new IgnoreProcessor.Builder(BASE).addLines("global", global).addLines(".ignore", project)
+                .addLines("local", local).build();
+
+        // Act
+        IgnoreProcessor adaptive = new IgnoreProcessor.Builder(BASE).addLines("global", global).addLines(".ignore", project)
+                .addLines("local", local).setAdaptiveOrderingEnabled(true).build();
+
+        // Assert
+        // Enough evaluations for several plans: most paths are below node_modules, until the mix changes halfway.
+        Random random = new Random(41);
+        for (int n = 0; n < 100000; n++) {
+            StringBuilder path = new StringBuilder(random.nextInt(10) < (n < 50000 ? 9 : 2) ? "node_modules" : "");
+            for (int d = random.nextInt(4); d >= 0; d--) {
+                if (path.length() > 0) path.append('/');
+                path.append(names[random.nextInt(names.length)]);
+            }
+            boolean isDirectory = random.nextBoolean();
+            String relativePath = path.toString();
+
+            boolean expected = evaluated.allowsPath(relativePath, isDirectory);
+            assertEquals(adaptive.allowsPath(relativePath, isDirectory), expected, relativePath);
+            if (n % 100 == 0) {
+                assertEquals(adaptive.explain(relativePath, isDirectory).toString(), evaluated.explain(relativePath, isDirectory).toString());
+            }
+        }
+    }
+}
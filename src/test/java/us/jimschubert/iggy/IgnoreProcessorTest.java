@@ -42,6 +42,7 @@ public class IgnoreProcessorTest {
     private final String description;
     private Boolean allowed;
     private Boolean skip = false;
+    private Boolean directory = false;
     private String outputDir;
     private File target;
     private Path temp;
@@ -83,6 +84,10 @@ public class IgnoreProcessorTest {
                 // Directory matches
                 new IgnoreProcessorTest("docs/1/Users/a", "docs/**/Users/", "A directory rule when matching should be ignored.").ignored(),
                 new IgnoreProcessorTest("docs/1/Users1/a", "docs/**/Users/", "A directory rule when non-matching should be allowed.").allowed(),
+                new IgnoreProcessorTest("docs/1/Users", "docs/**/Users/", "A directory rule when matching the directory itself should be ignored.").directory().ignored(),
+                new IgnoreProcessorTest("docs/1/Users1", "docs/**/Users/", "A directory rule when non-matching the directory itself should be allowed.").directory().allowed(),
+                new IgnoreProcessorTest("build", "build/", "A directory rule when matching a file of the same name should be allowed.").allowed(),
+                new IgnoreProcessorTest("build", "build/", "A directory rule when matching a directory of the same name should be ignored.").directory().ignored(),
 
                 // Negation of excluded recursive files
                 new IgnoreProcessorTest("docs/UserApi.md", "docs/**\n!docs/UserApi.md", "A pattern negating a previous ignore FILE rule should be allowed.").allowed(),
@@ -112,6 +117,11 @@ public class IgnoreProcessorTest {
         return this;
     }
 
+    IgnoreProcessorTest directory() {
+        this.directory = true;
+        return this;
+    }
+
     IgnoreProcessorTest ignored() {
         this.allowed = false;
         return this;
@@ -129,7 +139,7 @@ public class IgnoreProcessorTest {
             LOGGER.warn("Failed to create directories for IgnoreProcessorTest test file. Directory may already exist.");
         }
 
-        Path created = Files.createFile(target.toPath());
+        Path created = this.directory ? Files.createDirectory(target.toPath()) : Files.createFile(target.toPath());
         if (!created.toFile().exists()) {
             throw new IOException("Failed to write IgnoreProcessorTest test file.");
         }
@@ -178,7 +188,7 @@ public class IgnoreProcessorTest {
     }
 
     @Test
-    public void evaluate() {
+    public void evaluate() throws IOException {
         if (this.skip) {
             return;
         }
@@ -195,9 +205,20 @@ public class IgnoreProcessorTest {
         Boolean actual = null;
 
         // Act
-        actual = processor.allowsFile(target);
+        if (this.directory) {
+            actual = processor.allowsFile(target.toPath(), Files.readAttributes(target.toPath(), BasicFileAttributes.class));
+        } else {
+            actual = processor.allowsFile(target);
+        }
 
         // Assert
         assertEquals(actual, this.allowed, this.description);
+
+        IgnoreProcessor negativeCache = new IgnoreProcessor.Builder(outputDir).addFile(".ignore").setNegativeCacheEnabled(true).build();
+        Boolean cached = negativeCache.allowsPath(this.filename, this.directory);
+        assertEquals(cached, actual, this.description + " (negative cache)");
+
+        Boolean walked = processor.cursor().resolve(this.filename).allows(this.directory);
+        assertEquals(walked, actual, this.description + " (cursor)");
     }
 }
\ No newline at end of file
@@ -0,0 +1,166 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class IgnoreWatcherTest {
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private Path root;
+    private IgnoreWatcher watcher;
+    private final List<String> events = new ArrayList<>();
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory(IgnoreWatcherTest.class.getSimpleName());
+        Files.createDirectories(root.resolve("src/main"));
+        Files.createDirectories(root.resolve("build/classes"));
+        write(".ignore", "build/\n*.log\n");
+        events.clear();
+        watcher = new IgnoreWatcher.Builder(root).addFile(".ignore").build(new IgnoreWatcher.Listener() {
+            @Override
+            public void onEvent(WatchEvent.Kind<?> kind, String relativePath, boolean isDirectory) {
+                events.add(kind.name() + " " + relativePath + (isDirectory ? "/" : ""));
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        watcher.close();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void write(String path, String content) throws IOException {
+        Files.write(root.resolve(path), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Polls until an event is delivered for {@code relativePath}, or the timeout elapses.
+     */
+    private void awaitEvent(String event) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!events.contains(event) && System.currentTimeMillis() < deadline) {
+            watcher.poll(100, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(events.contains(event), event + " in " + events);
+    }
+
+    @Test
+    public void testRegistersOnlyAllowedDirectories() {
+        // Assert
+        assertEquals(watcher.getWatchedDirectories(), new HashSet<>(Arrays.asList("", "src", "src/main")));
+    }
+
+    @Test
+    public void testDropsEventsForIgnoredFiles() throws Exception {
+        // Act
+        write("debug.log", "log");
+        write("src/main/App.java", "class App {}");
+
+        // Assert
+        awaitEvent("ENTRY_CREATE src/main/App.java");
+        assertFalse(events.contains("ENTRY_CREATE debug.log"), events.toString());
+    }
+
+    @Test
+    public void testFollowsCreatedAndDeletedDirectories() throws Exception {
+        // Act
+        Files.createDirectories(root.resolve("gen/model"));
+        write("gen/model/Pet.java", "class Pet {}");
+        awaitEvent("ENTRY_CREATE gen/model/Pet.java");
+
+        // Assert
+        assertTrue(events.contains("ENTRY_CREATE gen/"), events.toString());
+        assertTrue(watcher.getWatchedDirectories().contains("gen/model"));
+
+        // Act
+        Files.delete(root.resolve("gen/model/Pet.java"));
+        Files.delete(root.resolve("gen/model"));
+        awaitEvent("ENTRY_DELETE gen/model/");
+
+        // Assert
+        assertFalse(watcher.getWatchedDirectories().contains("gen/model"));
+        assertTrue(watcher.getWatchedDirectories().contains("gen"));
+    }
+
+    @Test
+    public void testDropsDeletionOfIgnoredDirectory() throws Exception {
+        // Act
+        Files.delete(root.resolve("build/classes"));
+        Files.delete(root.resolve("build"));
+        write("README.md", "");
+        awaitEvent("ENTRY_CREATE README.md");
+
+        // Assert
+        assertFalse(events.contains("ENTRY_DELETE build"), events.toString());
+        assertFalse(events.contains("ENTRY_DELETE build/"), events.toString());
+    }
+
+    @Test
+    public void testReloadsRulesWhenIgnoreFileChanges() throws Exception {
+        // Act
+        write(".ignore", "src/\n");
+        awaitEvent("ENTRY_MODIFY .ignore");
+
+        // Assert
+        assertEquals(watcher.getWatchedDirectories(), new HashSet<>(Arrays.asList("", "build", "build/classes")));
+        assertFalse(watcher.getProcessor().allowsPath("src/main/App.java", false));
+
+        // Act
+        write("build/classes/App.class", "");
+        write("app.log", "");
+
+        // Assert
+        awaitEvent("ENTRY_CREATE app.log");
+        awaitEvent("ENTRY_CREATE build/classes/App.class");
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+
+public class PathBatchTest {
+    private static final String[] NAMES = {"src", "main", "build", "out", "App.java", "app.log", "docs", "é", "日本", "a"};
+
+    private static IgnoreProcessor processor() {
+        return new IgnoreProcessor.Builder(System.getProperty("java.io.tmpdir"))
+                .addLines(".ignore", Arrays.asList("build/", "**/*.log", "!src/**/app.log", "docs/**", "日本/", "/a"))
+                .build();
+    }
+
+    private static byte[] encode(List<String> paths, String delimiter) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String path : paths) {
+            byte[] bytes = (path + delimiter).getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testMappedBatchMatchesProcessor() throws Exception {
+        // Arrange
+        List<String> paths = Arrays.asList("./src/main/App.java", "src/main/app.log", "src/main/", "build/", "build",
+                "build/out/App.java", "logs/app.log", "docs/index.md", "日本/é.txt", "a", "./", "src/a");
+        Path file = Files.createTempFile(PathBatchTest.class.getSimpleName(), ".bin");
+        try {
+            // Empty records are skipped, and the last delimiter is optional.
+            byte[] bytes = encode(paths, "\0\0");
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - 2));
+
+            // Act
+            PathBatch batch = PathBatch.map(file);
+            BitSet allowed = new BitSet();
+            batch.evaluate(processor(), allowed);
+
+            // Assert
+            assertEquals(batch.size(), paths.size());
+            for (int i = 0; i < paths.size(); i++) {
+                assertEquals(batch.getPath(i), paths.get(i));
+                assertEquals(allowed.get(i), CheckIgnore.allows(processor(), paths.get(i)), paths.get(i));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRandomSortedPathsIntoBuffer() {
+        // Arrange
+        Random random = new Random(7);
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder path = new StringBuilder();
+            int depth = 1 + random.nextInt(5);
+            for (int d = 0; d < depth; d++) {
+                if (d > 0) path.append('/');
+                path.append(NAMES[random.nextInt(NAMES.length)]);
+            }
+            if (random.nextInt(4) == 0) path.append('/');
+            paths.add(path.toString());
+        }
+        Collections.sort(paths);
+        byte[] bytes = encode(paths, "\0");
+        ByteBuffer data = ByteBuffer.allocateDirect(bytes.length);
+        data.put(bytes).flip();
+        IgnoreProcessor processor = processor();
+
+        // Act
+        PathBatch batch = PathBatch.wrap(data);
+        LongBuffer allowed = LongBuffer.allocate((batch.size() + 63) / 64);
+        batch.evaluate(processor, allowed);
+
+        // Assert
+        assertEquals(allowed.position(), allowed.capacity());
+        for (int i = 0; i < paths.size(); i++) {
+            boolean actual = (allowed.get(i >>> 6) & (1L << i)) != 0;
+            assertEquals(actual, CheckIgnore.allows(processor, paths.get(i)), paths.get(i));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.testng.annotations.Test;
+import us.jimschubert.iggy.rules.Telemetry;
+
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TelemetryTest {
+    private static final String BASE = System.getProperty("java.io.tmpdir");
+
+    /**
+     * Calls a public method of a {@code jdk.jfr} object, which the tests only reach reflectively so they build on JDKs
+     * without Flight Recorder.
+     */
+    private static Object call(Object target, String name, Object... args) throws Exception {
+        for (Method method : target.getClass().getMethods()) {
+            if (!method.getName().equals(name) || method.getParameterCount() != args.length) continue;
+            boolean applicable = true;
+            for (int i = 0; i < args.length; i++) {
+                applicable &= method.getParameterTypes()[i].isInstance(args[i]);
+            }
+            if (applicable) return method.invoke(target, args);
+        }
+        throw new NoSuchMethodException(name);
+    }
+
+    private static List<Object> named(List<?> events, String name) throws Exception {
+        List<Object> result = new ArrayList<>();
+        for (Object event : events) {
+            if (name.equals(call(call(event, "getEventType"), "getName"))) result.add(event);
+        }
+        return result;
+    }
+
+    @Test
+    public void testRecordsLoadCompileAndEvaluation() throws Exception {
+        // NOTE: Runtimes without Flight Recorder record nothing, which testDisabledEventsAreNotBegun covers.
+        if (!Telemetry.isAvailable()) return;
+
+        // Arrange
+        Path file = Files.createTempFile(getClass().getSimpleName(), ".jfr");
+        List<?> events;
+        Object recording = Class.forName("jdk.jfr.Recording").newInstance();
+        try {
+            call(recording, "enable", "us.jimschubert.iggy.Load");
+            call(call(recording, "enable", "us.jimschubert.iggy.Compile"), "withThreshold", Duration.ZERO);
+            call(call(recording, "enable", "us.jimschubert.iggy.Evaluation"), "withThreshold", Duration.ZERO);
+            call(recording, "start");
+
+            // Act
+            IgnoreProcessor processor = new IgnoreProcessor.Builder(BASE)
+                    .addLines(".ignore", Arrays.asList("# logs", "**/*.{log,tmp}", "", "!keep.log"))
+                    .build();
+            processor.allowsPath("logs/debug.log", false);
+            processor.allowsPath("src/App.java", false);
+
+            call(recording, "stop");
+            call(recording, "dump", file);
+            events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", Path.class).invoke(null, file);
+        } finally {
+            call(recording, "close");
+            Files.delete(file);
+        }
+
+        // Assert
+        List<Object> loads = named(events, "us.jimschubert.iggy.Load");
+        assertEquals(loads.size(), 1);
+        assertEquals(call(loads.get(0), "getString", "source"), ".ignore");
+        assertEquals(call(loads.get(0), "getInt", "lines"), 4);
+        assertEquals(call(loads.get(0), "getInt", "rules"), 2);
+
+        List<Object> compiles = named(events, "us.jimschubert.iggy.Compile");
+        assertEquals(compiles.size(), 2);
+        assertEquals(call(compiles.get(0), "getString", "pattern"), "**/*.{log,tmp}");
+        assertEquals(call(compiles.get(0), "getBoolean", "linear"), true);
+
+        List<Object> evaluations = named(events, "us.jimschubert.iggy.Evaluation");
+        assertEquals(evaluations.size(), 2);
+        assertEquals(call(evaluations.get(0), "getString", "path"), "logs/debug.log");
+        assertEquals(call(evaluations.get(0), "getString", "decidedBy"), "**/*.{log,tmp}");
+        assertEquals(call(evaluations.get(0), "getInt", "lineNumber"), 2);
+        assertTrue((Integer) call(evaluations.get(0), "getInt", "rulesTested") >= 1);
+        assertNull(call(evaluations.get(1), "getString", "decidedBy"));
+    }
+
+    @Test
+    public void testDisabledEventsAreNotBegun() throws Exception {
+        // No recording enables the events, so nothing is timed.
+        assertNull(Telemetry.beginLoad());
+        assertNull(Telemetry.beginEvaluation());
+        Telemetry.endEvaluation(null, "a", false, 0, null);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TreeCopyTest {
+    private static final List<String> FILES = Arrays.asList("README.md", "src/main/App.java", "src/main/App.java.orig",
+            "build/classes/App.class", "docs/index.md", "docs/api/Custom.md");
+
+    private Path source;
+    private Path target;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        source = Files.createTempDirectory(TreeCopyTest.class.getSimpleName());
+        target = Files.createTempDirectory(TreeCopyTest.class.getSimpleName());
+        for (String file : FILES) write(source.resolve(file), "generated " + file);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        delete(source);
+        delete(target);
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        // A fixed time, so a copy which doesn't preserve it can't be mistaken for an unchanged file.
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1500000000000L));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> list(final Path root) throws IOException {
+        final List<String> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(files);
+        return files;
+    }
+
+    private static void delete(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static IgnoreProcessor rules(String... lines) {
+        return new IgnoreProcessor.Builder(System.getProperty("java.io.tmpdir")).addLines(".ignore", Arrays.asList(lines)).build();
+    }
+
+    @Test
+    public void testCopiesAllowedFiles() throws Exception {
+        // Arrange
+        TreeCopy copy = new TreeCopy.Builder(rules("build/", "**/*.orig")).build();
+
+        // Act
+        TreeCopy.Result result = copy.copy(source, target);
+
+        // Assert
+        assertEquals(list(target), Arrays.asList("README.md", "docs/api/Custom.md", "docs/index.md", "src/main/App.java"));
+        assertEquals(read(target.resolve("src/main/App.java")), "generated src/main/App.java");
+        assertEquals(Files.getLastModifiedTime(target.resolve("README.md")).toMillis(), 1500000000000L);
+        assertFalse(Files.exists(target.resolve("build")), "Excluded directories should not be created.");
+        assertEquals(result.toString(), "copied=4 unchanged=0 excluded=2 protected=0");
+    }
+
+    @Test
+    public void testSkipsUnchangedFiles() throws Exception {
+        // Arrange
+        TreeCopy copy = new TreeCopy.Builder(rules("build/", "**/*.orig")).build();
+        copy.copy(source, target);
+        write(source.resolve("README.md"), "regenerated README.md");
+
+        // Act
+        TreeCopy.Result result = copy.copy(source, target);
+
+        // Assert
+        assertEquals(result.getCopied(), 1);
+        assertEquals(result.getUnchanged(), 3);
+        assertEquals(read(target.resolve("README.md")), "regenerated README.md");
+    }
+
+    @Test
+    public void testNeverOverwritesProtectedFiles() throws Exception {
+        // Arrange
+        write(target.resolve("README.md"), "hand-edited");
+        write(target.resolve("docs/api/Custom.md"), "hand-edited");
+        TreeCopy copy = new TreeCopy.Builder(rules("build/", "**/*.orig"))
+                .setProtectedRules(rules("README.md", "docs/api/"))
+                .build();
+
+        // Act
+        TreeCopy.Result result = copy.copy(source, target);
+
+        // Assert
+        assertEquals(read(target.resolve("README.md")), "hand-edited");
+        assertEquals(read(target.resolve("docs/api/Custom.md")), "hand-edited");
+        assertEquals(read(target.resolve("docs/index.md")), "generated docs/index.md");
+        assertEquals(result.toString(), "copied=2 unchanged=0 excluded=2 protected=2");
+    }
+
+    @Test
+    public void testCopiesInParallel() throws Exception {
+        // Arrange
+        for (int i = 0; i < 200; i++) write(source.resolve("gen/pkg" + (i % 7) + "/Model" + i + ".java"), "model " + i);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        TreeCopy copy = new TreeCopy.Builder(rules("build/", "**/*.orig")).setPool(pool).build();
+
+        try {
+            // Act
+            TreeCopy.Result result = copy.copy(source, target);
+
+            // Assert
+            assertEquals(result.getCopied(), 204);
+            assertEquals(list(target).size(), 204);
+            assertEquals(read(target.resolve("gen/pkg3/Model10.java")), "model 10");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expectedExceptions = NotDirectoryException.class)
+    public void testRejectsFileSource() throws Exception {
+        new TreeCopy.Builder(rules()).build().copy(source.resolve("README.md"), target);
+    }
+
+    @Test
+    public void testWalkFailureKeepsCopyFailures() throws Exception {
+        // Arrange
+        // Copies of gen*.txt fail on a directory in their place, and the walk fails creating src on a file in its place.
+        for (int i = 0; i < 30; i++) {
+            write(source.resolve("gen" + i + ".txt"), "generated " + i);
+            Files.createDirectories(target.resolve("gen" + i + ".txt"));
+        }
+        write(target.resolve("src"), "not a directory");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        TreeCopy copy = new TreeCopy.Builder(rules("build/", "**/*.orig")).setPool(pool).build();
+
+        try {
+            // Act
+            copy.copy(source, target);
+            fail("Expected the copy to fail.");
+        } catch (FileAlreadyExistsException e) {
+            // Assert
+            assertEquals(e.getFile(), target.resolve("src").toString());
+            for (Throwable suppressed : e.getSuppressed()) {
+                assertTrue(suppressed.getMessage().contains("gen"), suppressed.toString());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+
+public class TreeDigestTest {
+    private Path root;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory(TreeDigestTest.class.getSimpleName());
+        write("README.md", "readme");
+        write("src/main/App.java", "class App {}");
+        write("src/test/AppTest.java", "class AppTest {}");
+        write("build/classes/App.class", "binary");
+        write("logs/debug.log", "log");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void write(String path, String content) throws IOException {
+        write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void write(String path, byte[] content) throws IOException {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1500000000000L + content.length));
+    }
+
+    private static TreeDigest digest() {
+        IgnoreProcessor rules = new IgnoreProcessor.Builder(System.getProperty("java.io.tmpdir"))
+                .addLines(".ignore", Arrays.asList("build/", "**/*.log"))
+                .build();
+        return new TreeDigest.Builder(rules).build();
+    }
+
+    @Test
+    public void testDigestsFilesAndDirectories() throws Exception {
+        // Act
+        TreeDigest.Result result = digest().digest(root);
+
+        // Assert
+        MessageDigest sha = MessageDigest.getInstance("SHA-256");
+        byte[] app = sha.digest("class App {}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(result.getDigest("src/main/App.java"), app);
+
+        sha.update((byte) 'f');
+        sha.update(new byte[]{0, 0, 0, 8});
+        sha.update("App.java".getBytes(StandardCharsets.UTF_8));
+        sha.update(app);
+        assertEquals(result.getDigest("src/main"), sha.digest());
+
+        assertNull(result.getDigest("build"));
+        assertNull(result.getDigest("logs/debug.log"));
+        assertEquals(result.toString().length(), 64);
+        assertEquals(result.getHashed(), 3);
+    }
+
+    @Test
+    public void testIgnoresExcludedPaths() throws Exception {
+        // Arrange
+        String before = digest().digest(root).toString();
+
+        // Act
+        write("build/classes/App.class", "rebuilt");
+        write("logs/other.log", "log");
+        String after = digest().digest(root).toString();
+
+        // Assert
+        assertEquals(after, before);
+    }
+
+    @Test
+    public void testChangedFileChangesOnlyItsAncestors() throws Exception {
+        // Arrange
+        TreeDigest.Result before = digest().digest(root);
+
+        // Act
+        write("src/main/App.java", "class App { }");
+        TreeDigest.Result after = digest().digest(root);
+
+        // Assert
+        assertFalse(Arrays.equals(after.getDigest(), before.getDigest()));
+        assertFalse(Arrays.equals(after.getDigest("src"), before.getDigest("src")));
+        assertFalse(Arrays.equals(after.getDigest("src/main"), before.getDigest("src/main")));
+        assertEquals(after.getDigest("src/test"), before.getDigest("src/test"));
+        assertEquals(after.getDigest("README.md"), before.getDigest("README.md"));
+    }
+
+    @Test
+    public void testReusesUnchangedFilesFromPersistedResult() throws Exception {
+        // Arrange
+        ByteArrayOutputStream persisted = new ByteArrayOutputStream();
+        digest().digest(root).write(persisted);
+        write("src/test/AppTest.java", "class AppTest { }");
+        TreeDigest.Result previous = TreeDigest.Result.read(new ByteArrayInputStream(persisted.toByteArray()));
+        IgnoreProcessor rules = new IgnoreProcessor.Builder(System.getProperty("java.io.tmpdir"))
+                .addLines(".ignore", Arrays.asList("build/", "**/*.log"))
+                .build();
+
+        // Act
+        TreeDigest.Result result = new TreeDigest.Builder(rules).setPrevious(previous).build().digest(root);
+
+        // Assert
+        assertEquals(result.getHashed(), 1);
+        assertEquals(result.getReused(), 2);
+        assertEquals(result.toString(), digest().digest(root).toString());
+    }
+
+    @Test
+    public void testRereadsFilesModifiedJustBeforePreviousResult() throws Exception {
+        // Arrange
+        Path file = root.resolve("src/main/App.java");
+        FileTime recent = FileTime.fromMillis(System.currentTimeMillis());
+        Files.setLastModifiedTime(file, recent);
+        TreeDigest.Result previous = digest().digest(root);
+        IgnoreProcessor rules = new IgnoreProcessor.Builder(System.getProperty("java.io.tmpdir"))
+                .addLines(".ignore", Arrays.asList("build/", "**/*.log"))
+                .build();
+
+        // Act
+        // Rewritten within the same tick: same size and modification time, different content.
+        Files.write(file, "class Ap2 {}".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, recent);
+        TreeDigest.Result result = new TreeDigest.Builder(rules).setPrevious(previous).build().digest(root);
+
+        // Assert
+        assertEquals(result.getDigest("src/main/App.java"), MessageDigest.getInstance("SHA-256").digest("class Ap2 {}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(result.toString(), digest().digest(root).toString());
+        assertEquals(result.getHashed(), 1);
+        assertEquals(result.getReused(), 2);
+    }
+
+    @Test(expectedExceptions = NotDirectoryException.class)
+    public void testRejectsFileRoot() throws Exception {
+        digest().digest(root.resolve("README.md"));
+    }
+
+    @Test
+    public void testParallelAndMappedDigestsMatchSequential() throws Exception {
+        // Arrange
+        byte[] large = new byte[(int) TreeDigest.MAP_THRESHOLD * 3 + 17];
+        for (int i = 0; i < large.length; i++) large[i] = (byte) (i * 31);
+        write("assets/large.bin", large);
+        for (int i = 0; i < 50; i++) write("gen/Model" + i + ".java", "model " + i);
+        IgnoreProcessor rules = new IgnoreProcessor.Builder(System.getProperty("java.io.tmpdir"))
+                .addLines(".ignore", Arrays.asList("build/", "**/*.log"))
+                .build();
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            // Act
+            TreeDigest.Result parallel = new TreeDigest.Builder(rules).setPool(pool).build().digest(root);
+            TreeDigest.Result sequential = digest().digest(root);
+
+            // Assert
+            assertEquals(parallel.toString(), sequential.toString());
+            assertEquals(parallel.getDigest("assets/large.bin"), MessageDigest.getInstance("SHA-256").digest(large));
+            assertEquals(parallel.getHashed(), 54);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
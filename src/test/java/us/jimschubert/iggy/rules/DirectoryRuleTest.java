@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class DirectoryRuleTest {
+    private static final String DEFINITION = "foo/";
+    private static final List<Part> SYNTAX = Arrays.asList(
+            new Part(IgnoreLineParser.Token.TEXT, "foo"),
+            new Part(IgnoreLineParser.Token.DIRECTORY_MARKER)
+    );
+
+    @Test
+    public void testMatchContents() throws Exception {
+        // Arrange
+        Rule rule = new DirectoryRule(SYNTAX, DEFINITION);
+
+        // Act
+        Boolean actual = rule.matches("foo/bar.txt");
+
+        // Assert
+        assertTrue(actual);
+    }
+
+    @Test
+    public void testMatchDirectoryWithHint() throws Exception {
+        // Arrange
+        Rule rule = new DirectoryRule(SYNTAX, DEFINITION);
+
+        // Act
+        Boolean actual = rule.matches("foo", true);
+
+        // Assert
+        assertTrue(actual);
+    }
+
+    @Test
+    public void testNonMatchFileWithHint() throws Exception {
+        // Arrange
+        Rule rule = new DirectoryRule(SYNTAX, DEFINITION);
+
+        // Act
+        Boolean actual = rule.matches("foo", false);
+
+        // Assert
+        assertFalse(actual);
+    }
+
+    @Test
+    public void testNonMatchDirectoryWithoutHint() throws Exception {
+        // Arrange
+        Rule rule = new DirectoryRule(SYNTAX, DEFINITION);
+
+        // Act
+        Boolean actual = rule.matches("foo");
+
+        // Assert
+        assertFalse(actual);
+    }
+
+    @Test
+    public void testEvaluateDirectoryWithHint() throws Exception {
+        // Arrange
+        Rule rule = Rule.create("**/build/");
+
+        // Act
+        Rule.Operation actual = rule.evaluate("nested/build", true);
+
+        // Assert
+        assertEquals(actual, Rule.Operation.EXCLUDE);
+    }
+}
@@ -17,11 +17,19 @@
 
 package us.jimschubert.iggy.rules;
 
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.PatternSyntaxException;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
@@ -124,4 +132,63 @@ public class FileRuleTest {
         // Assert
         assertFalse(actual);
     }
-}
\ No newline at end of file
+
+    @DataProvider(name = "lazy")
+    public static Object[][] lazy() {
+        return new Object[][]{
+                {"**/*.{java,md}", "src/App.java", false},
+                {"docs/v[0-9]/*.html", "docs/v2/index.html", false},
+                {"path/to/**/complex/*.txt", "path/to/some/nested/complex/xyzzy.txt", false},
+                {"build/", "build", true},
+                {"build/", "build/classes/App.class", false},
+                {"**/cache/", "web/cache", true},
+                {"*.log", "nested/debug.log", false}
+        };
+    }
+
+    @Test(dataProvider = "lazy")
+    public void testLazyRuleMatchesEagerRule(String definition, String relativePath, boolean isDirectory) throws Exception {
+        // Arrange
+        Rule eager = Rule.create(definition, "eager", 1, Rule.Options.DEFAULT);
+        Rule lazy = Rule.create(definition, "lazy", 1, Rule.Options.DEFAULT.withLazyCompilation(true));
+
+        // Act
+        Boolean actual = lazy.matches(relativePath, isDirectory);
+
+        // Assert
+        assertEquals(lazy.getClass(), eager.getClass());
+        assertEquals(actual, eager.matches(relativePath, isDirectory));
+        assertEquals(lazy.matches(relativePath), eager.matches(relativePath));
+    }
+
+    @Test(expectedExceptions = PatternSyntaxException.class)
+    public void testLazyRuleRejectsInvalidGlobWhenCreated() throws Exception {
+        Rule.create("src/{a,b", "lazy", 1, Rule.Options.DEFAULT.withLazyCompilation(true));
+    }
+
+    @Test
+    public void testLazyRuleConcurrentFirstUse() throws Exception {
+        // Arrange
+        final Rule rule = Rule.create("**/gen-*/*.{java,kt}", "lazy", 1, Rule.Options.DEFAULT.withLazyCompilation(true));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        try {
+            // Act
+            for (int i = 0; i < 64; i++) {
+                final String path = i % 2 == 0 ? "src/gen-" + i + "/App.kt" : "src/main-" + i + "/App.kt";
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return rule.matches(path);
+                    }
+                }));
+            }
+
+            // Assert
+            for (int i = 0; i < results.size(); i++) assertEquals(results.get(i).get().booleanValue(), i % 2 == 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
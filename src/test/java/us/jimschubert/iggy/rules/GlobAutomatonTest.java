@@ -0,0 +1,204 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.file.FileSystems;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Random;
+import java.util.regex.PatternSyntaxException;
+
+import static org.testng.Assert.*;
+
+public class GlobAutomatonTest {
+    private static final String[] GLOB_PARTS = new String[]{
+            "a", "b", ".", "/", "*", "**", "?", "[ab]", "[!a]", "[a-c]", "{a,b*}", "{,x}", "\\*", "é", "😀"
+    };
+    private static final String[] PATH_PARTS = new String[]{
+            "a", "b", "c", ".", "/", "*", "x", "é", "😀", "\n"
+    };
+
+    private static String random(Random random, String[] parts, int max) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = random.nextInt(max + 1); i > 0; i--) sb.append(parts[random.nextInt(parts.length)]);
+        return sb.toString();
+    }
+
+    @Test
+    public void testSameResultsAsPathMatcher() throws Exception {
+        // NOTE: The automaton reproduces the default (unix) file system's globs.
+        if (SystemUtils.IS_OS_WINDOWS) return;
+
+        Random random = new Random(37);
+        for (int g = 0; g < 2000; g++) {
+            // Arrange
+            String glob = random(random, GLOB_PARTS, 8);
+            PathMatcher expected;
+            try {
+                expected = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            } catch (PatternSyntaxException e) {
+                try {
+                    GlobAutomaton.parse(glob);
+                    fail("Expected " + glob + " to be rejected: " + e.getDescription());
+                } catch (PatternSyntaxException rejected) {
+                    assertEquals(rejected.getIndex(), e.getIndex(), glob);
+                }
+                continue;
+            }
+            GlobAutomaton automaton = GlobAutomaton.compile(glob);
+
+            for (int p = 0; p < 50; p++) {
+                String path = random(random, PATH_PARTS, 10);
+                Path normalized;
+                try {
+                    normalized = FileSystems.getDefault().getPath(path);
+                } catch (InvalidPathException e) {
+                    // e.g. a name which isn't representable in the platform's encoding
+                    continue;
+                }
+                // Paths with empty segments, or a trailing separator, are normalized as paths but not by the automaton.
+                if (!normalized.toString().equals(path)) continue;
+
+                // Act
+                boolean actual = automaton.matches(path);
+
+                // Assert
+                assertEquals(actual, expected.matches(normalized), glob + " against " + path);
+            }
+        }
+    }
+
+    @DataProvider(name = "invalid")
+    public static Object[][] invalid() {
+        return new Object[][]{{"a\\"}, {"[a"}, {"[z-a]"}, {"[a/b]"}, {"{a,{b}}"}, {"{a"}};
+    }
+
+    @Test(dataProvider = "invalid")
+    public void testRejectsSameGlobsAsPathMatcher(String glob) throws Exception {
+        // Arrange
+        PatternSyntaxException expected = null;
+        try {
+            FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        } catch (PatternSyntaxException e) {
+            expected = e;
+        }
+
+        // Act
+        PatternSyntaxException actual = null;
+        try {
+            GlobAutomaton.compile(glob);
+        } catch (PatternSyntaxException e) {
+            actual = e;
+        }
+
+        // Assert
+        assertNotNull(expected, glob);
+        assertNotNull(actual, glob);
+        assertEquals(actual.getDescription(), expected.getDescription(), glob);
+        assertEquals(actual.getIndex(), expected.getIndex(), glob);
+    }
+
+    @Test
+    public void testUnsupportedSyntax() throws Exception {
+        assertTrue(GlobAutomaton.parse("**/[a-c]*.{java,md}").isSupported());
+        assertFalse(GlobAutomaton.parse("x[]]").isSupported());
+        assertFalse(GlobAutomaton.parse("x[!]]").isSupported());
+        assertFalse(GlobAutomaton.parse("x[&-&&]").isSupported());
+        assertFalse(GlobAutomaton.parse("x[&-\\&]").isSupported());
+    }
+
+    @Test
+    public void testDegree() throws Exception {
+        assertEquals(GlobAutomaton.parse("docs/a.md").getDegree(), 0);
+        assertEquals(GlobAutomaton.parse("**/*.txt").getDegree(), 2);
+        assertEquals(GlobAutomaton.parse("*a*a*a*b").getDegree(), 4);
+        assertEquals(GlobAutomaton.parse("*{a*a*,b}*").getDegree(), 4);
+    }
+
+    @Test(timeOut = 10000)
+    public void testAdversarialPathsInLinearTime() throws Exception {
+        // Arrange
+        // A backtracking matcher takes O(n^7) steps for this pattern against a run of 'a', so wouldn't complete.
+        GlobAutomaton automaton = GlobAutomaton.compile("*a*a*a*a*a*a*b");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) sb.append('a');
+        String path = sb.toString();
+
+        // Act
+        boolean actual = automaton.matches(path);
+        boolean matching = automaton.matches(path + "b");
+
+        // Assert
+        assertFalse(actual);
+        assertTrue(matching);
+    }
+
+    @Test(timeOut = 10000)
+    public void testAdversarialGroupsInLinearTime() throws Exception {
+        // Arrange
+        // Each alternative re-enters the group, which exhausts the cache of states. Matching continues uncached.
+        StringBuilder glob = new StringBuilder();
+        for (int i = 0; i < 12; i++) glob.append("{*a,a*}");
+        glob.append("b");
+        GlobAutomaton automaton = GlobAutomaton.compile(glob.toString());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) sb.append(i % 7 == 0 ? 'c' : 'a');
+        String path = sb.toString();
+
+        // Act
+        boolean actual = automaton.matches(path);
+
+        // Assert
+        assertFalse(actual);
+    }
+
+    @Test
+    public void testLinearModeRejectsUnsupportedPattern() throws Exception {
+        // Arrange
+        final String definition = "**/x[&-&&]";
+
+        // Act
+        Rule strict = Rule.create(definition, ".ignore", 3, Rule.Options.DEFAULT.withLinearMatching(true));
+        Rule lenient = Rule.create(definition, ".ignore", 3, Rule.Options.DEFAULT);
+
+        // Assert
+        assertTrue(strict instanceof InvalidRule);
+        assertTrue(((InvalidRule) strict).getReason().contains("linear time"), ((InvalidRule) strict).getReason());
+        assertEquals(strict.getSource(), ".ignore");
+        assertEquals(strict.getLineNumber(), 3);
+        assertEquals(strict.evaluate("a/x&"), Rule.Operation.NOOP);
+        assertTrue(lenient instanceof FileRule);
+        assertEquals(lenient.evaluate("a/x&"), Rule.Operation.EXCLUDE);
+    }
+
+    @Test
+    public void testLinearModeAcceptsOrdinaryPatterns() throws Exception {
+        // NOTE: Other file systems are matched by PathMatcher, so every glob is rejected.
+        if (SystemUtils.IS_OS_WINDOWS) return;
+
+        for (String definition : new String[]{"build/", "**/*.log", "*a*a*a*b", "docs/**/[a-c]?.{md,txt}", "!keep/**"}) {
+            Rule rule = Rule.create(definition, ".ignore", 1, Rule.Options.DEFAULT.withLinearMatching(true));
+
+            assertTrue(rule instanceof FileRule, definition);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class LiteralPrefilterTest {
+
+    @DataProvider(name = "literals")
+    public static Object[][] literals() {
+        return new Object[][]{
+                {"node_modules/", "node_modules"},
+                {"**/*Test*.*", "Test"},
+                {"**/*.min.js", ".min.js"},
+                {"path/to/**/complex/*.txt", "complex"},
+                {"**/*.{java,md}", "."},
+                {"**/{first*,second*}", null},
+                {"**/*[0-9]*", null},
+                {"**/?.?", "."},
+                {"!docs/UserApi.md", "UserApi.md"},
+                {"*", null}
+        };
+    }
+
+    @Test(dataProvider = "literals")
+    public void testRequiredLiteral(String definition, String expected) throws Exception {
+        if (SystemUtils.IS_OS_WINDOWS) expected = null;
+
+        // Act
+        String actual = LiteralPrefilter.requiredLiteral(Rule.create(definition));
+
+        // Assert
+        assertEquals(actual, expected, definition);
+    }
+
+    @Test
+    public void testCandidatesNeverExcludeMatchingRules() throws Exception {
+        // Arrange
+        List<Rule> rules = new ArrayList<>();
+        for (String definition : Arrays.asList("node_modules/", "**/*Test*.*", "**/*.min.js", "docs/**", "**/*[0-9]*", "**/build.sh", "**/*.sh")) {
+            rules.add(Rule.create(definition));
+        }
+        LiteralPrefilter prefilter = LiteralPrefilter.compile(rules);
+        List<String> paths = Arrays.asList("node_modules/a.js", "web/SomeTest.java", "dist/app.min.js", "docs/README.md",
+                "src/file1.txt", "src/build.sh", "src/run.sh", "src/main.c", "build.sh");
+
+        for (String path : paths) {
+            // Act
+            BitSet candidates = prefilter.candidates(path);
+
+            // Assert
+            for (int i = 0; i < rules.size(); i++) {
+                if (rules.get(i).matches(path)) {
+                    assertTrue(candidates.get(i), rules.get(i).getDefinition() + " should be a candidate for " + path);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCandidatesSkipRulesWithoutLiteral() throws Exception {
+        // Arrange
+        List<Rule> rules = Arrays.asList(Rule.create("node_modules/"), Rule.create("**/*.min.js"), Rule.create("**/*[0-9]*"));
+        LiteralPrefilter prefilter = LiteralPrefilter.compile(rules);
+
+        // Act
+        BitSet actual = prefilter.candidates("src/main/App.java");
+
+        // Assert
+        BitSet expected = new BitSet();
+        if (!SystemUtils.IS_OS_WINDOWS) {
+            expected.set(2);
+        } else {
+            expected.set(0, 3);
+        }
+        assertEquals(actual, expected);
+    }
+
+    @DataProvider(name = "bounds")
+    public static Object[][] bounds() {
+        return new Object[][]{
+                {"src/*/gen.txt", "2,2,12,txt"},
+                {"/*.md", "0,0,3,md"},
+                {"**/*.log", "1,*,5,log"},
+                {"**/*.tar.gz", "1,*,8,gz"},
+                {"node_modules/", "0,*,12,null"},
+                {"docs/**", "1,*,5,null"},
+                {"**/*.{java,md}", "1,*,2,null"},
+                {"a?c.tx?", "0,0,7,null"},
+                {"*", null}
+        };
+    }
+
+    @Test(dataProvider = "bounds")
+    public void testBounds(String definition, String expected) throws Exception {
+        if (SystemUtils.IS_OS_WINDOWS) expected = null;
+
+        // Act
+        LiteralPrefilter.Bounds bounds = LiteralPrefilter.Bounds.of(Rule.create(definition));
+
+        // Assert
+        String actual = bounds == null ? null : bounds.minSeparators + "," +
+                (bounds.maxSeparators == Integer.MAX_VALUE ? "*" : String.valueOf(bounds.maxSeparators)) + "," +
+                bounds.minLength + "," + bounds.extension;
+        assertEquals(actual, expected, definition);
+    }
+
+    @Test
+    public void testCandidatesSkipRulesOutOfBounds() throws Exception {
+        if (SystemUtils.IS_OS_WINDOWS) return;
+
+        // Arrange
+        List<Rule> rules = Arrays.asList(Rule.create("src/*/gen.txt"), Rule.create("logs/*.log"), Rule.create("**/?????*"), Rule.create("d/*.é"));
+        LiteralPrefilter prefilter = LiteralPrefilter.compile(rules);
+
+        // Act
+        BitSet deeper = prefilter.candidates("src/a/b/gen.txt");
+        BitSet otherExtension = prefilter.candidates("logs/app.log.bak");
+        BitSet shorter = prefilter.candidates("a/bcd");
+        BitSet otherUnicodeExtension = prefilter.candidates("d/file.è");
+
+        // Assert
+        assertEquals(deeper, BitSet.valueOf(new long[]{4}));
+        assertEquals(otherExtension, BitSet.valueOf(new long[]{4}));
+        assertEquals(shorter, new BitSet());
+        assertEquals(otherUnicodeExtension, BitSet.valueOf(new long[]{4}));
+    }
+
+    @Test
+    public void testCandidatesNeverRejectMatchingRulesByBounds() throws Exception {
+        // Arrange
+        Random random = new Random(37);
+        String[] patternParts = {"a", "é", "😀", ".", "/", "/", "*", "**", "?", "[a.]", "{a,b/c}", "log", "\\!", "\\ "};
+        String[] pathParts = {"a", "b", "c", "é", "😀", ".", ".", "/", "/", "log", "!", " "};
+        List<Rule> rules = new ArrayList<>();
+        while (rules.size() < 300) {
+            StringBuilder definition = new StringBuilder(random.nextBoolean() ? "" : "/");
+            for (int i = 1 + random.nextInt(5); i > 0; i--) definition.append(patternParts[random.nextInt(patternParts.length)]);
+            try {
+                Rule rule = Rule.create(definition.toString());
+                if (rule != null) rules.add(rule);
+            } catch (RuntimeException e) {
+                // Invalid glob.
+            }
+        }
+        LiteralPrefilter prefilter = LiteralPrefilter.compile(rules);
+        int rejected = 0;
+        // Sets reused across paths, as IgnoreProcessor does, must give the same candidates as new sets.
+        BitSet reused = new BitSet();
+
+        for (int p = 0; p < 3000; p++) {
+            StringBuilder path = new StringBuilder();
+            for (int i = 1 + random.nextInt(6); i > 0; i--) path.append(pathParts[random.nextInt(pathParts.length)]);
+
+            // Act
+            BitSet candidates = prefilter.candidates(path.toString());
+
+            // Assert
+            assertEquals(prefilter.candidates(path.toString(), reused), candidates, path.toString());
+            for (int i = 0; i < rules.size(); i++) {
+                Rule rule = rules.get(i);
+                if (!candidates.get(i)) rejected++;
+                for (boolean isDirectory : new boolean[]{false, true}) {
+                    if (!candidates.get(i)) {
+                        assertFalse(rule.matches(path.toString(), isDirectory), rule.getDefinition() + " against " + path);
+                    }
+                }
+            }
+        }
+        if (!SystemUtils.IS_OS_WINDOWS) assertTrue(rejected > 0);
+    }
+
+    @Test
+    public void testAutomatonFindsOverlappingKeywords() throws Exception {
+        // Arrange
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("he", "she", "his", "hers", "x"));
+        BitSet actual = new BitSet();
+
+        // Act
+        automaton.scan("ushers", actual);
+
+        // Assert
+        BitSet expected = new BitSet();
+        expected.set(0);
+        expected.set(1);
+        expected.set(3);
+        assertEquals(actual, expected);
+    }
+}
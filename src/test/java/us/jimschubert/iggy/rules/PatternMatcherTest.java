@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+
+import static org.testng.Assert.assertEquals;
+
+public class PatternMatcherTest {
+    private static final String[] PATHS = new String[]{
+            "build.sh",
+            "src/build.sh",
+            "src//build.sh",
+            "docs/",
+            "docs",
+            "docs/a.md",
+            "docs/1/2/a.md",
+            "other/docs/a.md",
+            "a.log",
+            "logs/a.log",
+            "logs/a.log/b",
+            "node_modules",
+            "web/node_modules",
+            "web/node_modules/left-pad/index.js",
+            "main.min.js",
+            "dist/main.min.js",
+            ".min.js",
+            "/.min.js",
+            ""
+    };
+
+    @DataProvider(name = "patterns")
+    public static Object[][] patterns() {
+        return new Object[][]{
+                {"build.sh", PatternMatcher.Kind.EXACT},
+                {"/build.sh", PatternMatcher.Kind.EXACT},
+                {"src/build.sh", PatternMatcher.Kind.EXACT},
+                {"docs/**", PatternMatcher.Kind.PREFIX},
+                {"web/node_modules/**", PatternMatcher.Kind.PREFIX},
+                {"**/*.log", PatternMatcher.Kind.SUFFIX},
+                {"**/*.min.js", PatternMatcher.Kind.SUFFIX},
+                {"*.log", PatternMatcher.Kind.ROOT_SUFFIX},
+                {"**/node_modules", PatternMatcher.Kind.BASENAME},
+                {"**/docs/a.md", PatternMatcher.Kind.BASENAME},
+                {"**/*.{java,md}", PatternMatcher.Kind.GLOB},
+                {"docs/**/a.md", PatternMatcher.Kind.GLOB},
+                {"**/?.?", PatternMatcher.Kind.GLOB},
+                {"**/improperly\\ escaped.txt", PatternMatcher.Kind.GLOB},
+                {"a*/b", PatternMatcher.Kind.GLOB}
+        };
+    }
+
+    @Test(dataProvider = "patterns")
+    public void testClassification(String definition, PatternMatcher.Kind expected) throws Exception {
+        // Arrange
+        Rule rule = Rule.create(definition);
+
+        // Act
+        PatternMatcher actual = PatternMatcher.compile(rule.getSyntax(), rule.getPattern());
+
+        // Assert
+        if (SystemUtils.IS_OS_WINDOWS) expected = PatternMatcher.Kind.GLOB;
+        assertEquals(actual.getKind(), expected, definition);
+    }
+
+    @Test(dataProvider = "patterns")
+    public void testSameResultsAsGlob(String definition, PatternMatcher.Kind kind) throws Exception {
+        // Arrange
+        Rule rule = Rule.create(definition);
+        PatternMatcher matcher = PatternMatcher.compile(rule.getSyntax(), rule.getPattern());
+        PathMatcher glob = FileSystems.getDefault().getPathMatcher("glob:" + rule.getPattern());
+
+        for (String path : PATHS) {
+            // Act
+            boolean actual = matcher.matches(path);
+
+            // Assert
+            assertEquals(actual, glob.matches(FileSystems.getDefault().getPath(path)), definition + " against " + path);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import org.testng.annotations.Test;
+import us.jimschubert.iggy.IgnoreProcessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class RuleSetOptimizerTest {
+    private static final String[] SEGMENTS = new String[]{"a", "b", "build"};
+    private static final String[] NAMES = new String[]{"x.log", "app.log", "y.txt", "a"};
+    private static final String[] PATTERNS = new String[]{
+            "%s/", "%s/%s/", "%s/**", "%s/%s/**", "%s/%s", "/%s/%s", "**/%s", "**/%s/%s", "**/*.log", "**/*p.log",
+            "*.log", "*.txt", "%s", "/%s", "%s/*.log", "**/%s/", "%s/**/%s", "%s?/"
+    };
+
+    private static String randomPattern(Random random) {
+        String format = PATTERNS[random.nextInt(PATTERNS.length)];
+        Object[] args = new Object[]{
+                SEGMENTS[random.nextInt(SEGMENTS.length)],
+                random.nextBoolean() ? SEGMENTS[random.nextInt(SEGMENTS.length)] : NAMES[random.nextInt(NAMES.length)]
+        };
+        return (random.nextInt(3) == 0 ? "!" : "") + String.format(format, args);
+    }
+
+    private static String randomPath(Random random) {
+        StringBuilder path = new StringBuilder();
+        for (int i = random.nextInt(3); i > 0; i--) path.append(SEGMENTS[random.nextInt(SEGMENTS.length)]).append('/');
+        path.append(random.nextBoolean() ? SEGMENTS[random.nextInt(SEGMENTS.length)] : NAMES[random.nextInt(NAMES.length)]);
+        return path.toString();
+    }
+
+    @Test
+    public void testRemovesRedundantRules() {
+        // Arrange
+        IgnoreProcessor.Builder builder = new IgnoreProcessor.Builder(System.getProperty("java.io.tmpdir"))
+                .addLines(".gitignore", Arrays.asList("foo/**", "foo/bar/**", "*.log", "**/*.log", "**/*.log", "build/",
+                        "!build/keep.txt", "!keep.log", "!docs/readme.md"))
+                .addLines(".ignore", Arrays.asList("docs/**"));
+
+        // Act
+        IgnoreProcessor processor = builder.setOptimizationEnabled(true).build();
+
+        // Assert
+        List<RuleSetOptimizer.Removal> removals = processor.getRemovedRules();
+        assertEquals(removals.size(), 4);
+        assertEquals(removals.get(0).toString(), ".gitignore:2: foo/bar/** is subsumed by .gitignore:1: foo/**");
+        assertEquals(removals.get(1).getReason(), RuleSetOptimizer.Reason.DUPLICATE);
+        assertEquals(removals.get(1).getRule().getLineNumber(), 4);
+        assertEquals(removals.get(1).getCoveredBy().getLineNumber(), 5);
+        assertEquals(removals.get(2).toString(), ".gitignore:7: !build/keep.txt can't re-include paths excluded by .gitignore:6: build/");
+        assertEquals(removals.get(3).getRule().getDefinition(), "!docs/readme.md");
+        assertEquals(removals.get(3).getCoveredBy().getSource(), ".ignore");
+
+        // *.log is kept: **/*.log only matches below a directory.
+        assertEquals(processor.getExclusionRules().size(), 5);
+        assertEquals(processor.getInclusionRules().size(), 1);
+        assertEquals(builder.setOptimizationEnabled(false).build().getRemovedRules().size(), 0);
+    }
+
+    @Test
+    public void testOptimizedProcessorDecidesAsUnoptimized() {
+        Random random = new Random(31);
+        int removed = 0;
+        for (int r = 0; r < 300; r++) {
+            // Arrange
+            IgnoreProcessor.Builder builder = new IgnoreProcessor.Builder(System.getProperty("java.io.tmpdir"));
+            List<String> all = new ArrayList<>();
+            for (int s = 1 + random.nextInt(3); s > 0; s--) {
+                List<String> lines = new ArrayList<>();
+                for (int i = random.nextInt(16); i > 0; i--) lines.add(randomPattern(random));
+                builder.addLines(".ignore" + s, lines);
+                all.add(lines.toString());
+            }
+            IgnoreProcessor expected = builder.build();
+
+            // Act
+            IgnoreProcessor actual = builder.setOptimizationEnabled(true).build();
+
+            // Assert
+            removed += actual.getRemovedRules().size();
+            assertEquals(actual.getExclusionRules().size() + actual.getInclusionRules().size() + actual.getRemovedRules().size(),
+                    expected.getExclusionRules().size() + expected.getInclusionRules().size());
+            for (int p = 0; p < 200; p++) {
+                String path = randomPath(random);
+                for (boolean isDirectory : new boolean[]{false, true}) {
+                    assertEquals(actual.allowsPath(path, isDirectory), expected.allowsPath(path, isDirectory),
+                            all + " against " + path + (isDirectory ? "/" : "") + ", removed " + actual.getRemovedRules());
+                }
+            }
+        }
+        assertTrue(removed > 300, "Removed " + removed);
+    }
+}
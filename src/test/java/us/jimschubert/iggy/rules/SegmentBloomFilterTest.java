@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class SegmentBloomFilterTest {
+    private static List<Rule> rules(String... definitions) {
+        List<Rule> rules = new ArrayList<>();
+        for (String definition : definitions) rules.add(Rule.create(definition));
+        return rules;
+    }
+
+    @Test
+    public void testExhaustiveWhenEveryRuleIsKeyed() throws Exception {
+        // Arrange
+        SegmentBloomFilter filter = SegmentBloomFilter.compile(rules("node_modules/", "**/*.log", "docs/**/Users/", "/build.sh"));
+
+        // Act
+        boolean actual = filter.isExhaustive();
+
+        // Assert
+        assertEquals(actual, !SystemUtils.IS_OS_WINDOWS);
+    }
+
+    @Test
+    public void testUnkeyedRulesAreRetained() throws Exception {
+        // Arrange
+        SegmentBloomFilter filter = SegmentBloomFilter.compile(rules("node_modules/", "**/*Test*.*", "**/{first*,second*}", "build/"));
+        BitSet candidates = new BitSet();
+        candidates.set(0, 4);
+
+        // Act
+        filter.retainUnkeyed(candidates);
+
+        // Assert
+        assertFalse(filter.isExhaustive());
+        assertFalse(candidates.get(0) && !SystemUtils.IS_OS_WINDOWS);
+        assertTrue(candidates.get(1));
+        assertTrue(candidates.get(2));
+        assertFalse(candidates.get(3) && !SystemUtils.IS_OS_WINDOWS);
+    }
+
+    @Test
+    public void testMightMatchNeverMissesMatchingRules() throws Exception {
+        // Arrange
+        List<Rule> rules = rules("node_modules/", "**/*.log", "docs/**/Users/", "/build.sh", "**/*.min.js", "src/*/gen.txt", "**/*.?");
+        SegmentBloomFilter filter = SegmentBloomFilter.compile(rules);
+        BitSet unkeyed = new BitSet();
+        unkeyed.set(0, rules.size());
+        filter.retainUnkeyed(unkeyed);
+        List<String> paths = Arrays.asList("node_modules", "web/node_modules/a.js", "logs/today.log", "docs/1/Users/a.md",
+                "docs/1/Users", "build.sh", "dist/app.min.js", "src/main/gen.txt", "a/b.c", "src/main/App.java");
+
+        for (String path : paths) {
+            for (boolean isDirectory : new boolean[]{false, true}) {
+                for (int i = 0; i < rules.size(); i++) {
+                    // Act
+                    boolean matches = rules.get(i).matches(path, isDirectory);
+
+                    // Assert
+                    if (matches && !unkeyed.get(i)) {
+                        assertTrue(filter.mightMatch(path), rules.get(i).getDefinition() + " matches " + path);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMightMatchRejectsUnrelatedPaths() throws Exception {
+        // Arrange
+        SegmentBloomFilter filter = SegmentBloomFilter.compile(rules("node_modules/", "**/*.log", "/build.sh"));
+
+        // Act
+        boolean actual = filter.mightMatch("src/main/java/us/jimschubert/iggy/IgnoreProcessor.java");
+
+        // Assert
+        assertFalse(actual && !SystemUtils.IS_OS_WINDOWS);
+    }
+}
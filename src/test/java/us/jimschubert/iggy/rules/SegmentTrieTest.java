@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2017 Jim Schubert
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ *  or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package us.jimschubert.iggy.rules;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class SegmentTrieTest {
+    private static final List<String> DEFINITIONS = Arrays.asList("node_modules/", "**/*.min.js", "docs/**", "a/**/b",
+            "**/build.sh", "src/*/generated/", "**/*.{java,md}", "file?.txt", "**/[a-c]*.log", "foo**", "*", "!docs/README.md");
+
+    private static final List<String> PATHS = Arrays.asList("node_modules", "node_modules/x/y.js", "web/node_modules/a.js",
+            "dist/app.min.js", "app.min.js", "docs", "docs/README.md", "docs/a/b.txt", "a/b", "a/x/b", "a/x/y/b", "a/b/c",
+            "build.sh", "tools/build.sh", "src/main/generated", "src/main/generated/A.java", "src/generated/A.java",
+            "README.md", "src/App.java", "file1.txt", "file12.txt", "logs/app.log", "logs/zzz.log", "foobar/baz", "x");
+
+    private static List<Rule> rules() {
+        List<Rule> rules = new ArrayList<>();
+        for (String definition : DEFINITIONS) rules.add(Rule.create(definition));
+        return rules;
+    }
+
+    @Test
+    public void testMatchesSameRulesAsEvaluation() throws Exception {
+        // Arrange
+        List<Rule> rules = rules();
+        SegmentTrie trie = SegmentTrie.compile(rules);
+
+        for (String path : PATHS) {
+            for (boolean isDirectory : new boolean[]{false, true}) {
+                // Act
+                BitSet actual = new BitSet();
+                trie.root().resolve(path).matches(isDirectory, actual);
+
+                // Assert
+                for (int i = 0; i < rules.size(); i++) {
+                    if (trie.isOpaque(i)) {
+                        assertFalse(actual.get(i), DEFINITIONS.get(i) + " is opaque, and should not be reported for " + path);
+                    } else {
+                        Boolean expected = rules.get(i).matches(path, isDirectory);
+                        assertEquals(actual.get(i), expected.booleanValue(), DEFINITIONS.get(i) + " against " + path + " (directory: " + isDirectory + ")");
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testResolvingBySegmentEqualsResolvingByPath() throws Exception {
+        // Arrange
+        SegmentTrie trie = SegmentTrie.compile(rules());
+
+        for (String path : PATHS) {
+            SegmentTrie.State state = trie.root();
+            for (String segment : path.split("/")) state = state.resolve(segment);
+
+            // Act
+            BitSet bySegment = new BitSet();
+            state.matches(false, bySegment);
+            BitSet byPath = new BitSet();
+            trie.root().resolve(path).matches(false, byPath);
+
+            // Assert
+            assertEquals(bySegment, byPath, path);
+        }
+    }
+
+    @Test
+    public void testOpaqueRules() throws Exception {
+        // Arrange
+        List<Rule> rules = rules();
+
+        // Act
+        SegmentTrie trie = SegmentTrie.compile(rules);
+
+        // Assert
+        for (int i = 0; i < rules.size(); i++) {
+            String definition = DEFINITIONS.get(i);
+            // foo** spans segments, and * is a RootedFileRule
+            boolean expected = SystemUtils.IS_OS_WINDOWS || "foo**".equals(definition) || "*".equals(definition);
+            assertEquals(trie.isOpaque(i), expected, definition);
+        }
+    }
+
+    @Test
+    public void testStateIsDeadWhenNoRuleCanMatch() throws Exception {
+        if (SystemUtils.IS_OS_WINDOWS) return;
+
+        // Arrange
+        SegmentTrie trie = SegmentTrie.compile(Arrays.asList(Rule.create("docs/api/"), Rule.create("build/")));
+
+        // Act
+        SegmentTrie.State state = trie.root().resolve("src");
+
+        // Assert
+        assertTrue(state.isDead());
+        assertFalse(trie.root().resolve("docs").isDead());
+    }
+}